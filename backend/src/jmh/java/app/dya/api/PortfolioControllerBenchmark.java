@@ -0,0 +1,44 @@
+package app.dya.api;
+
+import app.dya.api.dto.PortfolioDTO;
+import app.dya.bench.Recorded;
+import app.dya.service.aave.AaveV3Service;
+import app.dya.service.compound.CompoundLensClientBenchmark;
+import app.dya.service.portfolio.PositionAggregator;
+import app.dya.service.uniswap.UniswapV3Service;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@code GET /portfolio/{address}} aggregation over recorded Aave, Compound and
+ * Uniswap payloads. The snapshot cache is disabled so every call fans out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PortfolioControllerBenchmark {
+
+    private PortfolioController controller;
+
+    @Setup
+    public void setUp() {
+        PositionAggregator aggregator = new PositionAggregator(
+                new AaveV3Service(Recorded.restTemplateBuilder("aave-user.json"), "http://recorded"),
+                CompoundLensClientBenchmark.recordedService(),
+                new UniswapV3Service(Recorded.restTemplateBuilder("uniswap-positions.json"), "http://recorded"),
+                4000, 4000, 4000, 15000, 0, 0, 0);
+        controller = new PortfolioController(aggregator, 500, 30000, 12);
+    }
+
+    @Benchmark
+    public PortfolioDTO getPortfolio() {
+        return controller.getPortfolio("0x8f3a5c8a3c3e4b8c2d1e0f9a7b6c5d4e3f2a1b0c").getBody();
+    }
+}
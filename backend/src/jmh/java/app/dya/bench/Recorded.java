@@ -0,0 +1,105 @@
+package app.dya.bench;
+
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+import org.web3j.protocol.Service;
+import org.web3j.protocol.Web3j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replays payloads recorded from the subgraphs and the Ethereum RPC so benchmarks
+ * measure decoding and aggregation without any network I/O.
+ */
+public final class Recorded {
+
+    private Recorded() {
+    }
+
+    public static byte[] payload(String name) {
+        try (InputStream in = Recorded.class.getResourceAsStream("/recorded/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("missing recorded payload " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Builder whose {@link RestTemplate} answers every request with the given payload.
+     */
+    public static RestTemplateBuilder restTemplateBuilder(String name) {
+        byte[] body = payload(name);
+        RestTemplate restTemplate = new RestTemplate((uri, method) -> {
+            MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.POST, uri);
+            MockClientHttpResponse response = new MockClientHttpResponse(body, HttpStatus.OK);
+            response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            request.setResponse(response);
+            return request;
+        });
+        return new RestTemplateBuilder() {
+            @Override
+            public RestTemplate build() {
+                return restTemplate;
+            }
+        };
+    }
+
+    /**
+     * {@link Web3j} answering every {@code eth_call}, single or batched, with the
+     * recorded JSON-RPC response.
+     */
+    public static Web3j web3j(String name) {
+        return Web3j.build(new ReplayingService(new String(payload(name), StandardCharsets.UTF_8)));
+    }
+
+    private static final class ReplayingService extends Service {
+
+        private final byte[] single;
+        private final Map<Integer, byte[]> batches = new ConcurrentHashMap<>();
+
+        ReplayingService(String response) {
+            super(false);
+            this.single = response.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected InputStream performIO(String payload) {
+            if (!payload.startsWith("[")) {
+                return new ByteArrayInputStream(single);
+            }
+            int requests = 0;
+            for (int i = payload.indexOf("\"jsonrpc\""); i >= 0; i = payload.indexOf("\"jsonrpc\"", i + 1)) {
+                requests++;
+            }
+            return new ByteArrayInputStream(batches.computeIfAbsent(requests, this::batchResponse));
+        }
+
+        private byte[] batchResponse(int requests) {
+            String response = new String(single, StandardCharsets.UTF_8);
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < requests; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(response);
+            }
+            return sb.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package app.dya.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Price cache lookups from request threads racing with refresh writes.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExpiringCacheBenchmark {
+
+    private static final String[] KEYS = {"ETH", "BTC", "USDC", "DAI", "LINK", "AAVE", "UNI", "COMP"};
+
+    private ExpiringCache<String, Map<String, BigDecimal>> cache;
+    private Map<String, BigDecimal> value;
+
+    @Setup
+    public void setUp() {
+        cache = new ExpiringCache<>(Duration.ofMinutes(10), 1000, Duration.ofMinutes(1));
+        value = Map.of("ETH", new BigDecimal("3412.55"));
+        for (String key : KEYS) {
+            cache.put(key, value);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(6)
+    public Map<String, BigDecimal> get() {
+        return cache.get(KEYS[ThreadLocalRandom.current().nextInt(KEYS.length)]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void put() {
+        cache.put(KEYS[ThreadLocalRandom.current().nextInt(KEYS.length)], value);
+    }
+}
@@ -0,0 +1,47 @@
+package app.dya.price;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A day of per-minute prices queried as a 200-point chart, and appending one price.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PriceHistoryBenchmark {
+
+    private static final long MINUTE = 60_000;
+    private static final int POINTS = 2880;
+
+    private PriceHistory history;
+    private long t;
+
+    @Setup
+    public void setUp() {
+        history = new PriceHistory((Path) null, 16, POINTS);
+        for (t = 0; t < POINTS; t++) history.append("ETH", t * MINUTE, 2500 + Math.sin(t / 60.0) * 50);
+    }
+
+    @Benchmark
+    public int query(Blackhole bh) {
+        return history.query("ETH", (POINTS - 1440) * MINUTE, POINTS * MINUTE, 200, (time, usd) -> {
+            bh.consume(time);
+            bh.consume(usd);
+        });
+    }
+
+    @Benchmark
+    public boolean append() {
+        return history.append("DAI", ++t * MINUTE, 1.0);
+    }
+}
@@ -0,0 +1,72 @@
+package app.dya.price;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pricing a request of {@code tokens} symbols from a warm cache: registry lookup, cache
+ * hits and response assembly. The upstream answers instantly, so misses only cost the
+ * bookkeeping around the CoinGecko call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PriceServiceBenchmark {
+
+    @Param({"3", "3000"})
+    public int tokens;
+
+    private PriceService service;
+    private List<String> symbols;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("[");
+        symbols = new ArrayList<>(tokens);
+        for (int i = 0; i < tokens; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"symbol\":\"TK%d\",\"coingeckoId\":\"token-%d\",\"address\":\"0x%040x\"}".formatted(i, i, i + 1));
+            symbols.add("tk" + i);
+        }
+        TokenRegistry registry = new TokenRegistry(new ByteArrayResource(
+                json.append(']').toString().getBytes(StandardCharsets.UTF_8)));
+        CoinGeckoClient client = new CoinGeckoClient("http://localhost", null, null, 1000, 1000, null, 0) {
+            @Override
+            public Map<String, Map<String, Double>> fetchUsdPricesByIds(Set<String> ids) {
+                Map<String, Map<String, Double>> prices = new HashMap<>();
+                for (String id : ids) prices.put(id, Map.of("usd", 1.0));
+                return prices;
+            }
+        };
+        service = new PriceService(client, registry, new RequestFrequency(Duration.ofMinutes(10)),
+                new PriceHistory((java.nio.file.Path) null, tokens, 16), ObservedPrices.disabled(), 10, 10_000);
+        service.getUsdQuotes(symbols);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+
+    @Benchmark
+    public Map<String, PriceService.Quote> warmCache() {
+        return service.getUsdQuotes(symbols);
+    }
+}
@@ -0,0 +1,51 @@
+package app.dya.service;
+
+import app.dya.api.dto.AlertItem;
+import app.dya.api.dto.PortfolioDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * APR tracking over a steady set of positions, alternating rates so that half of the
+ * checks produce a yield-drop alert.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ApyTrackingServiceBenchmark {
+
+    private ApyTrackingService service;
+    private List<PortfolioDTO.PositionDTO> positions;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        service = new ApyTrackingService();
+        positions = List.of(
+                position("USDC", "0.0412"),
+                position("USDC", "0.0210"),
+                position("WETH", "0.0185"),
+                position("WETH", "0.0090"));
+    }
+
+    @Benchmark
+    public Optional<AlertItem> checkApy() {
+        PortfolioDTO.PositionDTO position = positions.get(next++ & 3);
+        return service.checkApy("0x8f3a5c8a3c3e4b8c2d1e0f9a7b6c5d4e3f2a1b0c", position);
+    }
+
+    private static PortfolioDTO.PositionDTO position(String asset, String apr) {
+        return new PortfolioDTO.PositionDTO("Aave", "ethereum", asset, BigDecimal.TEN, BigDecimal.TEN,
+                new BigDecimal(apr), BigDecimal.ZERO, BigDecimal.ZERO, "OK", "DEPOSIT");
+    }
+}
@@ -0,0 +1,33 @@
+package app.dya.service.aave;
+
+import app.dya.bench.Recorded;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subgraph decoding and {@code mapReserve} for a recorded wallet with six reserves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AaveV3ServiceBenchmark {
+
+    private AaveV3Service service;
+
+    @Setup
+    public void setUp() {
+        service = new AaveV3Service(Recorded.restTemplateBuilder("aave-user.json"), "http://recorded");
+    }
+
+    @Benchmark
+    public AaveV3Service.AaveAccount getAccount() {
+        return service.getAccount("0x8f3a5c8a3c3e4b8c2d1e0f9a7b6c5d4e3f2a1b0c");
+    }
+}
@@ -0,0 +1,94 @@
+package app.dya.service.compound;
+
+import app.dya.bench.Recorded;
+import app.dya.service.chain.BlockPinnedCallCache;
+import app.dya.service.chain.BlockTracker;
+import app.dya.service.chain.EthCallBatcher;
+import org.web3j.protocol.Web3j;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ABI encoding of Lens calls and decoding of the recorded responses: a single
+ * {@code cTokenBalances} call, one {@code cTokenBalancesAll} call covering every market,
+ * and a batch of ten wallets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CompoundLensClientBenchmark {
+
+    private static final List<String> C_TOKENS = List.of(
+            "0x5d3a536e4d6dbd6114cc1ead35777bab948e3643",
+            "0x39AA39c021dfbaE8faC545936693aC917d5E7563");
+
+    private CompoundLensClient client;
+    private CompoundLensClient allClient;
+    private List<String> accounts;
+
+    @Setup
+    public void setUp() {
+        client = lensClient("compound-lens-cTokenBalances.json");
+        allClient = lensClient("compound-lens-cTokenBalancesAll.json");
+        accounts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            accounts.add("0x%040x".formatted(0xabc000 + i));
+        }
+    }
+
+    @Benchmark
+    public CompoundLensClient.CTokenBalance getBalance() throws IOException {
+        return client.getBalance(C_TOKENS.get(0), accounts.get(0));
+    }
+
+    @Benchmark
+    public List<CompoundLensClient.CTokenBalance> getBalancesAll() throws IOException {
+        return allClient.getBalancesAll(C_TOKENS, accounts.get(0));
+    }
+
+    @Benchmark
+    public Map<String, List<CompoundLensClient.CTokenBalance>> getBalancesBatch() throws IOException {
+        return allClient.getBalances(C_TOKENS, accounts);
+    }
+
+    /**
+     * Lens client on the recorded RPC; batches are flushed without waiting. The block
+     * tracker is never polled, so every read goes upstream instead of hitting the cache.
+     */
+    private static CompoundLensClient lensClient(String payload) {
+        Web3j web3j = Recorded.web3j(payload);
+        return lensClient(web3j, new BlockTracker(web3j, Duration.ofSeconds(30)));
+    }
+
+    private static CompoundLensClient lensClient(Web3j web3j, BlockTracker tracker) {
+        return new CompoundLensClient(new BlockPinnedCallCache(new EthCallBatcher(web3j, 50, Duration.ZERO), tracker, 0));
+    }
+
+    /**
+     * Compound service answering from the recorded Lens response, for aggregation benchmarks.
+     * Its market data is set once to fixed rates and prices instead of being read over RPC.
+     */
+    public static CompoundV2Service recordedService() {
+        Web3j web3j = Recorded.web3j("compound-lens-cTokenBalancesAll.json");
+        BlockTracker tracker = new BlockTracker(web3j, Duration.ofSeconds(30));
+        CompoundV2Service service = new CompoundV2Service(lensClient(web3j, tracker), tracker);
+        for (String cToken : C_TOKENS) {
+            service.markets().put(cToken, new CompoundMarketCache.Market(
+                    new BigDecimal("0.03"), new BigDecimal("0.05"), BigDecimal.ONE));
+        }
+        return service;
+    }
+}
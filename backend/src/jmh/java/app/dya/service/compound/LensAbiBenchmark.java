@@ -0,0 +1,79 @@
+package app.dya.service.compound;
+
+import app.dya.service.chain.AbiCallTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding one {@code cTokenBalances} call and decoding its response: web3j's reflective
+ * {@link Function} path against a precompiled {@link AbiCallTemplate} with hand decoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LensAbiBenchmark {
+
+    private static final String CDAI = "0x5d3a536e4d6dbd6114cc1ead35777bab948e3643";
+    private static final String ACCOUNT = "0x00000000219ab540356cbb839cbe05303d7705fa";
+
+    private AbiCallTemplate template;
+    private EthCall response;
+
+    @Setup
+    public void setUp() {
+        template = AbiCallTemplate.precompile("cTokenBalances", List.of(new Address(CDAI), AbiCallTemplate.ACCOUNT));
+        StringBuilder hex = new StringBuilder("0x").append(word(new BigInteger(CDAI.substring(2), 16)));
+        for (String value : List.of("4a817c8002f11", "de0b6b3a7640000", "10f0cf064dd59200000", "0", "0")) {
+            hex.append(word(new BigInteger(value, 16)));
+        }
+        response = new EthCall();
+        response.setResult(hex.toString());
+    }
+
+    @Benchmark
+    public CompoundLensClient.CTokenBalance web3jFunction() {
+        Function function = new Function(
+                "cTokenBalances",
+                Arrays.asList(new Address(CDAI), new Address(ACCOUNT)),
+                Arrays.asList(
+                        new TypeReference<Address>() {},
+                        new TypeReference<Uint256>() {},
+                        new TypeReference<Uint256>() {},
+                        new TypeReference<Uint256>() {},
+                        new TypeReference<Uint256>() {},
+                        new TypeReference<Uint256>() {}));
+        String data = FunctionEncoder.encode(function);
+        List<Type> values = FunctionReturnDecoder.decode(response.getValue(), function.getOutputParameters());
+        return data.isEmpty() ? null : new CompoundLensClient.CTokenBalance(
+                ((Uint256) values.get(3)).getValue(), ((Uint256) values.get(2)).getValue());
+    }
+
+    @Benchmark
+    public CompoundLensClient.CTokenBalance precompiledTemplate() throws IOException {
+        String data = template.encode(ACCOUNT);
+        return data.isEmpty() ? null : CompoundLensClient.decodeBalance(response);
+    }
+
+    private static String word(BigInteger value) {
+        return String.format("%064x", value);
+    }
+}
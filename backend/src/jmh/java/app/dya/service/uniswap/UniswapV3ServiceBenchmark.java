@@ -0,0 +1,35 @@
+package app.dya.service.uniswap;
+
+import app.dya.api.dto.PortfolioDTO;
+import app.dya.bench.Recorded;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subgraph decoding and {@code mapPosition} for a recorded wallet with four LP positions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UniswapV3ServiceBenchmark {
+
+    private UniswapV3Service service;
+
+    @Setup
+    public void setUp() {
+        service = new UniswapV3Service(Recorded.restTemplateBuilder("uniswap-positions.json"), "http://recorded");
+    }
+
+    @Benchmark
+    public List<PortfolioDTO.PositionDTO> getPositions() {
+        return service.getPositions("0x8f3a5c8a3c3e4b8c2d1e0f9a7b6c5d4e3f2a1b0c");
+    }
+}
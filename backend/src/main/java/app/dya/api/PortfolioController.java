@@ -1,73 +1,147 @@
 package app.dya.api;
 
 import app.dya.api.dto.*;
-import app.dya.service.aave.AaveV3Service;
-import app.dya.service.compound.CompoundV2Service;
-import app.dya.service.uniswap.UniswapV3Service;
+import app.dya.service.portfolio.PortfolioTotals;
+import app.dya.service.portfolio.PositionAggregator;
+import app.dya.service.portfolio.PositionSnapshot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/portfolio")
 @CrossOrigin(origins = "*")
 public class PortfolioController {
 
-    private final AaveV3Service aaveV3Service;
-    private final CompoundV2Service compoundV2Service;
-    private final UniswapV3Service uniswapV3Service;
+    private final PositionAggregator positionAggregator;
+    private final int maxBatchAddresses;
+    private final long streamTimeoutMillis;
+    private final Duration blockInterval;
 
-    public PortfolioController(AaveV3Service aaveV3Service,
-                               CompoundV2Service compoundV2Service,
-                               UniswapV3Service uniswapV3Service) {
-        this.aaveV3Service = aaveV3Service;
-        this.compoundV2Service = compoundV2Service;
-        this.uniswapV3Service = uniswapV3Service;
+    public PortfolioController(PositionAggregator positionAggregator,
+                               @Value("${app.portfolio.batch.maxAddresses:500}") int maxBatchAddresses,
+                               @Value("${app.portfolio.stream.timeoutMillis:30000}") long streamTimeoutMillis,
+                               @Value("${app.portfolio.blockIntervalSeconds:12}") long blockIntervalSeconds) {
+        this.positionAggregator = positionAggregator;
+        this.maxBatchAddresses = maxBatchAddresses;
+        this.streamTimeoutMillis = streamTimeoutMillis;
+        this.blockInterval = Duration.ofSeconds(Math.max(0, blockIntervalSeconds));
     }
 
+    /**
+     * GET /portfolio/{address} -> the wallet's portfolio.
+     *
+     * <p>The {@code ETag} is the fetch time of the snapshot the portfolio is built from, so
+     * polls with a matching {@code If-None-Match} get {@code 304 Not Modified} and nothing is
+     * serialized. {@code Cache-Control} allows caching only while the snapshot is fresh on the
+     * server: for the rest of its TTL, but at most until the next block is expected
+     * ({@code app.portfolio.blockIntervalSeconds} after the last one), since every new head
+     * makes cached snapshots stale. Stale snapshots, served while they are refreshed, and
+     * portfolios with degraded protocols get {@code no-cache}, so clients revalidate with the
+     * {@code ETag} and pick up the refresh.</p>
+     */
     @GetMapping("/{address}")
-    public PortfolioDTO getPortfolio(@PathVariable String address) {
-        List<PortfolioDTO.PositionDTO> positions = new ArrayList<>();
-        positions.addAll(aaveV3Service.getPositions(address));
-        positions.addAll(compoundV2Service.getPositions(address));
-        positions.addAll(uniswapV3Service.getPositions(address));
+    public ResponseEntity<PortfolioDTO> getPortfolio(@PathVariable String address) {
+        PositionSnapshot snapshot = positionAggregator.snapshot(address);
+        Duration fresh = positionAggregator.freshFor(address, snapshot, blockInterval);
+        CacheControl cacheControl = snapshot.degradedProtocols().isEmpty() && fresh.toSeconds() > 0
+                ? CacheControl.maxAge(fresh)
+                : CacheControl.noCache();
+        return ResponseEntity.ok()
+                .eTag(etag(snapshot))
+                .cacheControl(cacheControl)
+                .body(toPortfolio(address, snapshot));
+    }
+
+    /** Strong validator of a snapshot: every fan-out produces a snapshot with its own fetch time. */
+    static String etag(PositionSnapshot snapshot) {
+        Instant fetchedAt = snapshot.fetchedAt();
+        return "\"" + Long.toHexString(fetchedAt.getEpochSecond()) + "." + Integer.toHexString(fetchedAt.getNano()) + "\"";
+    }
 
-        BigDecimal totalUsd = positions.stream()
-                .map(PortfolioDTO.PositionDTO::usdValue)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    /**
+     * POST /portfolio/batch {"addresses":["0x...","0x..."]} -> one portfolio per distinct address.
+     * Protocols are queried for all wallets at once rather than once per wallet.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> getPortfolios(@RequestBody BatchPortfolioRequest request) {
+        List<String> addresses = request == null || request.addresses() == null ? List.of()
+                : request.addresses().stream()
+                        .filter(a -> a != null && !a.isBlank())
+                        .map(String::trim)
+                        .toList();
+        if (addresses.isEmpty() || addresses.size() > maxBatchAddresses) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "addresses must contain between 1 and " + maxBatchAddresses + " entries"));
+        }
 
-        BigDecimal totalBorrowUsd = positions.stream()
-                .map(PortfolioDTO.PositionDTO::borrowAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        Map<String, PositionSnapshot> snapshots = positionAggregator.fetchBatch(addresses);
+        Map<String, PortfolioDTO> portfolios = new LinkedHashMap<>();
+        for (String address : addresses) {
+            String key = address.toLowerCase();
+            portfolios.computeIfAbsent(key, k -> toPortfolio(address, snapshots.get(k)));
+        }
+        return ResponseEntity.ok(List.copyOf(portfolios.values()));
+    }
 
-        BigDecimal netWorthUsd = totalUsd.subtract(totalBorrowUsd);
-        BigDecimal healthFactor = totalBorrowUsd.compareTo(BigDecimal.ZERO) > 0
-                ? totalUsd.divide(totalBorrowUsd, 2, RoundingMode.HALF_UP)
-                : BigDecimal.ZERO;
+    /**
+     * GET /portfolio/{address}/stream -> server-sent events: one "protocol" event per protocol as
+     * soon as it answers (or misses its deadline), then a final "totals" event.
+     */
+    @GetMapping(value = "/{address}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPortfolio(@PathVariable String address) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        positionAggregator.stream(address, (protocol, positions, degraded) ->
+                        send(emitter, "protocol", new ProtocolPositionsEvent(
+                                protocol, degraded ? "DEGRADED" : "OK", positions)))
+                .whenComplete((snapshot, error) -> {
+                    if (error != null) {
+                        emitter.completeWithError(error);
+                        return;
+                    }
+                    PortfolioTotals totals = PortfolioTotals.of(snapshot.positions());
+                    send(emitter, "totals", new PortfolioTotalsEvent(
+                            address,
+                            totals.totalUsd(),
+                            totals.netWorthUsd(),
+                            totals.dailyYieldUsd(),
+                            totals.healthFactor(),
+                            snapshot.fetchedAt().toString(),
+                            snapshot.degradedProtocols()));
+                    emitter.complete();
+                });
+        return emitter;
+    }
 
-        BigDecimal dailyYieldUsd = BigDecimal.ZERO;
-        for (PortfolioDTO.PositionDTO p : positions) {
-            BigDecimal depositYield = p.usdValue()
-                    .multiply(p.apr())
-                    .divide(BigDecimal.valueOf(365), 18, RoundingMode.HALF_UP);
-            BigDecimal borrowCost = p.borrowAmount()
-                    .multiply(p.borrowApr())
-                    .divide(BigDecimal.valueOf(365), 18, RoundingMode.HALF_UP);
-            dailyYieldUsd = dailyYieldUsd.add(depositYield).subtract(borrowCost);
+    private static void send(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException ignored) {
+            // client went away; the remaining events are dropped
         }
+    }
 
+    private PortfolioDTO toPortfolio(String address, PositionSnapshot snapshot) {
+        PortfolioTotals totals = PortfolioTotals.of(snapshot.positions());
         return new PortfolioDTO(
                 address,
-                totalUsd,
-                netWorthUsd,
-                dailyYieldUsd,
-                healthFactor,
-                positions,
-                Instant.now().toString()
+                totals.totalUsd(),
+                totals.netWorthUsd(),
+                totals.dailyYieldUsd(),
+                totals.healthFactor(),
+                snapshot.positions(),
+                snapshot.fetchedAt().toString(),
+                snapshot.degradedProtocols()
         );
     }
 }
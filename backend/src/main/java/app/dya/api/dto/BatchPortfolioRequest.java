@@ -0,0 +1,5 @@
+package app.dya.api.dto;
+
+import java.util.List;
+
+public record BatchPortfolioRequest(List<String> addresses) {}
@@ -10,7 +10,8 @@ public record PortfolioDTO(
         BigDecimal dailyYieldUsd,
         BigDecimal healthFactor,
         List<PositionDTO> positions,
-        String lastUpdatedIso
+        String lastUpdatedIso,
+        List<String> degradedProtocols // protocols that failed or missed their deadline
 ) {
     public record PositionDTO(
             String protocol,      // "Aave", "Compound", "UniswapV3"
@@ -0,0 +1,14 @@
+package app.dya.api.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+public record PortfolioTotalsEvent(
+        String address,
+        BigDecimal totalUsd,
+        BigDecimal netWorthUsd,
+        BigDecimal dailyYieldUsd,
+        BigDecimal healthFactor,
+        String lastUpdatedIso,
+        List<String> degradedProtocols
+) {}
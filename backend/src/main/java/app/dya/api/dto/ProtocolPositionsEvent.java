@@ -0,0 +1,9 @@
+package app.dya.api.dto;
+
+import java.util.List;
+
+public record ProtocolPositionsEvent(
+        String protocol,
+        String status,   // "OK" | "DEGRADED"
+        List<PortfolioDTO.PositionDTO> positions
+) {}
@@ -0,0 +1,245 @@
+package app.dya.cache;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache whose entries expire a fixed time after they were written.
+ *
+ * <p>Expiry is kept as a {@link System#nanoTime()} deadline, so reads and writes allocate
+ * nothing but the entry itself. Entries are evicted in write order, which with a fixed TTL
+ * is also expiry order: once more than {@code maxSize} keys are cached the oldest writes
+ * are dropped, and a shared background sweeper removes expired entries every
+ * {@code sweepInterval} even if nobody reads them. Hits, misses, loads, puts and evictions
+ * are counted for {@link ExpiringCacheMetrics}.</p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ExpiringCache<K, V> implements AutoCloseable {
+
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final LongSupplier nanoTime;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    /**
+     * Every write in order. Nodes of overwritten or removed entries are skipped when polled,
+     * and compacted away once they outnumber the live entries.
+     */
+    private final Queue<Write<K, V>> writes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ScheduledFuture<?> sweep;
+
+    /**
+     * @param ttl           how long an entry is served after it was written
+     * @param maxSize       maximum number of cached keys
+     * @param sweepInterval how often expired entries are removed in the background
+     */
+    public ExpiringCache(Duration ttl, int maxSize, Duration sweepInterval) {
+        this(ttl, maxSize, sweepInterval, System::nanoTime);
+    }
+
+    ExpiringCache(Duration ttl, int maxSize, Duration sweepInterval, LongSupplier nanoTime) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.nanoTime = nanoTime;
+        long sweepMillis = Math.max(1, sweepInterval.toMillis());
+        this.sweep = SWEEPER.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the cached value, or {@code null} when absent or expired
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAt - nanoTime.getAsLong() > 0) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entries.remove(key, entry)) {
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Return the cached value or load and cache it. Concurrent misses for the same key
+     * each run the loader.
+     *
+     * @param loader computes the value; {@code null} results are returned but not cached
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        loads.increment();
+        value = loader.apply(key);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, ttlNanos);
+    }
+
+    /**
+     * Cache {@code value} for {@code ttl} instead of the cache's TTL, e.g. to restore an entry
+     * written earlier with the time it has left. The background sweep expects entries to
+     * expire in write order, so a shorter TTL than earlier writes only delays its sweep; reads
+     * never return it after it expired.
+     */
+    public void put(K key, V value, Duration ttl) {
+        put(key, value, Math.min(ttl.toNanos(), ttlNanos));
+    }
+
+    /**
+     * Cache {@code value} unless a live value is already cached for the key. Unlike a
+     * {@link #get} followed by a {@link #put}, concurrent callers agree on a single value.
+     *
+     * @return the value already cached, or {@code null} if {@code value} was stored
+     */
+    public V putIfAbsent(K key, V value) {
+        long now = nanoTime.getAsLong();
+        Entry<V> entry = new Entry<>(value, now + ttlNanos);
+        while (true) {
+            Entry<V> existing = entries.putIfAbsent(key, entry);
+            if (existing != null && existing.expiresAt - now > 0) {
+                return existing.value;
+            }
+            if (existing == null || entries.replace(key, existing, entry)) {
+                if (existing != null) evictions.increment();
+                written(key, entry);
+                return null;
+            }
+        }
+    }
+
+    private void put(K key, V value, long ttlNanos) {
+        Entry<V> entry = new Entry<>(value, nanoTime.getAsLong() + ttlNanos);
+        entries.put(key, entry);
+        written(key, entry);
+    }
+
+    /** Queue a write for eviction and expiry, and keep the cache within {@code maxSize}. */
+    private void written(K key, Entry<V> entry) {
+        writes.add(new Write<>(key, entry));
+        if (queued.incrementAndGet() > 2 * entries.size() + 64) {
+            compact();
+        }
+        puts.increment();
+        while (entries.size() > maxSize && evictOldest()) {
+            // keep evicting until within bounds
+        }
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Remove every expired entry. Runs on the shared sweeper thread. */
+    void sweep() {
+        long now = nanoTime.getAsLong();
+        for (Write<K, V> write; (write = writes.peek()) != null; ) {
+            boolean live = entries.get(write.key) == write.entry;
+            if (live && write.entry.expiresAt - now > 0) {
+                return;
+            }
+            if (writes.remove(write)) {
+                queued.decrementAndGet();
+            }
+            if (live && entries.remove(write.key, write.entry)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private boolean evictOldest() {
+        for (Write<K, V> write; (write = writes.poll()) != null; ) {
+            queued.decrementAndGet();
+            if (entries.remove(write.key, write.entry)) {
+                evictions.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void compact() {
+        if (!compacting.compareAndSet(false, true)) return;
+        try {
+            writes.removeIf(write -> {
+                if (entries.get(write.key) == write.entry) return false;
+                queued.decrementAndGet();
+                return true;
+            });
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long loadCount() {
+        return loads.sum();
+    }
+
+    long putCount() {
+        return puts.sum();
+    }
+
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    /** Stops the background sweep. */
+    @Override
+    public void close() {
+        sweep.cancel(false);
+    }
+
+    private record Entry<V>(V value, long expiresAt) {}
+
+    private record Write<K, V>(K key, Entry<V> entry) {}
+}
@@ -0,0 +1,56 @@
+package app.dya.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+
+/**
+ * Publishes an {@link ExpiringCache} as the standard Micrometer cache meters
+ * ({@code cache.gets}, {@code cache.puts}, {@code cache.evictions}, {@code cache.size})
+ * plus {@code cache.loads}, tagged with the cache name.
+ */
+public class ExpiringCacheMetrics extends CacheMeterBinder<ExpiringCache<?, ?>> {
+
+    public ExpiringCacheMetrics(ExpiringCache<?, ?> cache, String cacheName, Iterable<Tag> tags) {
+        super(cache, cacheName, tags);
+    }
+
+    @Override
+    protected Long size() {
+        ExpiringCache<?, ?> cache = getCache();
+        return cache == null ? null : (long) cache.size();
+    }
+
+    @Override
+    protected long hitCount() {
+        ExpiringCache<?, ?> cache = getCache();
+        return cache == null ? 0 : cache.hitCount();
+    }
+
+    @Override
+    protected Long missCount() {
+        ExpiringCache<?, ?> cache = getCache();
+        return cache == null ? null : cache.missCount();
+    }
+
+    @Override
+    protected Long evictionCount() {
+        ExpiringCache<?, ?> cache = getCache();
+        return cache == null ? null : cache.evictionCount();
+    }
+
+    @Override
+    protected long putCount() {
+        ExpiringCache<?, ?> cache = getCache();
+        return cache == null ? 0 : cache.putCount();
+    }
+
+    @Override
+    protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("cache.loads", getCache(), cache -> cache == null ? 0 : cache.loadCount())
+                .tags(getTagsWithCacheName())
+                .description("The number of values loaded on a miss")
+                .register(registry);
+    }
+}
@@ -0,0 +1,24 @@
+package app.dya.config;
+
+import app.dya.price.ObservedPrices;
+import app.dya.price.PriceService;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Publishes the in-memory caches as actuator {@code cache.*} metrics.
+ */
+@Configuration(proxyBeanMethods = false)
+public class CacheMetricsConfig {
+
+    @Bean
+    public MeterBinder priceCacheMetrics(PriceService priceService) {
+        return priceService.cacheMetrics();
+    }
+
+    @Bean
+    public MeterBinder observedPriceMetrics(ObservedPrices observedPrices) {
+        return observedPrices.cacheMetrics();
+    }
+}
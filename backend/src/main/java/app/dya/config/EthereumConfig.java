@@ -0,0 +1,78 @@
+package app.dya.config;
+
+import app.dya.service.chain.BlockPinnedCallCache;
+import app.dya.service.chain.BlockTracker;
+import app.dya.service.chain.EthCallBatcher;
+import app.dya.service.chain.NewHeadsSubscription;
+import app.dya.service.compound.CompoundLensClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.http.HttpService;
+
+import java.time.Duration;
+
+/**
+ * Ethereum JSON-RPC access shared by the on-chain integrations.
+ */
+@Configuration(proxyBeanMethods = false)
+public class EthereumConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public Web3j ethereumWeb3j(@Value("${app.chains.ethereum.rpcUrl:}") String rpcUrl,
+                               @Value("${app.chains.ethereum.infuraApiKey:}") String infuraApiKey) {
+        if (rpcUrl == null || rpcUrl.isBlank()) {
+            rpcUrl = String.format("https://mainnet.infura.io/v3/%s", infuraApiKey);
+        }
+        return Web3j.build(new HttpService(rpcUrl));
+    }
+
+    /**
+     * Concurrent {@code eth_call}s from all requests are merged into JSON-RPC batches of at
+     * most {@code maxSize} calls, waiting at most {@code maxWaitMillis} for a batch to fill.
+     */
+    @Bean(destroyMethod = "close")
+    public EthCallBatcher ethCallBatcher(Web3j ethereumWeb3j,
+                                         @Value("${app.chains.ethereum.batch.maxSize:50}") int maxBatchSize,
+                                         @Value("${app.chains.ethereum.batch.maxWaitMillis:5}") long maxWaitMillis) {
+        return new EthCallBatcher(ethereumWeb3j, maxBatchSize, Duration.ofMillis(maxWaitMillis));
+    }
+
+    /**
+     * Chain head that on-chain reads are pinned to. It is polled every {@code blockPollMillis}
+     * unless the newHeads subscription pushed a head within {@code headTimeoutMillis}.
+     */
+    @Bean
+    public BlockTracker blockTracker(Web3j ethereumWeb3j,
+                                     @Value("${app.chains.ethereum.headTimeoutMillis:30000}") long headTimeoutMillis) {
+        return new BlockTracker(ethereumWeb3j, Duration.ofMillis(headTimeoutMillis));
+    }
+
+    /**
+     * newHeads subscription on {@code wsUrl}; without one the block tracker only polls.
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public NewHeadsSubscription newHeadsSubscription(BlockTracker blockTracker,
+                                                     @Value("${app.chains.ethereum.wsUrl:}") String wsUrl,
+                                                     @Value("${app.chains.ethereum.reconnect.minBackoffMillis:1000}") long minBackoffMillis,
+                                                     @Value("${app.chains.ethereum.reconnect.maxBackoffMillis:60000}") long maxBackoffMillis) {
+        return new NewHeadsSubscription(wsUrl, blockTracker,
+                Duration.ofMillis(minBackoffMillis), Duration.ofMillis(maxBackoffMillis));
+    }
+
+    /**
+     * Reads pinned to the tracked head and cached per block, holding at most
+     * {@code callCache.maxEntries} results of the current block.
+     */
+    @Bean
+    public BlockPinnedCallCache blockPinnedCallCache(EthCallBatcher ethCallBatcher, BlockTracker blockTracker,
+                                                     @Value("${app.chains.ethereum.callCache.maxEntries:10000}") int maxEntries) {
+        return new BlockPinnedCallCache(ethCallBatcher, blockTracker, maxEntries);
+    }
+
+    @Bean
+    public CompoundLensClient compoundLensClient(BlockPinnedCallCache blockPinnedCallCache) {
+        return new CompoundLensClient(blockPinnedCallCache);
+    }
+}
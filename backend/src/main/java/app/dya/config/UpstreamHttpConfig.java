@@ -0,0 +1,90 @@
+package app.dya.config;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+/**
+ * One keep-alive connection pool shared by every upstream HTTP integration (subgraphs,
+ * CoinGecko), so TLS handshakes are paid once per connection instead of once per call.
+ *
+ * <p>Every {@code RestTemplate} built from the injected {@code RestTemplateBuilder} uses
+ * this pool. Responses are requested and decoded with gzip/deflate, idle connections are
+ * evicted in the background, and pool usage is published as {@code httpcomponents.httpclient.pool.*}
+ * metrics tagged {@code httpclient=upstream}.</p>
+ */
+@Configuration(proxyBeanMethods = false)
+public class UpstreamHttpConfig {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager upstreamConnectionManager(
+            @Value("${app.http.connectTimeoutMillis:3000}") long connectTimeoutMillis,
+            @Value("${app.http.readTimeoutMillis:4000}") long readTimeoutMillis,
+            @Value("${app.http.pool.maxTotal:64}") int maxTotal,
+            @Value("${app.http.pool.maxPerRoute:16}") int maxPerRoute,
+            @Value("${app.http.pool.timeToLiveSeconds:300}") long timeToLiveSeconds) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMillis))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMillis))
+                        .setTimeToLive(TimeValue.ofSeconds(timeToLiveSeconds))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient upstreamHttpClient(
+            PoolingHttpClientConnectionManager upstreamConnectionManager,
+            @Value("${app.http.readTimeoutMillis:4000}") long readTimeoutMillis,
+            @Value("${app.http.pool.idleEvictSeconds:30}") long idleEvictSeconds,
+            @Value("${app.http.proxyHost:}") String proxyHost,
+            @Value("${app.http.proxyPort:0}") int proxyPort) {
+        var builder = HttpClients.custom()
+                .setConnectionManager(upstreamConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(readTimeoutMillis))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMillis))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(idleEvictSeconds))
+                .setUserAgent("DYA-Backend/1.0");
+        if (proxyHost != null && !proxyHost.isBlank() && proxyPort > 0) {
+            builder.setProxy(new HttpHost(proxyHost, proxyPort));
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public ClientHttpRequestFactory upstreamRequestFactory(CloseableHttpClient upstreamHttpClient) {
+        return new HttpComponentsClientHttpRequestFactory(upstreamHttpClient);
+    }
+
+    @Bean
+    public RestTemplateCustomizer upstreamRestTemplateCustomizer(ClientHttpRequestFactory upstreamRequestFactory) {
+        return restTemplate -> restTemplate.setRequestFactory(upstreamRequestFactory);
+    }
+
+    @Bean
+    public MeterBinder upstreamConnectionPoolMetrics(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(upstreamConnectionManager, "upstream");
+    }
+}
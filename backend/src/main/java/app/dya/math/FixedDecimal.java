@@ -0,0 +1,456 @@
+package app.dya.math;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Immutable decimal for on-chain amounts, stored as a 128-bit unsigned magnitude, a sign
+ * and a decimal scale.
+ *
+ * <p>Every operation returns exactly what the corresponding {@link BigDecimal} operation
+ * returns, scale included: {@link #parse} matches {@code new BigDecimal(s)},
+ * {@link #parseUnits} matches {@code new BigDecimal(s).movePointLeft(decimals)},
+ * {@link #add}, {@link #subtract} and {@link #multiply} are exact, and
+ * {@link #divide(FixedDecimal, int)} rounds {@link RoundingMode#HALF_UP}. Values can
+ * therefore be converted with {@link #toBigDecimal()} at the DTO boundary without
+ * changing any output.</p>
+ *
+ * <p>Token balances, WAD/RAY values and USD amounts fit into 128 bits and are computed
+ * with primitive arithmetic. Values that do not fit, such as the {@code uint256} maximum
+ * health factor the Aave subgraph reports for wallets without debt, transparently fall
+ * back to {@link BigDecimal}.</p>
+ */
+public final class FixedDecimal implements Comparable<FixedDecimal> {
+
+    public static final FixedDecimal ZERO = new FixedDecimal(0, 0, false, 0);
+    public static final FixedDecimal ONE = new FixedDecimal(0, 1, false, 0);
+
+    private static final int MAX_POW10 = 38;
+    private static final long[] POW10_HI = new long[MAX_POW10 + 1];
+    private static final long[] POW10_LO = new long[MAX_POW10 + 1];
+
+    static {
+        BigInteger p = BigInteger.ONE;
+        for (int i = 0; i <= MAX_POW10; i++) {
+            POW10_LO[i] = p.longValue();
+            POW10_HI[i] = p.shiftRight(64).longValue();
+            p = p.multiply(BigInteger.TEN);
+        }
+    }
+
+    private final long hi;
+    private final long lo;
+    private final boolean negative;
+    private final int scale;
+    /** Set instead of the compact fields when the magnitude does not fit into 128 bits. */
+    private final BigDecimal inflated;
+
+    private FixedDecimal(long hi, long lo, boolean negative, int scale) {
+        this.hi = hi;
+        this.lo = lo;
+        this.negative = negative && (hi | lo) != 0;
+        this.scale = scale;
+        this.inflated = null;
+    }
+
+    private FixedDecimal(BigDecimal inflated) {
+        this.hi = 0;
+        this.lo = 0;
+        this.negative = false;
+        this.scale = inflated.scale();
+        this.inflated = inflated;
+    }
+
+    /** Same value and scale as {@code BigDecimal.valueOf(unscaled, scale)}. */
+    public static FixedDecimal valueOf(long unscaled, int scale) {
+        return unscaled == Long.MIN_VALUE
+                ? new FixedDecimal(0, Long.MIN_VALUE, true, scale)
+                : new FixedDecimal(0, Math.abs(unscaled), unscaled < 0, scale);
+    }
+
+    /** Same value and scale as the given {@link BigDecimal}. */
+    public static FixedDecimal valueOf(BigDecimal value) {
+        BigInteger unscaled = value.unscaledValue();
+        int bits = unscaled.bitLength();
+        if (bits < 64) {
+            return valueOf(unscaled.longValue(), value.scale());
+        }
+        if (bits > 128) {
+            return new FixedDecimal(value);
+        }
+        BigInteger magnitude = unscaled.abs();
+        return new FixedDecimal(magnitude.shiftRight(64).longValue(), magnitude.longValue(),
+                unscaled.signum() < 0, value.scale());
+    }
+
+    /**
+     * Parse a decimal string such as {@code "1.0025"}.
+     *
+     * @throws NumberFormatException when {@code new BigDecimal(value)} would
+     */
+    public static FixedDecimal parse(String value) {
+        return parse(value, 0);
+    }
+
+    /**
+     * Parse an integer amount in the smallest on-chain unit and shift it by the token
+     * decimals, e.g. {@code parseUnits("1500000", 6)} is {@code 1.500000}.
+     *
+     * @throws NumberFormatException when {@code new BigDecimal(value)} would
+     */
+    public static FixedDecimal parseUnits(String value, int decimals) {
+        if (decimals < 0) {
+            return valueOf(new BigDecimal(value).movePointLeft(decimals));
+        }
+        return parse(value, decimals);
+    }
+
+    private static FixedDecimal parse(String value, int shift) {
+        int len = value.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            negative = value.charAt(0) == '-';
+            i = 1;
+        }
+        long hi = 0;
+        long lo = 0;
+        int fractionDigits = 0;
+        int digits = 0;
+        boolean dot = false;
+        for (; i < len; i++) {
+            char c = value.charAt(i);
+            if (c == '.' && !dot) {
+                dot = true;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return slowParse(value, shift);
+            }
+            // magnitude = magnitude * 10 + digit
+            if (Math.unsignedMultiplyHigh(hi, 10) != 0) {
+                return slowParse(value, shift);
+            }
+            long newHi = hi * 10 + Math.unsignedMultiplyHigh(lo, 10);
+            if (Long.compareUnsigned(newHi, hi * 10) < 0) {
+                return slowParse(value, shift);
+            }
+            long newLo = lo * 10;
+            long sum = newLo + (c - '0');
+            if (Long.compareUnsigned(sum, newLo) < 0) {
+                newHi++;
+                if (newHi == 0) {
+                    return slowParse(value, shift);
+                }
+            }
+            hi = newHi;
+            lo = sum;
+            digits++;
+            if (dot) fractionDigits++;
+        }
+        if (digits == 0) {
+            return slowParse(value, shift);
+        }
+        return new FixedDecimal(hi, lo, negative, fractionDigits + shift);
+    }
+
+    private static FixedDecimal slowParse(String value, int shift) {
+        BigDecimal parsed = new BigDecimal(value);
+        return valueOf(shift == 0 ? parsed : parsed.movePointLeft(shift));
+    }
+
+    /** Same result as {@link BigDecimal#movePointLeft(int)}. */
+    public FixedDecimal movePointLeft(int n) {
+        long newScale = (long) scale + n;
+        if (inflated != null || newScale < 0 || newScale > Integer.MAX_VALUE) {
+            return valueOf(toBigDecimal().movePointLeft(n));
+        }
+        return new FixedDecimal(hi, lo, negative, (int) newScale);
+    }
+
+    public FixedDecimal add(FixedDecimal other) {
+        return add(other, false);
+    }
+
+    public FixedDecimal subtract(FixedDecimal other) {
+        return add(other, true);
+    }
+
+    private FixedDecimal add(FixedDecimal other, boolean negateOther) {
+        if (inflated == null && other.inflated == null) {
+            int s = Math.max(scale, other.scale);
+            U128 a = new U128();
+            U128 b = new U128();
+            if (rescale(this, s, a) && rescale(other, s, b)) {
+                boolean otherNegative = other.negative != negateOther;
+                if (negative == otherNegative) {
+                    if (a.add(b)) {
+                        return new FixedDecimal(a.hi, a.lo, negative, s);
+                    }
+                } else if (a.compareTo(b) >= 0) {
+                    a.subtract(b);
+                    return new FixedDecimal(a.hi, a.lo, negative, s);
+                } else {
+                    b.subtract(a);
+                    return new FixedDecimal(b.hi, b.lo, otherNegative, s);
+                }
+            }
+        }
+        BigDecimal o = other.toBigDecimal();
+        return valueOf(negateOther ? toBigDecimal().subtract(o) : toBigDecimal().add(o));
+    }
+
+    public FixedDecimal multiply(FixedDecimal other) {
+        if (inflated == null && other.inflated == null) {
+            U128 product = new U128(hi, lo);
+            long s = (long) scale + other.scale;
+            if (s <= Integer.MAX_VALUE && s >= Integer.MIN_VALUE && product.multiply(other.hi, other.lo)) {
+                return new FixedDecimal(product.hi, product.lo, negative != other.negative, (int) s);
+            }
+        }
+        return valueOf(toBigDecimal().multiply(other.toBigDecimal()));
+    }
+
+    /**
+     * Divide and round half-up to the given scale, like
+     * {@code divide(divisor, scale, RoundingMode.HALF_UP)}.
+     *
+     * @throws ArithmeticException when the divisor is zero
+     */
+    public FixedDecimal divide(FixedDecimal divisor, int scale) {
+        if (divisor.signum() == 0) {
+            throw new ArithmeticException(signum() == 0 ? "Division undefined" : "Division by zero");
+        }
+        if (inflated == null && divisor.inflated == null) {
+            long shift = (long) scale - this.scale + divisor.scale;
+            U128 num = new U128(hi, lo);
+            U128 den = new U128(divisor.hi, divisor.lo);
+            boolean fits = shift >= 0
+                    ? shift <= MAX_POW10 && num.multiply(POW10_HI[(int) shift], POW10_LO[(int) shift])
+                    : -shift <= MAX_POW10 && den.multiply(POW10_HI[(int) -shift], POW10_LO[(int) -shift]);
+            if (fits) {
+                U128 remainder = new U128();
+                num.divide(den, remainder);
+                // round half up: remainder >= divisor - remainder
+                U128 rest = new U128(den.hi, den.lo);
+                rest.subtract(remainder);
+                if (remainder.compareTo(rest) >= 0 && !num.add(new U128(0, 1))) {
+                    return valueOf(toBigDecimal().divide(divisor.toBigDecimal(), scale, RoundingMode.HALF_UP));
+                }
+                return new FixedDecimal(num.hi, num.lo, negative != divisor.negative, scale);
+            }
+        }
+        return valueOf(toBigDecimal().divide(divisor.toBigDecimal(), scale, RoundingMode.HALF_UP));
+    }
+
+    public int signum() {
+        if (inflated != null) return inflated.signum();
+        if ((hi | lo) == 0) return 0;
+        return negative ? -1 : 1;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    @Override
+    public int compareTo(FixedDecimal other) {
+        if (inflated == null && other.inflated == null) {
+            int sign = signum();
+            int otherSign = other.signum();
+            if (sign != otherSign) return Integer.compare(sign, otherSign);
+            if (sign == 0) return 0;
+            int s = Math.max(scale, other.scale);
+            U128 a = new U128();
+            U128 b = new U128();
+            if (rescale(this, s, a) && rescale(other, s, b)) {
+                int cmp = a.compareTo(b);
+                return negative ? -cmp : cmp;
+            }
+        }
+        return toBigDecimal().compareTo(other.toBigDecimal());
+    }
+
+    /** The value as a {@link BigDecimal} with the same unscaled value and scale. */
+    public BigDecimal toBigDecimal() {
+        if (inflated != null) return inflated;
+        if (hi == 0 && lo >= 0) {
+            return BigDecimal.valueOf(negative ? -lo : lo, scale);
+        }
+        byte[] magnitude = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            magnitude[i] = (byte) (hi >>> (56 - 8 * i));
+            magnitude[i + 8] = (byte) (lo >>> (56 - 8 * i));
+        }
+        return new BigDecimal(new BigInteger(negative ? -1 : 1, magnitude), scale);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FixedDecimal other)) return false;
+        if (inflated != null || other.inflated != null) {
+            return inflated != null && inflated.equals(other.inflated);
+        }
+        return hi == other.hi && lo == other.lo && negative == other.negative && scale == other.scale;
+    }
+
+    @Override
+    public int hashCode() {
+        if (inflated != null) return inflated.hashCode();
+        return 31 * (31 * Long.hashCode(hi) + Long.hashCode(lo)) + (negative ? 17 : 0) + scale;
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toString();
+    }
+
+    /** Writes the magnitude of {@code value} scaled up to {@code targetScale} into {@code out}. */
+    private static boolean rescale(FixedDecimal value, int targetScale, U128 out) {
+        out.hi = value.hi;
+        out.lo = value.lo;
+        int diff = targetScale - value.scale;
+        return diff == 0 || (diff <= MAX_POW10 && out.multiply(POW10_HI[diff], POW10_LO[diff]));
+    }
+
+    /**
+     * Mutable unsigned 128-bit scratch value. Instances never escape an operation, which
+     * lets the JIT keep them in registers.
+     */
+    static final class U128 {
+        long hi;
+        long lo;
+
+        U128() {
+        }
+
+        U128(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        /** this += other; returns false on overflow. */
+        boolean add(U128 other) {
+            long newLo = lo + other.lo;
+            long carry = Long.compareUnsigned(newLo, lo) < 0 ? 1 : 0;
+            long newHi = hi + other.hi;
+            if (Long.compareUnsigned(newHi, hi) < 0) return false;
+            newHi += carry;
+            if (carry == 1 && newHi == 0) return false;
+            hi = newHi;
+            lo = newLo;
+            return true;
+        }
+
+        /** this -= other; requires this >= other. */
+        void subtract(U128 other) {
+            long borrow = Long.compareUnsigned(lo, other.lo) < 0 ? 1 : 0;
+            lo -= other.lo;
+            hi = hi - other.hi - borrow;
+        }
+
+        /** this *= (bHi:bLo); returns false on overflow. */
+        boolean multiply(long bHi, long bLo) {
+            if (hi != 0 && bHi != 0) return false;
+            long productHi = Math.unsignedMultiplyHigh(lo, bLo);
+            long cross;
+            if (hi != 0) {
+                if (Math.unsignedMultiplyHigh(hi, bLo) != 0) return false;
+                cross = hi * bLo;
+            } else if (bHi != 0) {
+                if (Math.unsignedMultiplyHigh(lo, bHi) != 0) return false;
+                cross = lo * bHi;
+            } else {
+                cross = 0;
+            }
+            long newHi = productHi + cross;
+            if (Long.compareUnsigned(newHi, productHi) < 0) return false;
+            lo = lo * bLo;
+            hi = newHi;
+            return true;
+        }
+
+        int compareTo(U128 other) {
+            int cmp = Long.compareUnsigned(hi, other.hi);
+            return cmp != 0 ? cmp : Long.compareUnsigned(lo, other.lo);
+        }
+
+        /** this /= divisor, storing the remainder; requires a non-zero divisor. */
+        void divide(U128 divisor, U128 remainder) {
+            if (divisor.hi == 0) {
+                long v = divisor.lo;
+                long qHi = Long.divideUnsigned(hi, v);
+                long rHi = Long.remainderUnsigned(hi, v);
+                long qLo = divlu(rHi, lo, v);
+                remainder.hi = 0;
+                remainder.lo = lo - qLo * v;
+                hi = qHi;
+                lo = qLo;
+                return;
+            }
+            if (compareTo(divisor) < 0) {
+                remainder.hi = hi;
+                remainder.lo = lo;
+                hi = 0;
+                lo = 0;
+                return;
+            }
+            // Hacker's Delight, unsigned doubleword division: the quotient fits into 64 bits.
+            int n = Long.numberOfLeadingZeros(divisor.hi);
+            long v1 = n == 0 ? divisor.hi : (divisor.hi << n) | (divisor.lo >>> (64 - n));
+            long u1Hi = hi >>> 1;
+            long u1Lo = (lo >>> 1) | (hi << 63);
+            long q = divlu(u1Hi, u1Lo, v1) >>> (63 - n);
+            if (q != 0) q--;
+            U128 product = new U128(divisor.hi, divisor.lo);
+            product.multiply(0, q);
+            remainder.hi = hi;
+            remainder.lo = lo;
+            remainder.subtract(product);
+            if (remainder.compareTo(divisor) >= 0) {
+                q++;
+                remainder.subtract(divisor);
+            }
+            hi = 0;
+            lo = q;
+        }
+
+        /**
+         * Quotient of the 128-bit value (u1:u0) divided by v, all unsigned; requires u1 < v.
+         * Hacker's Delight {@code divlu2} on 32-bit digits.
+         */
+        static long divlu(long u1, long u0, long v) {
+            final long b = 1L << 32;
+            int s = Long.numberOfLeadingZeros(v);
+            v <<= s;
+            long vn1 = v >>> 32;
+            long vn0 = v & 0xFFFFFFFFL;
+            long un32 = s == 0 ? u1 : (u1 << s) | (u0 >>> (64 - s));
+            long un10 = u0 << s;
+            long un1 = un10 >>> 32;
+            long un0 = un10 & 0xFFFFFFFFL;
+
+            long q1 = Long.divideUnsigned(un32, vn1);
+            long rhat = un32 - q1 * vn1;
+            while (Long.compareUnsigned(q1, b) >= 0
+                    || Long.compareUnsigned(q1 * vn0, b * rhat + un1) > 0) {
+                q1--;
+                rhat += vn1;
+                if (Long.compareUnsigned(rhat, b) >= 0) break;
+            }
+
+            long un21 = un32 * b + un1 - q1 * v;
+            long q0 = Long.divideUnsigned(un21, vn1);
+            rhat = un21 - q0 * vn1;
+            while (Long.compareUnsigned(q0, b) >= 0
+                    || Long.compareUnsigned(q0 * vn0, b * rhat + un0) > 0) {
+                q0--;
+                rhat += vn1;
+                if (Long.compareUnsigned(rhat, b) >= 0) break;
+            }
+            return q1 * b + q0;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package app.dya.price;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Client-side rate limit for an upstream with a request quota.
+ *
+ * <p>A token bucket holding up to {@code burst} calls and refilled at {@code callsPerMinute}.
+ * When the upstream still throttles, the bucket stops handing out tokens until its
+ * {@code Retry-After} has passed (or an exponential backoff without one) and halves its
+ * refill rate; every successful call then raises the rate again by a tenth of the
+ * configured rate. This keeps the client just below the quota it actually gets.</p>
+ */
+public class AdaptiveTokenBucket {
+
+    private static final long MAX_BACKOFF_NANOS = Duration.ofMinutes(5).toNanos();
+    private static final long FIRST_BACKOFF_NANOS = Duration.ofSeconds(5).toNanos();
+
+    private final double maxRatePerNano;
+    private final double minRatePerNano;
+    private final double burst;
+    private final LongSupplier nanoTime;
+
+    private double ratePerNano;
+    private double tokens;
+    private long refilledAt;
+    private long pausedUntil;
+    private boolean paused;
+    private int throttledInARow;
+
+    public AdaptiveTokenBucket(int callsPerMinute, int burst) {
+        this(callsPerMinute, burst, System::nanoTime);
+    }
+
+    AdaptiveTokenBucket(int callsPerMinute, int burst, LongSupplier nanoTime) {
+        if (callsPerMinute <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("callsPerMinute and burst must be positive");
+        }
+        this.maxRatePerNano = callsPerMinute / (double) Duration.ofMinutes(1).toNanos();
+        this.minRatePerNano = maxRatePerNano / 16;
+        this.burst = burst;
+        this.nanoTime = nanoTime;
+        this.ratePerNano = maxRatePerNano;
+        this.tokens = burst;
+        this.refilledAt = nanoTime.getAsLong();
+    }
+
+    /**
+     * @return whether a call may be made now
+     */
+    public synchronized boolean tryAcquire() {
+        long now = nanoTime.getAsLong();
+        if (paused && now - pausedUntil < 0) {
+            return false;
+        }
+        paused = false;
+        tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerNano);
+        refilledAt = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /** Record a call the upstream accepted. */
+    public synchronized void onSuccess() {
+        throttledInARow = 0;
+        ratePerNano = Math.min(maxRatePerNano, ratePerNano + maxRatePerNano / 10);
+    }
+
+    /**
+     * Record a throttled call.
+     *
+     * @param retryAfter the upstream's {@code Retry-After}, or {@code null} without one
+     */
+    public synchronized void onThrottled(Duration retryAfter) {
+        throttledInARow++;
+        ratePerNano = Math.max(minRatePerNano, ratePerNano / 2);
+        tokens = 0;
+        long pause = retryAfter != null && !retryAfter.isNegative()
+                ? Math.min(MAX_BACKOFF_NANOS, retryAfter.toNanos())
+                : Math.min(MAX_BACKOFF_NANOS, FIRST_BACKOFF_NANOS << Math.min(throttledInARow - 1, 10));
+        long now = nanoTime.getAsLong();
+        pausedUntil = now + pause;
+        paused = true;
+        refilledAt = pausedUntil;
+    }
+
+    /** Current refill rate in calls per minute. */
+    public synchronized double callsPerMinute() {
+        return ratePerNano * Duration.ofMinutes(1).toNanos();
+    }
+}
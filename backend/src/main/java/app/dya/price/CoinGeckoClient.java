@@ -1,9 +1,12 @@
 package app.dya.price;
 
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClient;
@@ -11,7 +14,15 @@ import org.springframework.web.client.RestClientResponseException;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Component
 public class CoinGeckoClient {
@@ -23,25 +34,44 @@ public class CoinGeckoClient {
     private final RestClient rest;
     private final String demoKey;
     private final String proKey;
+    private final AdaptiveTokenBucket rateLimit;
+    private final int chunkMaxIds;
+    private final int chunkMaxChars;
+    /** Sends the chunks of a large request in parallel. */
+    private final ExecutorService chunkSender = Executors.newVirtualThreadPerTaskExecutor();
 
+    /**
+     * Standalone client with its own non-pooled connections, e.g. for tests.
+     */
+    public CoinGeckoClient(
+            String baseUrlOverride,
+            String demoKey,
+            String proKey,
+            int connectTimeoutMillis,
+            int readTimeoutMillis,
+            String proxyHost,
+            int proxyPort
+    ) {
+        this(baseUrlOverride, demoKey, proKey, 30, 5, 250, 2000,
+                simpleRequestFactory(connectTimeoutMillis, readTimeoutMillis, proxyHost, proxyPort));
+    }
+
+    @Autowired
     public CoinGeckoClient(
             @Value("${app.prices.baseUrl:}") String baseUrlOverride,         // optional override
             @Value("${app.prices.demoApiKey:}") String demoKey,               // demo key
             @Value("${app.prices.proApiKey:}") String proKey,                 // pro key
-            @Value("${app.http.connectTimeoutMillis:3000}") int connectTimeoutMillis,
-            @Value("${app.http.readTimeoutMillis:4000}") int readTimeoutMillis,
-            @Value("${app.http.proxyHost:}") String proxyHost,
-            @Value("${app.http.proxyPort:0}") int proxyPort
+            @Value("${app.prices.rateLimit.callsPerMinute:30}") int callsPerMinute,
+            @Value("${app.prices.rateLimit.burst:5}") int burst,
+            @Value("${app.prices.chunk.maxIds:250}") int chunkMaxIds,
+            @Value("${app.prices.chunk.maxChars:2000}") int chunkMaxChars,
+            ClientHttpRequestFactory upstreamRequestFactory                    // shared keep-alive pool
     ) {
         this.demoKey = demoKey;
         this.proKey = proKey;
-
-        var factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(connectTimeoutMillis);
-        factory.setReadTimeout(readTimeoutMillis);
-        if (proxyHost != null && !proxyHost.isBlank() && proxyPort > 0) {
-            factory.setProxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort)));
-        }
+        this.rateLimit = new AdaptiveTokenBucket(callsPerMinute, burst);
+        this.chunkMaxIds = Math.max(1, chunkMaxIds);
+        this.chunkMaxChars = Math.max(1, chunkMaxChars);
 
         // Choose base URL: Pro if proKey present; otherwise Public.
         String base = (proKey != null && !proKey.isBlank())
@@ -53,7 +83,7 @@ public class CoinGeckoClient {
 
         var builder = RestClient.builder()
                 .baseUrl(base)
-                .requestFactory(factory)
+                .requestFactory(upstreamRequestFactory)
                 .defaultHeader("Accept", MediaType.APPLICATION_JSON_VALUE)
                 .defaultHeader("User-Agent", "DYA-PriceService/1.0");
 
@@ -67,9 +97,91 @@ public class CoinGeckoClient {
         this.rest = builder.build();
     }
 
+    private static ClientHttpRequestFactory simpleRequestFactory(int connectTimeoutMillis, int readTimeoutMillis,
+                                                                 String proxyHost, int proxyPort) {
+        var factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(connectTimeoutMillis);
+        factory.setReadTimeout(readTimeoutMillis);
+        if (proxyHost != null && !proxyHost.isBlank() && proxyPort > 0) {
+            factory.setProxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort)));
+        }
+        return factory;
+    }
+
+    /**
+     * Fetch USD prices by CoinGecko id. Returns an empty map without calling CoinGecko while
+     * the client-side rate limit is exhausted, and when CoinGecko answers 429; the limit then
+     * pauses for {@code Retry-After} and lowers its rate.
+     *
+     * <p>Large id sets are split into requests of at most {@code app.prices.chunk.maxIds} ids
+     * and {@code app.prices.chunk.maxChars} characters of ids, sent in parallel. Each request
+     * takes its own rate-limit token. Prices of the chunks that succeeded are returned; the
+     * error is only thrown when every chunk failed.</p>
+     */
     public Map<String, Map<String, Double>> fetchUsdPricesByIds(Set<String> ids){
         if (ids == null || ids.isEmpty()) return Map.of();
-        String idsCsv = String.join(",", new java.util.TreeSet<>(ids));
+        List<String> chunks = chunk(new TreeSet<>(ids), chunkMaxIds, chunkMaxChars);
+        if (chunks.size() == 1) return fetchChunk(chunks.get(0));
+
+        List<Future<Map<String, Map<String, Double>>>> futures = new ArrayList<>(chunks.size());
+        for (String idsCsv : chunks) {
+            futures.add(chunkSender.submit(() -> fetchChunk(idsCsv)));
+        }
+        Map<String, Map<String, Double>> prices = new HashMap<>();
+        RuntimeException failure = null;
+        int failed = 0;
+        for (Future<Map<String, Map<String, Double>>> future : futures) {
+            try {
+                Map<String, Map<String, Double>> part = future.get();
+                if (part != null) prices.putAll(part);
+            } catch (ExecutionException e) {
+                failed++;
+                RuntimeException cause = e.getCause() instanceof RuntimeException re ? re
+                        : new CoinGeckoClientException(0, "Error fetching prices", e.getCause());
+                if (failure == null) failure = cause;
+                log.warn("CoinGecko price chunk failed: {}", cause.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new CoinGeckoClientException(0, "Interrupted fetching prices", e);
+            }
+        }
+        if (failed == chunks.size()) throw failure;
+        return prices;
+    }
+
+    /** Number of requests {@link #fetchUsdPricesByIds} sends for {@code ids}. */
+    public int requestsFor(Collection<String> ids) {
+        return ids.isEmpty() ? 0 : chunk(new TreeSet<>(ids), chunkMaxIds, chunkMaxChars).size();
+    }
+
+    /**
+     * Comma-joined id lists of at most {@code maxIds} ids and {@code maxChars} characters each
+     * (a single id longer than that gets a list of its own).
+     */
+    static List<String> chunk(SortedSet<String> ids, int maxIds, int maxChars) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder csv = new StringBuilder();
+        int count = 0;
+        for (String id : ids) {
+            if (count > 0 && (count == maxIds || csv.length() + 1 + id.length() > maxChars)) {
+                chunks.add(csv.toString());
+                csv.setLength(0);
+                count = 0;
+            }
+            if (count > 0) csv.append(',');
+            csv.append(id);
+            count++;
+        }
+        if (count > 0) chunks.add(csv.toString());
+        return chunks;
+    }
+
+    private Map<String, Map<String, Double>> fetchChunk(String idsCsv){
+        if (!rateLimit.tryAcquire()) {
+            log.debug("Skipping CoinGecko call: client-side rate limit");
+            return Map.of();
+        }
 
         // make final copies for lambda capture
         final String keyNameFinal;
@@ -86,7 +198,7 @@ public class CoinGeckoClient {
         }
 
         try {
-            return rest.get()
+            Map<String, Map<String, Double>> prices = rest.get()
                     .uri(u -> {
                         var b = u.path("/simple/price")
                                 .queryParam("ids", idsCsv)
@@ -99,15 +211,42 @@ public class CoinGeckoClient {
                     .accept(org.springframework.http.MediaType.APPLICATION_JSON)
                     .retrieve()
                     .body(PRICE_TYPE);
+            rateLimit.onSuccess();
+            return prices;
         } catch (RestClientResponseException e) {
             if (e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()) {
-                log.warn("CoinGecko rate limit reached: {}", e.getMessage());
+                Duration retryAfter = retryAfter(e);
+                rateLimit.onThrottled(retryAfter);
+                log.warn("CoinGecko rate limit reached (Retry-After {}); lowering to {} calls/min",
+                        retryAfter, Math.round(rateLimit.callsPerMinute()));
                 return Map.of();
             }
             throw new CoinGeckoClientException(e.getStatusCode().value(), "Error fetching prices", e);
         }
     }
 
+    @PreDestroy
+    void shutdown() {
+        chunkSender.shutdownNow();
+    }
+
+    /** Parses {@code Retry-After} given in seconds or as an HTTP date. */
+    static Duration retryAfter(RestClientResponseException e) {
+        String value = e.getResponseHeaders() == null ? null : e.getResponseHeaders().getFirst("Retry-After");
+        if (value == null || value.isBlank()) return null;
+        value = value.trim();
+        try {
+            return Duration.ofSeconds(Long.parseLong(value));
+        } catch (NumberFormatException ignored) {
+            // not delta-seconds, try an HTTP date
+        }
+        try {
+            return Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+        } catch (DateTimeParseException ignored) {
+            return null;
+        }
+    }
+
     // add this method
     public String ping() {
         final String keyNameFinal;
@@ -0,0 +1,160 @@
+package app.dya.price;
+
+import app.dya.cache.ExpiringCache;
+import app.dya.cache.ExpiringCacheMetrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * USD prices the protocol services come across anyway (Aave oracle prices, Uniswap
+ * {@code derivedUSD}), kept per token contract address and source with the time they were
+ * seen.
+ *
+ * <p>Observations are keyed by address rather than symbol, since symbols of pool tokens are
+ * not unique. {@link #consensus} only answers when the observations are younger than
+ * {@code maxAge}, all sources agree within {@code maxDivergence}, and there are at least
+ * {@code minSources} of them or the price is within {@code maxDivergence} of a reference
+ * price; otherwise the price has to come from CoinGecko. A single source, e.g. a thin
+ * Uniswap pool, is easy to move and is not trusted on its own. Addresses live in an
+ * {@link ExpiringCache} of at most {@code maxTokens} entries that expire {@code maxAge}
+ * after their latest observation.</p>
+ */
+@Component
+public class ObservedPrices {
+
+    private static final Pattern ADDRESS = Pattern.compile("0x[0-9a-f]{40}");
+
+    /**
+     * @param source     where the price was seen, e.g. {@code "aave"}
+     * @param usd        USD price
+     * @param observedAt when it was seen
+     */
+    public record Observation(String source, double usd, Instant observedAt) {}
+
+    /** Observations by source, per lower-case address; {@code null} when disabled. */
+    private final ExpiringCache<String, Map<String, Observation>> byAddress;
+    private final Duration maxAge;
+    private final double maxDivergence;
+    private final int minSources;
+    private final Clock clock;
+
+    @Autowired
+    public ObservedPrices(
+            @Value("${app.prices.observed.maxAgeSeconds:120}") long maxAgeSeconds,
+            @Value("${app.prices.observed.maxDivergence:0.02}") double maxDivergence,
+            @Value("${app.prices.observed.maxTokens:10000}") int maxTokens,
+            @Value("${app.prices.observed.minSources:2}") int minSources
+    ) {
+        this(Duration.ofSeconds(maxAgeSeconds), maxDivergence, maxTokens, minSources, Clock.systemUTC());
+    }
+
+    ObservedPrices(Duration maxAge, double maxDivergence, int maxTokens, int minSources, Clock clock) {
+        this.maxAge = maxAge;
+        this.maxDivergence = maxDivergence;
+        this.minSources = Math.max(1, minSources);
+        this.clock = clock;
+        this.byAddress = maxTokens > 0 && maxAge.isPositive()
+                ? new ExpiringCache<>(maxAge, maxTokens, Duration.ofMinutes(1))
+                : null;
+    }
+
+    /** Store that keeps nothing, for services created without one. */
+    public static ObservedPrices disabled() {
+        return new ObservedPrices(Duration.ZERO, 0, 0, 1, Clock.systemUTC());
+    }
+
+    /** Hit, miss, put and eviction meters of the store, tagged {@code cache=observed-prices}. */
+    public MeterBinder cacheMetrics() {
+        return byAddress == null ? registry -> {} : new ExpiringCacheMetrics(byAddress, "observed-prices", Tags.empty());
+    }
+
+    /**
+     * Record a price seen for the token at {@code address}. Prices that are not positive,
+     * and addresses that are not contract addresses, are ignored.
+     */
+    public void publish(String address, String source, double usd) {
+        if (byAddress == null || address == null || !(usd > 0) || Double.isInfinite(usd)) return;
+        String key = address.toLowerCase(Locale.ROOT);
+        if (!ADDRESS.matcher(key).matches()) return;
+        // Aave and Uniswap report at the same time, so the first observation of a token must
+        // not replace the map another source has just created
+        Map<String, Observation> sources = new ConcurrentHashMap<>(4);
+        Map<String, Observation> existing = byAddress.putIfAbsent(key, sources);
+        if (existing == null) {
+            sources.put(source, new Observation(source, usd, clock.instant()));
+            return;
+        }
+        existing.put(source, new Observation(source, usd, clock.instant()));
+        // written again on every observation, so the address expires maxAge after its latest one
+        byAddress.put(key, existing);
+    }
+
+    /** Whether a price has been seen for {@code address} within the last {@code maxAge}. */
+    public boolean knows(String address) {
+        return sourcesOf(address) != null;
+    }
+
+    /** {@link #consensus(String, double)} without a reference price. */
+    public Optional<Observation> consensus(String address) {
+        return consensus(address, Double.NaN);
+    }
+
+    /**
+     * The median of the fresh observations of {@code address}, as an observation whose source
+     * lists every source and whose time is the oldest of them.
+     *
+     * @param reference a price known from elsewhere, e.g. the last CoinGecko price, or NaN
+     * @return empty when nothing fresh was seen, the sources disagree by more than
+     *         {@code maxDivergence}, or there are fewer than {@code minSources} sources and
+     *         the median is not within {@code maxDivergence} of {@code reference}
+     */
+    public Optional<Observation> consensus(String address, double reference) {
+        Map<String, Observation> sources = sourcesOf(address);
+        if (sources == null) return Optional.empty();
+        Instant oldestAllowed = clock.instant().minus(maxAge);
+        List<Observation> fresh = new ArrayList<>(sources.size());
+        for (Observation o : sources.values()) {
+            if (!o.observedAt().isBefore(oldestAllowed)) fresh.add(o);
+        }
+        if (fresh.isEmpty()) return Optional.empty();
+        fresh.sort(Comparator.comparingDouble(Observation::usd));
+
+        double min = fresh.get(0).usd();
+        double max = fresh.get(fresh.size() - 1).usd();
+        if (max / min - 1 > maxDivergence) return Optional.empty();
+
+        int n = fresh.size();
+        double median = n % 2 == 1 ? fresh.get(n / 2).usd() : (fresh.get(n / 2 - 1).usd() + fresh.get(n / 2).usd()) / 2;
+        if (n < minSources && !(reference > 0 && Math.abs(median / reference - 1) <= maxDivergence)) {
+            return Optional.empty();
+        }
+        StringJoiner names = new StringJoiner(",");
+        Instant oldest = null;
+        for (Observation o : fresh) {
+            names.add(o.source());
+            if (oldest == null || o.observedAt().isBefore(oldest)) oldest = o.observedAt();
+        }
+        return Optional.of(new Observation(names.toString(), median, oldest));
+    }
+
+    private Map<String, Observation> sourcesOf(String address) {
+        if (byAddress == null || address == null) return null;
+        return byAddress.get(address.toLowerCase(Locale.ROOT));
+    }
+
+    @PreDestroy
+    void close() {
+        if (byAddress != null) byAddress.close();
+    }
+}
@@ -0,0 +1,119 @@
+package app.dya.price;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the latest prices to {@code app.prices.snapshot.file} periodically and at shutdown,
+ * and restores them at startup so a restarted process answers from its cache instead of
+ * sending every first request to CoinGecko.
+ *
+ * <p>Prices keep their fetch time: those younger than the cache TTL are cached for the rest
+ * of it, older ones are only kept as last known good. The file holds one record per symbol
+ * (symbol, fetch time in epoch millis, USD price) and is replaced atomically.</p>
+ */
+@Component
+@ConditionalOnExpression("'${app.prices.snapshot.file:}' != ''")
+public class PriceCacheSnapshot {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PriceCacheSnapshot.class);
+
+    private static final int MAGIC = 0x44594150; // "DYAP"
+    private static final int VERSION = 1;
+
+    private final PriceService priceService;
+    private final Path file;
+
+    public PriceCacheSnapshot(PriceService priceService, @Value("${app.prices.snapshot.file}") Path file) {
+        this.priceService = priceService;
+        this.file = file;
+    }
+
+    /** Restore the prices of the last snapshot, if any. A damaged file is ignored. */
+    @PostConstruct
+    public int load() {
+        List<Map.Entry<String, PriceService.Quote>> quotes = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring price snapshot {}: unknown format", file);
+                return 0;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String symbol = in.readUTF();
+                Instant fetchedAt = Instant.ofEpochMilli(in.readLong());
+                double usd = in.readDouble();
+                quotes.add(Map.entry(symbol, new PriceService.Quote(usd, fetchedAt, false)));
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            log.warn("Ignoring price snapshot {}: {}", file, e.toString());
+            return 0;
+        }
+        // oldest first, so that the cache expires entries in write order
+        quotes.sort(Comparator.comparing(e -> e.getValue().fetchedAt()));
+        int restored = 0;
+        for (Map.Entry<String, PriceService.Quote> e : quotes) {
+            if (priceService.restore(e.getKey(), e.getValue())) restored++;
+        }
+        log.info("Restored {} prices from {}", restored, file);
+        return restored;
+    }
+
+    @Scheduled(
+            fixedDelayString = "#{${app.prices.snapshot.intervalSeconds:60} * 1000}",
+            initialDelayString = "#{${app.prices.snapshot.intervalSeconds:60} * 1000}"
+    )
+    public void save() {
+        Map<String, PriceService.Quote> prices = priceService.lastKnownPrices();
+        if (prices.isEmpty()) return;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(prices.size());
+                    for (Map.Entry<String, PriceService.Quote> e : prices.entrySet()) {
+                        out.writeUTF(e.getKey());
+                        out.writeLong(e.getValue().fetchedAt().toEpochMilli());
+                        out.writeDouble(e.getValue().usd());
+                    }
+                }
+                try {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot write price snapshot {}: {}", file, e.toString());
+        }
+    }
+
+    @PreDestroy
+    void saveOnShutdown() {
+        save();
+    }
+}
@@ -1,8 +1,13 @@
 package app.dya.price;
 
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 
 @RestController
@@ -10,20 +15,108 @@ import java.util.*;
 @CrossOrigin(origins = "*", allowedHeaders = "*", methods = {RequestMethod.GET, RequestMethod.OPTIONS})
 public class PriceController {
 
+    private static final int MAX_HISTORY_POINTS = 1000;
+
     private final PriceService svc;
     public PriceController(PriceService svc){ this.svc = svc; }
 
-    /** GET /prices?symbols=ETH,DAI,USDC -> {"ETH":..., "DAI":..., "USDC":...} */
+    /**
+     * GET /prices?symbols=ETH,DAI,USDC -> {"ETH":..., "DAI":..., "USDC":...}
+     *
+     * <p>When some prices are stale because CoinGecko is throttled, {@code X-Stale-Prices}
+     * lists them and {@code Age} gives the age in seconds of the oldest one.</p>
+     *
+     * <p>The {@code ETag} is derived from the price and fetch time of every quote, so a poll
+     * whose {@code If-None-Match} still matches is answered {@code 304 Not Modified} without
+     * a body. {@code Cache-Control} allows caching until the oldest price leaves the cache,
+     * and not at all while a price is stale.</p>
+     */
     @GetMapping
     public ResponseEntity<?> getPrices(@RequestParam String symbols){
         try {
             var list = Arrays.asList(symbols.split(","));
-            return ResponseEntity.ok(svc.getUsdPrices(list));
+            Map<String, PriceService.Quote> quotes = svc.getUsdQuotes(list);
+            Map<String, Double> body = new LinkedHashMap<>();
+            List<String> stale = new ArrayList<>();
+            Instant oldest = null;
+            Instant oldestFetch = null;
+            for (var e : quotes.entrySet()) {
+                Instant fetchedAt = e.getValue().fetchedAt();
+                if (oldestFetch == null || fetchedAt.isBefore(oldestFetch)) oldestFetch = fetchedAt;
+                body.put(e.getKey(), e.getValue().usd());
+                if (e.getValue().stale()) {
+                    stale.add(e.getKey());
+                    if (oldest == null || e.getValue().fetchedAt().isBefore(oldest)) oldest = e.getValue().fetchedAt();
+                }
+            }
+            var response = ResponseEntity.ok().eTag(etag(quotes));
+            if (oldest != null) {
+                response.cacheControl(CacheControl.noCache());
+                response.header("X-Stale-Prices", String.join(",", stale))
+                        .header(HttpHeaders.AGE, Long.toString(Math.max(0, Duration.between(oldest, Instant.now()).toSeconds())));
+            } else {
+                Duration left = oldestFetch == null ? svc.ttl()
+                        : svc.ttl().minus(Duration.between(oldestFetch, Instant.now()));
+                response.cacheControl(CacheControl.maxAge(left.isNegative() ? Duration.ZERO : left));
+            }
+            return response.body(body);
         } catch (Exception e) {
             return ResponseEntity.status(502).body(Map.of("error", e.getMessage()));
         }
     }
 
+    /**
+     * Strong validator of a {@code /prices} response: a hash of each symbol with its price,
+     * fetch time and staleness. Every quote changes its fetch time when it is refetched, so
+     * this is a version of the quotes served rather than a hash of the serialized body.
+     */
+    static String etag(Map<String, PriceService.Quote> quotes) {
+        long h = 1125899906842597L;
+        for (var e : quotes.entrySet()) {
+            PriceService.Quote q = e.getValue();
+            h = 31 * h + e.getKey().hashCode();
+            h = 31 * h + Double.doubleToLongBits(q.usd());
+            h = 31 * h + q.fetchedAt().getEpochSecond();
+            h = 31 * h + q.fetchedAt().getNano();
+            h = 31 * h + (q.stale() ? 1 : 0);
+        }
+        return "\"" + Long.toHexString(h) + "\"";
+    }
+
+    /**
+     * GET /prices/history?symbol=ETH&from=2025-08-13T08:00:00Z&to=2025-08-14T08:00:00Z&points=200
+     * -> {"symbol":"ETH","points":[[epochMillis, usd], ...]}
+     *
+     * <p>{@code to} defaults to now, {@code from} to a day before {@code to}. At most
+     * {@code points} points (default 200, at most 1000) are returned, the last recorded price
+     * of each equal slice of the range. Points are written from the history buffer directly.</p>
+     */
+    @GetMapping(value = "/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getHistory(
+            @RequestParam String symbol,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "200") int points
+    ){
+        Instant end = to != null ? to : Instant.now();
+        Instant start = from != null ? from : end.minus(Duration.ofDays(1));
+        if (start.isAfter(end) || points <= 0 || points > MAX_HISTORY_POINTS) {
+            return ResponseEntity.badRequest().body(Map.of("error",
+                    "from must not be after to and points must be between 1 and " + MAX_HISTORY_POINTS));
+        }
+        String canonical = svc.registrySymbol(symbol);
+        if (canonical == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "unsupported symbol " + symbol));
+        }
+        StringBuilder json = new StringBuilder(64 + points * 32)
+                .append("{\"symbol\":\"").append(canonical).append("\",\"points\":[");
+        int emitted = svc.history(canonical, start, end, points, (t, usd) ->
+                json.append('[').append(t).append(',').append(usd).append("],"));
+        if (emitted > 0) json.setLength(json.length() - 1);
+        json.append("]}");
+        return ResponseEntity.ok(json.toString());
+    }
+
     @GetMapping("/ping")
     public ResponseEntity<?> ping() {
         try {
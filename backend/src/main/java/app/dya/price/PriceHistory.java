@@ -0,0 +1,284 @@
+package app.dya.price;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Fixed-size price history per symbol, kept outside the heap.
+ *
+ * <p>Each symbol owns a ring of {@code capacity} (epoch millis, USD price) pairs in one
+ * buffer: a memory-mapped file when {@code app.prices.history.file} is set, so the history
+ * survives restarts, otherwise a direct buffer. The layout is a header, a directory of
+ * {@code maxSymbols} entries (symbol and number of points ever appended) and the rings.
+ * A file written with another layout is started over. Symbols beyond {@code maxSymbols}
+ * are not recorded.</p>
+ *
+ * <p>Timestamps of a symbol never go backwards, so range queries binary-search the ring and
+ * hand points straight to a {@link PointConsumer} without building objects.</p>
+ */
+@Component
+public class PriceHistory implements AutoCloseable {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PriceHistory.class);
+
+    private static final int MAGIC = 0x44594148; // "DYAH"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int MAX_SYMBOL_BYTES = 31;
+    /** Symbol length, symbol bytes, then the append count. */
+    private static final int DIRECTORY_ENTRY_BYTES = 1 + MAX_SYMBOL_BYTES + Long.BYTES;
+    private static final int POINT_BYTES = Long.BYTES + Double.BYTES;
+
+    /** Receives the points of a range query, oldest first. */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(long epochMillis, double usd);
+    }
+
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final int maxSymbols;
+    private final int capacity;
+    private final int dataOffset;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean fullLogged;
+
+    @Autowired
+    public PriceHistory(
+            @Value("${app.prices.history.file:}") String file,
+            @Value("${app.prices.history.maxSymbols:512}") int maxSymbols,
+            @Value("${app.prices.history.capacity:2880}") int capacity
+    ) {
+        this(file == null || file.isBlank() ? null : Path.of(file), maxSymbols, capacity);
+    }
+
+    /**
+     * @param file       file to map, created if missing, or {@code null} to keep the history in memory only
+     * @param maxSymbols symbols with a ring
+     * @param capacity   points kept per symbol
+     */
+    public PriceHistory(Path file, int maxSymbols, int capacity) {
+        if (maxSymbols <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("maxSymbols and capacity must be positive");
+        }
+        long dataOffset = HEADER_BYTES + (long) maxSymbols * DIRECTORY_ENTRY_BYTES;
+        long size = dataOffset + (long) maxSymbols * capacity * POINT_BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("price history of " + size + " bytes is too large");
+        }
+        this.maxSymbols = maxSymbols;
+        this.capacity = capacity;
+        this.dataOffset = (int) dataOffset;
+
+        if (file == null) {
+            this.channel = null;
+            this.buffer = ByteBuffer.allocateDirect((int) size);
+            writeHeader();
+            return;
+        }
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean reuse = channel.size() == size;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (reuse && matchesLayout()) {
+                loadDirectory();
+                log.info("Opened price history {} with {} symbols", file, slots.size());
+            } else {
+                if (channel.size() != 0) log.warn("Price history {} has another layout, starting over", file);
+                clear();
+                writeHeader();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open price history " + file, e);
+        }
+    }
+
+    /**
+     * Record a price. A timestamp before the symbol's latest point is moved up to it. NaN and
+     * infinite prices are not recorded, as they have no JSON representation.
+     *
+     * @return whether it was recorded, i.e. the price is finite and the symbol has or could get a ring
+     */
+    public boolean append(String symbol, long epochMillis, double usd) {
+        if (!Double.isFinite(usd)) return false;
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(symbol);
+            if (slot == null) {
+                slot = allocate(symbol);
+                if (slot == null) return false;
+            }
+            long count = count(slot);
+            if (count > 0) {
+                epochMillis = Math.max(epochMillis, buffer.getLong(pointOffset(slot, count - 1)));
+            }
+            int at = pointOffset(slot, count);
+            buffer.putLong(at, epochMillis);
+            buffer.putDouble(at + Long.BYTES, usd);
+            // publish the point only once it is complete
+            buffer.putLong(countOffset(slot), count + 1);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Points of {@code symbol} with {@code fromMillis <= t <= toMillis}, reduced to at most
+     * {@code maxPoints}: the range is cut into {@code maxPoints} equal buckets and the last
+     * point of every non-empty bucket is emitted.
+     *
+     * @return the number of points emitted
+     */
+    public int query(String symbol, long fromMillis, long toMillis, int maxPoints, PointConsumer out) {
+        if (toMillis < fromMillis || maxPoints <= 0) return 0;
+        lock.readLock().lock();
+        try {
+            Integer slot = slots.get(symbol);
+            if (slot == null) return 0;
+            long count = count(slot);
+            long oldest = Math.max(0, count - capacity);
+            long first = firstAtOrAfter(slot, oldest, count, fromMillis);
+
+            double bucketMillis = (toMillis - fromMillis + 1) / (double) maxPoints;
+            int emitted = 0;
+            long pendingBucket = -1;
+            long pendingTime = 0;
+            double pendingUsd = 0;
+            for (long i = first; i < count; i++) {
+                int at = pointOffset(slot, i);
+                long t = buffer.getLong(at);
+                if (t > toMillis) break;
+                long bucket = (long) ((t - fromMillis) / bucketMillis);
+                if (bucket != pendingBucket && pendingBucket >= 0) {
+                    out.accept(pendingTime, pendingUsd);
+                    emitted++;
+                }
+                pendingBucket = bucket;
+                pendingTime = t;
+                pendingUsd = buffer.getDouble(at + Long.BYTES);
+            }
+            if (pendingBucket >= 0) {
+                out.accept(pendingTime, pendingUsd);
+                emitted++;
+            }
+            return emitted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Points currently held for {@code symbol}. */
+    public int size(String symbol) {
+        lock.readLock().lock();
+        try {
+            Integer slot = slots.get(symbol);
+            return slot == null ? 0 : (int) Math.min(capacity, count(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        if (channel == null) return;
+        lock.writeLock().lock();
+        try {
+            ((MappedByteBuffer) buffer).force();
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Cannot close price history: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Index of the first point at or after {@code fromMillis} among points {@code [lo, hi)}. */
+    private long firstAtOrAfter(int slot, long lo, long hi, long fromMillis) {
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (buffer.getLong(pointOffset(slot, mid)) < fromMillis) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private Integer allocate(String symbol) {
+        byte[] name = symbol.getBytes(StandardCharsets.UTF_8);
+        if (slots.size() == maxSymbols || name.length > MAX_SYMBOL_BYTES) {
+            if (!fullLogged) {
+                log.warn("Price history cannot track {}: {} of {} symbols in use", symbol, slots.size(), maxSymbols);
+                fullLogged = true;
+            }
+            return null;
+        }
+        int slot = slots.size();
+        int at = directoryOffset(slot);
+        buffer.put(at, (byte) name.length);
+        buffer.put(at + 1, name);
+        buffer.putLong(countOffset(slot), 0);
+        slots.put(symbol, slot);
+        return slot;
+    }
+
+    private long count(int slot) {
+        return buffer.getLong(countOffset(slot));
+    }
+
+    private int directoryOffset(int slot) {
+        return HEADER_BYTES + slot * DIRECTORY_ENTRY_BYTES;
+    }
+
+    private int countOffset(int slot) {
+        return directoryOffset(slot) + 1 + MAX_SYMBOL_BYTES;
+    }
+
+    private int pointOffset(int slot, long index) {
+        return dataOffset + (slot * capacity + (int) (index % capacity)) * POINT_BYTES;
+    }
+
+    private boolean matchesLayout() {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                && buffer.getInt(8) == maxSymbols && buffer.getInt(12) == capacity;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, maxSymbols);
+        buffer.putInt(12, capacity);
+    }
+
+    private void clear() {
+        for (int at = 0; at < dataOffset; at++) buffer.put(at, (byte) 0);
+    }
+
+    private void loadDirectory() {
+        for (int slot = 0; slot < maxSymbols; slot++) {
+            int at = directoryOffset(slot);
+            int length = buffer.get(at);
+            if (length <= 0 || length > MAX_SYMBOL_BYTES) break;
+            byte[] name = new byte[length];
+            buffer.get(at + 1, name);
+            slots.put(new String(name, StandardCharsets.UTF_8), slot);
+        }
+    }
+}
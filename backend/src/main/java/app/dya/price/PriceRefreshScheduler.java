@@ -1,31 +1,132 @@
 package app.dya.price;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.util.Arrays;
-import java.util.List;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
 
+/**
+ * Refreshes prices ahead of requests, by how often each symbol is requested.
+ *
+ * <p>Every tick, symbols requested at least {@code hotPerMinute} times a minute are refreshed
+ * once their price is {@code hotSeconds} old, and symbols requested at least
+ * {@code warmPerMinute} times once it is {@code warmSeconds} old. Colder symbols are only
+ * fetched when requested. The most requested due symbols go first, and a tick stops adding
+ * symbols once they would need more than {@code callBudget} CoinGecko requests.</p>
+ *
+ * <p>Off unless {@code app.prices.refresh.tickSeconds} or the older
+ * {@code app.prices.refreshMinutes} is set. The latter keeps its meaning: every token of the
+ * registry, requested or not, is refreshed once its price is that many minutes old (after
+ * the hot and warm ones, within the same budget); ticks then default to 15 seconds.</p>
+ */
 @Component
-@ConditionalOnExpression("${app.prices.refreshMinutes:0} > 0")
+@ConditionalOnExpression("${app.prices.refresh.tickSeconds:0} > 0 or ${app.prices.refreshMinutes:0} > 0")
 public class PriceRefreshScheduler {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PriceRefreshScheduler.class);
+
     private final PriceService priceService;
+    private final TokenRegistry tokens;
+    private final RequestFrequency frequency;
+    private final CoinGeckoClient client;
+    private final double hotPerMinute;
+    private final double warmPerMinute;
+    private final Duration hotInterval;
+    private final Duration warmInterval;
+    private final int callBudget;
+    /** Age at which any registry token is refreshed, or {@code null}. */
+    private final Duration allInterval;
+    private final Clock clock;
+
+    @Autowired
+    public PriceRefreshScheduler(
+            PriceService priceService,
+            TokenRegistry tokens,
+            RequestFrequency frequency,
+            CoinGeckoClient client,
+            @Value("${app.prices.refresh.hotPerMinute:1}") double hotPerMinute,
+            @Value("${app.prices.refresh.warmPerMinute:0.05}") double warmPerMinute,
+            @Value("${app.prices.refresh.hotSeconds:60}") long hotSeconds,
+            @Value("${app.prices.refresh.warmSeconds:300}") long warmSeconds,
+            @Value("${app.prices.refresh.callBudget:2}") int callBudget,
+            @Value("${app.prices.refreshMinutes:0}") long refreshMinutes
+    ) {
+        this(priceService, tokens, frequency, client, hotPerMinute, warmPerMinute,
+                Duration.ofSeconds(hotSeconds), Duration.ofSeconds(warmSeconds), callBudget,
+                refreshMinutes > 0 ? Duration.ofMinutes(refreshMinutes) : null, Clock.systemUTC());
+    }
 
-    public PriceRefreshScheduler(PriceService priceService) {
+    PriceRefreshScheduler(PriceService priceService, TokenRegistry tokens, RequestFrequency frequency,
+                          CoinGeckoClient client, double hotPerMinute, double warmPerMinute,
+                          Duration hotInterval, Duration warmInterval, int callBudget,
+                          Duration allInterval, Clock clock) {
         this.priceService = priceService;
+        this.tokens = tokens;
+        this.frequency = frequency;
+        this.client = client;
+        this.hotPerMinute = hotPerMinute;
+        this.warmPerMinute = warmPerMinute;
+        this.hotInterval = hotInterval;
+        this.warmInterval = warmInterval;
+        this.callBudget = callBudget;
+        this.allInterval = allInterval;
+        this.clock = clock;
     }
 
     @Scheduled(
-            fixedRateString = "#{${app.prices.refreshMinutes} * 60 * 1000}",
-            initialDelayString = "#{${app.prices.refreshMinutes} * 60 * 1000}"
+            fixedDelayString = "#{(${app.prices.refresh.tickSeconds:0} > 0 ? ${app.prices.refresh.tickSeconds:0} : 15) * 1000}",
+            initialDelayString = "#{(${app.prices.refresh.tickSeconds:0} > 0 ? ${app.prices.refresh.tickSeconds:0} : 15) * 1000}"
     )
     public void refresh() {
-        List<String> symbols = Arrays.stream(Symbol.values()).map(Enum::name).toList();
+        List<String> symbols = due();
+        if (symbols.isEmpty()) return;
         try {
-            priceService.getUsdPrices(symbols);
-        } catch (Exception ignored) {
-            // ignore refresh errors
+            priceService.refresh(symbols);
+        } catch (Exception e) {
+            log.debug("Price refresh of {} symbols failed: {}", symbols.size(), e.getMessage());
         }
     }
+
+    /** Symbols to refresh now, most requested first, within the call budget. */
+    List<String> due() {
+        Instant now = clock.instant();
+        List<Map.Entry<Token, Double>> candidates = new ArrayList<>();
+        Map<String, Double> rates = frequency.perMinute();
+        rates.forEach((symbol, rate) -> {
+            Duration interval = rate >= hotPerMinute ? hotInterval : rate >= warmPerMinute ? warmInterval : allInterval;
+            Token token = tokens.bySymbol(symbol);
+            if (interval == null || token == null) return;
+            if (isDue(token, interval, now)) candidates.add(Map.entry(token, rate));
+        });
+        if (allInterval != null) {
+            for (Token token : tokens.tokens()) {
+                if (!rates.containsKey(token.symbol()) && isDue(token, allInterval, now)) {
+                    candidates.add(Map.entry(token, 0.0));
+                }
+            }
+        }
+        candidates.sort(Map.Entry.<Token, Double>comparingByValue().reversed());
+
+        List<String> symbols = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (Map.Entry<Token, Double> candidate : candidates) {
+            Token token = candidate.getKey();
+            if (ids.add(token.coingeckoId()) && client.requestsFor(ids) > callBudget) {
+                break;
+            }
+            symbols.add(token.symbol());
+        }
+        return symbols;
+    }
+
+    private boolean isDue(Token token, Duration interval, Instant now) {
+        Instant fetchedAt = priceService.fetchedAt(token.symbol());
+        return fetchedAt == null || !fetchedAt.plus(interval).isAfter(now);
+    }
 }
@@ -1,67 +1,332 @@
 package app.dya.price;
 
+import app.dya.cache.ExpiringCache;
+import app.dya.cache.ExpiringCacheMetrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * USD prices from CoinGecko behind a TTL cache. On a cache miss, a price the protocol
+ * services reported recently ({@link ObservedPrices}) is used before calling CoinGecko.
+ *
+ * <p>Every price ever fetched is also kept as last known good. When CoinGecko is throttled
+ * or failing, a symbol that cannot be refreshed is answered with that price, marked stale
+ * and carrying its fetch time, instead of being left out.</p>
+ */
 @Service
 public class PriceService {
 
     private final CoinGeckoClient client;
-    private final TimedCache<String, Double> cache;
+    private final TokenRegistry tokens;
+    private final RequestFrequency frequency;
+    private final PriceHistory history;
+    private final ObservedPrices observed;
+    private final ExpiringCache<String, Quote> cache;
+    private final Duration ttl;
+    /** Upstream fetches in progress, by CoinGecko id. */
+    private final ConcurrentHashMap<String, CompletableFuture<Quote>> inFlight = new ConcurrentHashMap<>();
+    /** Latest fetched price per symbol, never expired. */
+    private final ConcurrentHashMap<String, Quote> lastKnownGood = new ConcurrentHashMap<>();
 
+    public PriceService(CoinGeckoClient client, long ttlMinutes) {
+        this(client, TokenRegistry.bundled(), new RequestFrequency(Duration.ofMinutes(10)),
+                new PriceHistory((Path) null, 64, 256), ObservedPrices.disabled(), ttlMinutes, 10_000);
+    }
+
+    @Autowired
     public PriceService(
             CoinGeckoClient client,
-            @Value("${app.prices.cacheTtlMinutes:10}") long ttlMinutes
+            TokenRegistry tokens,
+            RequestFrequency frequency,
+            PriceHistory history,
+            ObservedPrices observed,
+            @Value("${app.prices.cacheTtlMinutes:10}") long ttlMinutes,
+            @Value("${app.prices.cacheMaxEntries:10000}") int maxEntries
     ){
         this.client = client;
-        this.cache = new TimedCache<>(Duration.ofMinutes(ttlMinutes <= 0 ? 10 : ttlMinutes));
+        this.tokens = tokens;
+        this.frequency = frequency;
+        this.history = history;
+        this.observed = observed;
+        this.ttl = Duration.ofMinutes(ttlMinutes <= 0 ? 10 : ttlMinutes);
+        this.cache = new ExpiringCache<>(ttl, maxEntries, Duration.ofMinutes(1));
     }
 
-    /** Returns {"ETH": 2789.12, "DAI": 1.0, "USDC": 1.0} for requested symbols (unsupported ignored). */
-    public Map<String, Double> getUsdPrices(List<String> symbols){
-        // sanitize + keep only supported
-        List<String> req = symbols.stream()
-                .map(s -> s == null ? "" : s.trim())
-                .filter(s -> !s.isEmpty())
-                .map(String::toUpperCase)
-                .filter(Symbol::supported)
-                .distinct()
-                .toList();
+    /** How long a fetched price is served from the cache. */
+    public Duration ttl() {
+        return ttl;
+    }
 
+    /** Hit, miss, load and eviction meters of the price cache, tagged {@code cache=prices}. */
+    public MeterBinder cacheMetrics() {
+        return new ExpiringCacheMetrics(cache, "prices", Tags.empty());
+    }
+
+    /**
+     * Returns {"ETH": 2789.12, "DAI": 1.0, "USDC": 1.0} for requested symbols, keyed by the
+     * registry's spelling of each symbol (symbols not in the {@link TokenRegistry} ignored).
+     */
+    public Map<String, Double> getUsdPrices(List<String> symbols){
         Map<String, Double> out = new LinkedHashMap<>();
-        List<Symbol> misses = new ArrayList<>();
+        getUsdQuotes(symbols).forEach((symbol, quote) -> out.put(symbol, quote.usd()));
+        return out;
+    }
+
+    /**
+     * Like {@link #getUsdPrices} but with the fetch time of every price and whether it is a
+     * stale last-known-good price served because CoinGecko could not be reached.
+     *
+     * @throws RuntimeException the upstream failure when a symbol has neither a fresh nor a stale price
+     */
+    public Map<String, Quote> getUsdQuotes(List<String> symbols){
+        Map<String, Token> req = resolve(symbols);
+        req.keySet().forEach(frequency::record);
+        return quotes(req, true);
+    }
+
+    /**
+     * Fetch the given symbols from CoinGecko even if they are cached, e.g. to renew prices
+     * before they expire. Not counted as requests in the {@link RequestFrequency}.
+     *
+     * @return the refreshed prices, as {@link #getUsdQuotes} would return them
+     */
+    public Map<String, Quote> refresh(Collection<String> symbols){
+        return quotes(resolve(symbols), false);
+    }
+
+    /**
+     * When the newest price of {@code symbol} was fetched from CoinGecko or agreed on by the
+     * protocols, or {@code null} if neither has a price.
+     */
+    public Instant fetchedAt(String symbol){
+        Quote q = lastKnownGood.get(symbol);
+        Instant fetched = q == null ? null : q.fetchedAt();
+        Token token = tokens.bySymbol(symbol);
+        Instant reported = token == null ? null
+                : observed.consensus(token.address(), reference(token)).map(ObservedPrices.Observation::observedAt).orElse(null);
+        if(fetched == null) return reported;
+        return reported != null && reported.isAfter(fetched) ? reported : fetched;
+    }
+
+    /** Latest fetched price of every symbol, for {@link PriceCacheSnapshot}. */
+    public Map<String, Quote> lastKnownPrices(){
+        return Map.copyOf(lastKnownGood);
+    }
+
+    /**
+     * Restore a price fetched earlier, e.g. by a previous process. It becomes the last known
+     * good price unless a newer one is known, and is cached for what is left of its TTL.
+     *
+     * @return whether it was restored, i.e. {@code symbol} is in the registry
+     */
+    public boolean restore(String symbol, Quote quote){
+        Token token = tokens.bySymbol(symbol);
+        if(token == null) return false;
+        Quote restored = new Quote(quote.usd(), quote.fetchedAt(), false);
+        Quote kept = lastKnownGood.merge(token.symbol(), restored,
+                (current, older) -> current.fetchedAt().isBefore(older.fetchedAt()) ? older : current);
+        Duration left = ttl.minus(Duration.between(restored.fetchedAt(), Instant.now()));
+        if(kept == restored && left.isPositive()) cache.put(token.symbol(), restored, left);
+        return true;
+    }
+
+    /** The registry's spelling of {@code symbol}, or {@code null} if it is not in the registry. */
+    public String registrySymbol(String symbol){
+        Token token = tokens.bySymbol(symbol);
+        return token == null ? null : token.symbol();
+    }
 
-        // cache hits
-        for(String s : req){
-            Double v = cache.get(s);
-            if(v != null) out.put(s, v);
-            else misses.add(Symbol.from(s));
+    /**
+     * Feed the recorded prices of {@code symbol} between {@code from} and {@code to}, reduced
+     * to at most {@code maxPoints}, to {@code out}; see {@link PriceHistory#query}.
+     *
+     * @return the number of points emitted, or -1 if the symbol is not in the registry
+     */
+    public int history(String symbol, Instant from, Instant to, int maxPoints, PriceHistory.PointConsumer out){
+        Token token = tokens.bySymbol(symbol);
+        if(token == null) return -1;
+        return history.query(token.symbol(), from.toEpochMilli(), to.toEpochMilli(), maxPoints, out);
+    }
+
+    /**
+     * Tokens among {@code symbols}, once each, by registry symbol. A contract address stands
+     * for its registry token or, if a protocol has reported a price for it, for a token that
+     * is only priced from those reports and keyed by its lower-case address.
+     */
+    private Map<String, Token> resolve(Collection<String> symbols){
+        Map<String, Token> req = new LinkedHashMap<>();
+        for(String s : symbols){
+            Token token = tokens.bySymbol(s);
+            if(token == null) token = tokens.byAddress(s);
+            if(token == null && observed.knows(s)){
+                String address = s.trim().toLowerCase(Locale.ROOT);
+                token = new Token(address, null, address);
+            }
+            if(token != null) req.putIfAbsent(token.symbol(), token);
         }
+        return req;
+    }
 
-        // fetch misses
+    /**
+     * Price agreed on by the protocols that reported one recently, cached for the rest of the
+     * TTL counted from when it was reported; see {@link ObservedPrices#consensus}. A price
+     * reported by a single protocol is only used when it is close to the last CoinGecko price.
+     */
+    private Quote observed(Token token){
+        return observed.consensus(token.address(), reference(token)).map(seen -> {
+            Quote q = new Quote(seen.usd(), seen.observedAt(), false);
+            Duration left = ttl.minus(Duration.between(q.fetchedAt(), Instant.now()));
+            if(left.isPositive()) cache.put(token.symbol(), q, left);
+            return q;
+        }).orElse(null);
+    }
+
+    /** Last price fetched from CoinGecko, to check single-source reports against, or NaN. */
+    private double reference(Token token){
+        Quote q = lastKnownGood.get(token.symbol());
+        return q == null ? Double.NaN : q.usd();
+    }
+
+    private Map<String, Quote> quotes(Map<String, Token> req, boolean fromCache){
+        Map<String, Quote> out = new LinkedHashMap<>();
+        List<Token> misses = new ArrayList<>();
+
+        // cache hits, then prices the protocols reported
+        for(Token token : req.values()){
+            Quote q = fromCache ? cache.get(token.symbol()) : null;
+            if(q == null && fromCache) q = observed(token);
+            if(q != null) out.put(token.symbol(), q);
+            else if(token.coingeckoId() != null) misses.add(token);
+        }
+
+        // fetch misses, joining fetches already in flight for the same ids
         if(!misses.isEmpty()){
-            Set<String> ids = new HashSet<>();
-            for(Symbol sym : misses) ids.add(sym.coingeckoId);
+            Map<Token, CompletableFuture<Quote>> pending = new LinkedHashMap<>();
+            Map<Token, CompletableFuture<Quote>> owned = new LinkedHashMap<>();
+            for(Token token : misses){
+                CompletableFuture<Quote> mine = new CompletableFuture<>();
+                CompletableFuture<Quote> existing = inFlight.putIfAbsent(token.coingeckoId(), mine);
+                if(existing != null){
+                    pending.put(token, existing);
+                    continue;
+                }
+                pending.put(token, mine);
+                // a fetch may have completed between the cache miss and registering ours
+                Quote cached = fromCache ? cache.get(token.symbol()) : null;
+                if(cached != null){
+                    inFlight.remove(token.coingeckoId(), mine);
+                    mine.complete(cached);
+                } else {
+                    owned.put(token, mine);
+                }
+            }
 
-            Map<String, Map<String, Double>> resp = client.fetchUsdPricesByIds(ids);
+            if(!owned.isEmpty()) fetch(owned);
 
-            for(Symbol sym : misses){
-                Double px = Optional.ofNullable(resp.get(sym.coingeckoId))
-                        .map(m -> m.get("usd"))
-                        .orElse(null);
-                if(px != null){
-                    cache.put(sym.name(), px);
-                    out.put(sym.name(), px);
+            for(Map.Entry<Token, CompletableFuture<Quote>> e : pending.entrySet()){
+                String symbol = e.getKey().symbol();
+                Quote q;
+                try {
+                    q = await(e.getValue());
+                } catch (RuntimeException failure) {
+                    if(!lastKnownGood.containsKey(symbol)) throw failure;
+                    q = null;
                 }
+                if(q == null){
+                    Quote stale = lastKnownGood.get(symbol);
+                    if(stale != null) q = stale.asStale();
+                }
+                if(q != null) out.put(symbol, q);
             }
         }
         return out;
     }
 
+    /**
+     * Fetch the given symbols with one upstream call and hand the result to everyone waiting
+     * on their futures. Futures leave {@link #inFlight} before they complete so that a caller
+     * woken by a missing price can start a new fetch. Whatever is thrown, even an
+     * {@link Error}, every future is completed so that no caller waits forever.
+     */
+    private void fetch(Map<Token, CompletableFuture<Quote>> owned){
+        Set<String> ids = new HashSet<>();
+        for(Token token : owned.keySet()) ids.add(token.coingeckoId());
+        Map<String, Map<String, Double>> resp;
+        try {
+            resp = client.fetchUsdPricesByIds(ids);
+        } catch (Throwable e) {
+            fail(owned, e);
+            if(e instanceof RuntimeException) return;
+            throw e;
+        }
+        try {
+            Instant now = Instant.now();
+            owned.forEach((token, future) -> {
+                Quote q = Optional.ofNullable(resp.get(token.coingeckoId()))
+                        .map(m -> m.get("usd"))
+                        .map(px -> new Quote(px, now, false))
+                        .orElse(null);
+                if(q != null){
+                    cache.put(token.symbol(), q);
+                    lastKnownGood.put(token.symbol(), q);
+                    history.append(token.symbol(), now.toEpochMilli(), q.usd());
+                }
+                inFlight.remove(token.coingeckoId(), future);
+                future.complete(q);
+            });
+        } catch (Throwable e) {
+            fail(owned, e);
+            throw e;
+        }
+    }
+
+    /** Remove the futures that are still pending from {@link #inFlight} and fail them. */
+    private void fail(Map<Token, CompletableFuture<Quote>> owned, Throwable failure){
+        owned.forEach((token, future) -> {
+            if(future.isDone()) return;
+            inFlight.remove(token.coingeckoId(), future);
+            future.completeExceptionally(failure);
+        });
+    }
+
+    private static Quote await(CompletableFuture<Quote> future){
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
     public String ping() {
         return client.ping(); // just forwards to the client
     }
+
+    @PreDestroy
+    void close() {
+        cache.close();
+    }
+
+    /**
+     * @param usd       USD price
+     * @param fetchedAt when CoinGecko returned the price
+     * @param stale     whether this is a last-known-good price served because a refresh failed
+     */
+    public record Quote(double usd, Instant fetchedAt, boolean stale) {
+        Quote asStale() {
+            return stale ? this : new Quote(usd, fetchedAt, true);
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package app.dya.price;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * How often each symbol is requested, as an exponentially decaying count.
+ *
+ * <p>{@link #record} only bumps a counter so it stays cheap on the request path; the counts
+ * are folded into the decayed scores when {@link #perMinute()} is read. A request counts
+ * half as much after every {@code halfLife}.</p>
+ */
+@Component
+public class RequestFrequency {
+
+    /** Scores below this are dropped, i.e. the symbol has not been requested in a long while. */
+    private static final double FORGET_BELOW = 1e-3;
+
+    private final double halfLifeNanos;
+    private final LongSupplier nanoTime;
+    /** Requests since the last fold, per symbol. Bounded by the token registry. */
+    private final ConcurrentHashMap<String, LongAdder> recent = new ConcurrentHashMap<>();
+    /** Decayed request counts, guarded by {@code this}. */
+    private final Map<String, Double> scores = new HashMap<>();
+    private long decayedAt;
+
+    @Autowired
+    public RequestFrequency(@Value("${app.prices.refresh.halfLifeMinutes:10}") long halfLifeMinutes) {
+        this(Duration.ofMinutes(halfLifeMinutes <= 0 ? 10 : halfLifeMinutes));
+    }
+
+    public RequestFrequency(Duration halfLife) {
+        this(halfLife, System::nanoTime);
+    }
+
+    RequestFrequency(Duration halfLife, LongSupplier nanoTime) {
+        this.halfLifeNanos = halfLife.toNanos();
+        this.nanoTime = nanoTime;
+        this.decayedAt = nanoTime.getAsLong();
+    }
+
+    /** Count one request for {@code symbol}. */
+    public void record(String symbol) {
+        recent.computeIfAbsent(symbol, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Estimated requests per minute of every symbol requested recently. A steady rate of
+     * {@code r} requests per minute converges to {@code r}.
+     */
+    public synchronized Map<String, Double> perMinute() {
+        long now = nanoTime.getAsLong();
+        double decay = Math.pow(0.5, (now - decayedAt) / halfLifeNanos);
+        decayedAt = now;
+        scores.replaceAll((symbol, score) -> score * decay);
+        recent.forEach((symbol, count) -> {
+            long n = count.sumThenReset();
+            if (n > 0) scores.merge(symbol, (double) n, Double::sum);
+        });
+        scores.values().removeIf(score -> score < FORGET_BELOW);
+
+        // a decayed count of a steady rate r settles at r * halfLife / ln 2
+        double toPerMinute = Math.log(2) * Duration.ofMinutes(1).toNanos() / halfLifeNanos;
+        Map<String, Double> rates = new HashMap<>(scores.size() * 2);
+        scores.forEach((symbol, score) -> rates.put(symbol, score * toPerMinute));
+        return rates;
+    }
+}
@@ -0,0 +1,12 @@
+package app.dya.price;
+
+/**
+ * A priceable token.
+ *
+ * @param symbol      ticker as listed in the registry, e.g. {@code "USDC"} or {@code "stETH"}
+ * @param coingeckoId CoinGecko id used for {@code /simple/price}, or {@code null} for a token
+ *                    outside the registry that is only priced from {@link ObservedPrices}
+ * @param address     Ethereum contract address, lower case, or {@code null} for the native asset
+ */
+public record Token(String symbol, String coingeckoId, String address) {
+}
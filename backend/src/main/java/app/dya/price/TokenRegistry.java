@@ -0,0 +1,122 @@
+package app.dya.price;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Tokens that can be priced, loaded from a JSON list of {@code {symbol, coingeckoId, address}}
+ * (the bundled {@code tokens.json} by default).
+ *
+ * <p>Lookups by symbol (case-insensitive) and by contract address go to maps built once per
+ * load. {@link #refresh()} reloads the file periodically and swaps the maps in one step;
+ * a file that cannot be read or parsed leaves the current tokens in place.</p>
+ */
+@Component
+public class TokenRegistry {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TokenRegistry.class);
+
+    private static final ObjectMapper JSON = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final Pattern ADDRESS = Pattern.compile("0x[0-9a-fA-F]{40}");
+
+    private final Resource location;
+    private volatile Index index;
+
+    public TokenRegistry(@Value("${app.prices.tokens.location:classpath:tokens.json}") Resource location) {
+        this.location = location;
+        try {
+            this.index = load(location);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("Cannot load token registry from " + location, e);
+        }
+        log.info("Loaded {} tokens from {}", index.tokens().size(), location);
+    }
+
+    /** Registry of the tokens bundled with the application. */
+    public static TokenRegistry bundled() {
+        return new TokenRegistry(new ClassPathResource("tokens.json"));
+    }
+
+    /** @return the token listed under {@code symbol}, ignoring case and surrounding blanks, or {@code null} */
+    public Token bySymbol(String symbol) {
+        if (symbol == null) return null;
+        return index.bySymbol().get(symbol.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /** @return the token with contract {@code address}, ignoring case, or {@code null} */
+    public Token byAddress(String address) {
+        if (address == null) return null;
+        return index.byAddress().get(address.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /** Every token, in file order. */
+    public List<Token> tokens() {
+        return index.tokens();
+    }
+
+    /** Reload the registry from its location, keeping the current tokens if that fails. */
+    @Scheduled(fixedDelayString = "${app.prices.tokens.refreshMinutes:60}",
+            initialDelayString = "${app.prices.tokens.refreshMinutes:60}", timeUnit = TimeUnit.MINUTES)
+    public void refresh() {
+        try {
+            Index next = load(location);
+            index = next;
+            log.debug("Reloaded {} tokens from {}", next.tokens().size(), location);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Keeping {} tokens, cannot reload {}: {}", index.tokens().size(), location, e.getMessage());
+        }
+    }
+
+    private static Index load(Resource location) throws IOException {
+        List<Entry> entries;
+        try (InputStream in = location.getInputStream()) {
+            entries = JSON.readValue(in, new TypeReference<>() {});
+        }
+        if (entries == null || entries.isEmpty()) {
+            throw new IllegalArgumentException("no tokens listed");
+        }
+        List<Token> tokens = new ArrayList<>(entries.size());
+        Map<String, Token> bySymbol = new HashMap<>(entries.size() * 2);
+        Map<String, Token> byAddress = new HashMap<>(entries.size() * 2);
+        for (Entry e : entries) {
+            Token token = e.toToken();
+            if (bySymbol.putIfAbsent(token.symbol().toUpperCase(Locale.ROOT), token) != null) {
+                log.warn("Duplicate token symbol {} in {}, keeping the first", token.symbol(), location);
+                continue;
+            }
+            if (token.address() != null) byAddress.putIfAbsent(token.address(), token);
+            tokens.add(token);
+        }
+        return new Index(Map.copyOf(bySymbol), Map.copyOf(byAddress), List.copyOf(tokens));
+    }
+
+    private record Index(Map<String, Token> bySymbol, Map<String, Token> byAddress, List<Token> tokens) {
+    }
+
+    /** One element of the registry file. */
+    private record Entry(String symbol, String coingeckoId, String address) {
+        Token toToken() {
+            if (symbol == null || symbol.isBlank() || coingeckoId == null || coingeckoId.isBlank()) {
+                throw new IllegalArgumentException("token without symbol or coingeckoId: " + this);
+            }
+            if (address != null && !ADDRESS.matcher(address).matches()) {
+                throw new IllegalArgumentException("invalid address for " + symbol + ": " + address);
+            }
+            return new Token(symbol.trim(), coingeckoId.trim(),
+                    address == null ? null : address.toLowerCase(Locale.ROOT));
+        }
+    }
+}
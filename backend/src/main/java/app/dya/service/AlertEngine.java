@@ -0,0 +1,200 @@
+package app.dya.service;
+
+import app.dya.api.dto.AlertItem;
+import app.dya.service.portfolio.PositionAggregator;
+import app.dya.service.portfolio.PositionSnapshot;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Evaluates the alert rules for every subscribed wallet in the background, so that a wallet
+ * nobody is looking at still gets its liquidation email.
+ *
+ * <p>Every pass takes the subscribed addresses in order and cuts them into shards of
+ * {@code shardSize}. Snapshots cached since the previous pass, e.g. because the wallet was
+ * viewed, are reused; the rest of each shard is fetched with one
+ * {@link PositionAggregator#fetchBatch} call, which sends a single batched request to each
+ * protocol. Every snapshot is then evaluated with an {@link AlertEvaluator} that has its own
+ * {@link ApyTrackingService}: the APRs seen by the scan are not the baseline {@code /alerts}
+ * compares against, so a yield drop reported by the scan is still reported there.</p>
+ *
+ * <p>Shards run on virtual threads. Each protocol has its own limit of
+ * {@code maxConcurrentPerProtocol} batch requests in flight, shared by all shards, so a slow
+ * protocol only queues its own requests while the others keep answering the rest of the
+ * shards.</p>
+ *
+ * <p>A wallet is emailed when an alert appears that it was not alerted about on the previous
+ * pass, and again every {@code renotifyMinutes} while alerts persist. Pass and shard times
+ * are recorded as the {@code alerts.scan} and {@code alerts.scan.shard} timers.</p>
+ */
+@Service
+@ConditionalOnExpression("${app.alerts.scan.intervalSeconds:60} > 0")
+public class AlertEngine {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(AlertEngine.class);
+
+    private final PositionAggregator aggregator;
+    private final AlertSubscriptionService subscriptions;
+    private final AlertEvaluator evaluator;
+    private final EmailAlertService email;
+    private final int shardSize;
+    private final Duration reuseWithin;
+    private final int maxConcurrentPerProtocol;
+    /** Batch requests in flight, per protocol name. */
+    private final ConcurrentHashMap<String, Semaphore> protocolPermits = new ConcurrentHashMap<>();
+    private final Duration renotifyAfter;
+    private final Clock clock;
+    private final Timer scanTimer;
+    private final Timer shardTimer;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    /** Alerts each wallet was last evaluated with, and when it was last emailed. */
+    private final ConcurrentHashMap<String, Notified> notified = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AlertEngine(PositionAggregator aggregator,
+                       AlertSubscriptionService subscriptions,
+                       EmailAlertService email,
+                       MeterRegistry registry,
+                       @Value("${app.alerts.scan.intervalSeconds:60}") long intervalSeconds,
+                       @Value("${app.alerts.scan.shardSize:100}") int shardSize,
+                       @Value("${app.alerts.scan.maxConcurrentPerProtocol:4}") int maxConcurrentPerProtocol,
+                       @Value("${app.alerts.scan.renotifyMinutes:360}") long renotifyMinutes) {
+        this(aggregator, subscriptions, new AlertEvaluator(new ApyTrackingService()), email, registry,
+                Duration.ofSeconds(intervalSeconds), shardSize,
+                maxConcurrentPerProtocol, Duration.ofMinutes(renotifyMinutes), Clock.systemUTC());
+    }
+
+    AlertEngine(PositionAggregator aggregator, AlertSubscriptionService subscriptions, AlertEvaluator evaluator,
+                EmailAlertService email, MeterRegistry registry, Duration reuseWithin, int shardSize,
+                int maxConcurrentPerProtocol, Duration renotifyAfter, Clock clock) {
+        if (shardSize <= 0 || maxConcurrentPerProtocol <= 0) {
+            throw new IllegalArgumentException("shardSize and maxConcurrentPerProtocol must be positive");
+        }
+        this.aggregator = aggregator;
+        this.subscriptions = subscriptions;
+        this.evaluator = evaluator;
+        this.email = email;
+        this.shardSize = shardSize;
+        this.reuseWithin = reuseWithin;
+        this.maxConcurrentPerProtocol = maxConcurrentPerProtocol;
+        this.renotifyAfter = renotifyAfter;
+        this.clock = clock;
+        this.scanTimer = Timer.builder("alerts.scan")
+                .description("Time to evaluate the alerts of every subscribed wallet")
+                .register(registry);
+        this.shardTimer = Timer.builder("alerts.scan.shard")
+                .description("Time to fetch and evaluate one shard of subscribed wallets")
+                .register(registry);
+    }
+
+    @Scheduled(
+            fixedDelayString = "#{${app.alerts.scan.intervalSeconds:60} * 1000}",
+            initialDelayString = "#{${app.alerts.scan.intervalSeconds:60} * 1000}"
+    )
+    public void scan() {
+        scanTimer.record(() -> {
+            try {
+                scanOnce();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * Evaluate every subscribed wallet once.
+     *
+     * @return the number of wallets emailed
+     */
+    int scanOnce() throws InterruptedException {
+        List<String> addresses = new ArrayList<>(subscriptions.watchedAddresses());
+        notified.keySet().retainAll(new HashSet<>(addresses));
+        if (addresses.isEmpty()) return 0;
+        Collections.sort(addresses);
+
+        List<Future<Integer>> shards = new ArrayList<>();
+        for (int from = 0; from < addresses.size(); from += shardSize) {
+            List<String> shard = addresses.subList(from, Math.min(addresses.size(), from + shardSize));
+            shards.add(executor.submit(() -> shardTimer.recordCallable(() -> evaluateShard(shard))));
+        }
+
+        int emailed = 0;
+        int failed = 0;
+        for (Future<Integer> shard : shards) {
+            try {
+                emailed += shard.get();
+            } catch (ExecutionException e) {
+                failed++;
+                log.warn("Evaluating a shard of subscribed wallets failed: {}", e.getCause().toString());
+            } catch (InterruptedException e) {
+                shards.forEach(f -> f.cancel(true));
+                throw e;
+            }
+        }
+        if (emailed > 0 || failed > 0) {
+            log.info("Alert scan of {} wallets in {} shards: {} emailed, {} shards failed",
+                    addresses.size(), shards.size(), emailed, failed);
+        }
+        return emailed;
+    }
+
+    private int evaluateShard(List<String> shard) {
+        int emailed = 0;
+        for (Map.Entry<String, PositionSnapshot> e : aggregator.snapshotBatch(shard, reuseWithin, this::permits).entrySet()) {
+            String address = e.getKey();
+            PositionSnapshot snapshot = e.getValue();
+            List<AlertItem> alerts = evaluator.evaluate(address, snapshot);
+            if (alerts.isEmpty()) {
+                // a protocol that did not answer says nothing about whether its alert is over
+                if (snapshot.degradedProtocols().isEmpty()) notified.remove(address);
+                continue;
+            }
+            if (notify(address, alerts)) emailed++;
+        }
+        return emailed;
+    }
+
+    private Semaphore permits(String protocol) {
+        return protocolPermits.computeIfAbsent(protocol, p -> new Semaphore(maxConcurrentPerProtocol, true));
+    }
+
+    /** Email the wallet's subscriber if the alerts are new or were last sent long enough ago. */
+    private boolean notify(String address, List<AlertItem> alerts) {
+        Set<String> keys = new HashSet<>();
+        for (AlertItem alert : alerts) keys.add(alert.type() + ":" + alert.protocol());
+        Instant now = clock.instant();
+        Notified previous = notified.get(address);
+        boolean send = previous == null
+                || !previous.keys().containsAll(keys)
+                || !now.isBefore(previous.sentAt().plus(renotifyAfter));
+        notified.put(address, new Notified(keys, send ? now : previous.sentAt()));
+        if (!send) return false;
+        Optional<String> to = subscriptions.getEmail(address);
+        to.ifPresent(recipient -> email.send(recipient, alerts));
+        return to.isPresent();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Notified(Set<String> keys, Instant sentAt) {}
+}
@@ -0,0 +1,54 @@
+package app.dya.service;
+
+import app.dya.api.dto.AlertItem;
+import app.dya.api.dto.PortfolioDTO;
+import app.dya.service.portfolio.PositionSnapshot;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Alert rules applied to a wallet's positions: a liquidation risk when the Aave health
+ * factor is below 1.3, and a yield drop when a deposit's APR fell by more than 20% since it
+ * was last evaluated (see {@link ApyTrackingService}).
+ */
+@Service
+public class AlertEvaluator {
+
+    private static final BigDecimal RISK_THRESHOLD = new BigDecimal("1.3");
+
+    private final ApyTrackingService apyTrackingService;
+
+    public AlertEvaluator(ApyTrackingService apyTrackingService) {
+        this.apyTrackingService = apyTrackingService;
+    }
+
+    /**
+     * @param address  wallet address
+     * @param snapshot the wallet's current positions
+     * @return the alerts raised, empty if none
+     */
+    public List<AlertItem> evaluate(String address, PositionSnapshot snapshot) {
+        BigDecimal healthFactor = snapshot.aaveHealthFactor();
+        List<AlertItem> alerts = new ArrayList<>();
+        Instant now = Instant.now();
+
+        if (healthFactor != null && healthFactor.compareTo(RISK_THRESHOLD) < 0) {
+            alerts.add(new AlertItem(
+                    "LIQUIDATION_RISK",
+                    String.format("Health factor %.2f below 1.3 on Aave position", healthFactor),
+                    "Aave",
+                    now.toString()));
+        }
+
+        for (PortfolioDTO.PositionDTO pos : snapshot.positions()) {
+            if ("DEPOSIT".equalsIgnoreCase(pos.positionType())) {
+                apyTrackingService.checkApy(address.toLowerCase(), pos).ifPresent(alerts::add);
+            }
+        }
+        return alerts;
+    }
+}
@@ -4,6 +4,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -23,4 +24,9 @@ public class AlertSubscriptionService {
         if (address == null) return Optional.empty();
         return Optional.ofNullable(emailSubscriptions.get(address.toLowerCase()));
     }
+
+    /** Lower-case addresses of all wallets with an alert subscription. */
+    public Set<String> watchedAddresses() {
+        return Set.copyOf(emailSubscriptions.keySet());
+    }
 }
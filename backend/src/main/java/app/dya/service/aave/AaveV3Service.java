@@ -1,16 +1,20 @@
 package app.dya.service.aave;
 
 import app.dya.api.dto.PortfolioDTO;
+import app.dya.math.FixedDecimal;
+import app.dya.price.ObservedPrices;
+import app.dya.service.subgraph.SubgraphJson;
+import com.fasterxml.jackson.core.JsonParser;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Service fetching positions from the Aave v3 subgraph.
@@ -22,87 +26,196 @@ import java.util.*;
 @Service
 public class AaveV3Service {
 
+    private static final int MAX_USERS_PER_QUERY = 1000;
+    private static final FixedDecimal CRITICAL_HEALTH_FACTOR = FixedDecimal.parse("1.1");
+    private static final FixedDecimal WARN_HEALTH_FACTOR = FixedDecimal.parse("1.3");
+    /** Health factor of a user without the field, i.e. "0" in WAD. */
+    private static final FixedDecimal NO_HEALTH_FACTOR = FixedDecimal.parseUnits("0", 18);
+
+    private static final String USER_FIELDS = """
+            healthFactor
+            reserves: userReserves {
+              scaledATokenBalance
+              scaledVariableDebt
+              reserve { underlyingAsset symbol decimals liquidityRate variableBorrowRate price { priceInUsd } }
+            }""";
+
     private final RestTemplate restTemplate;
     private final String subgraphUrl;
+    private final ObservedPrices observedPrices;
 
+    public AaveV3Service(RestTemplateBuilder restTemplateBuilder, String subgraphUrl) {
+        this(restTemplateBuilder, subgraphUrl, ObservedPrices.disabled());
+    }
+
+    /**
+     * @param observedPrices receives the oracle price of every reserve read
+     */
+    @Autowired
     public AaveV3Service(RestTemplateBuilder restTemplateBuilder,
-                         @Value("${aave.v3.subgraph:https://api.thegraph.com/subgraphs/name/aave/protocol-v3}") String subgraphUrl) {
+                         @Value("${aave.v3.subgraph:https://api.thegraph.com/subgraphs/name/aave/protocol-v3}") String subgraphUrl,
+                         ObservedPrices observedPrices) {
         this.restTemplate = restTemplateBuilder.build();
         this.subgraphUrl = subgraphUrl;
+        this.observedPrices = observedPrices;
     }
 
     /**
      * Returns a list of Aave positions for the given wallet address.
      */
     public List<PortfolioDTO.PositionDTO> getPositions(String address) {
+        return getAccount(address).positions();
+    }
+
+    /**
+     * Returns the Aave health factor together with the positions of the given wallet,
+     * both read from a single subgraph query.
+     */
+    public AaveAccount getAccount(String address) {
+        return toAccount(SubgraphJson.query(restTemplate, subgraphUrl, buildQuery(address), "user",
+                AaveV3Service::readUser, null));
+    }
+
+    /**
+     * Returns the Aave accounts of several wallets using one subgraph query per
+     * {@value #MAX_USERS_PER_QUERY} addresses.
+     *
+     * @param addresses wallet addresses
+     * @return accounts keyed by lower-case address; wallets unknown to Aave map to an empty account
+     */
+    public Map<String, AaveAccount> getAccounts(Collection<String> addresses) {
+        List<String> ids = addresses.stream().map(String::toLowerCase).distinct().toList();
+        Map<String, AaveAccount> accounts = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += MAX_USERS_PER_QUERY) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_USERS_PER_QUERY));
+            List<UserData> users = SubgraphJson.query(restTemplate, subgraphUrl, buildBatchQuery(chunk), "users",
+                    parser -> SubgraphJson.readList(parser, AaveV3Service::readUser), List.of());
+            for (UserData user : users) {
+                if (user.id() != null) {
+                    accounts.put(user.id().toLowerCase(), toAccount(user));
+                }
+            }
+        }
+        for (String id : ids) {
+            accounts.putIfAbsent(id, new AaveAccount(null, List.of()));
+        }
+        return accounts;
+    }
+
+    private AaveAccount toAccount(UserData user) {
         List<PortfolioDTO.PositionDTO> positions = new ArrayList<>();
-        String query = buildQuery(address);
-        Map<String, Object> response = executeQuery(query);
-        Map<String, Object> user = getUser(response);
         if (user == null) {
-            return positions;
+            return new AaveAccount(null, positions);
         }
-        BigDecimal healthFactor = parseWad((String) user.getOrDefault("healthFactor", "0"));
-        String riskStatus = riskStatus(healthFactor);
-
-        List<Map<String, Object>> reserves = (List<Map<String, Object>>) user.getOrDefault("reserves", Collections.emptyList());
-        for (Map<String, Object> r : reserves) {
+        String riskStatus = riskStatus(user.healthFactor());
+        for (UserReserveData r : user.reserves()) {
             positions.addAll(mapReserve(r, riskStatus));
         }
-        return positions;
+        return new AaveAccount(user.healthFactor().toBigDecimal(), positions);
     }
 
     private String buildQuery(String address) {
         return """
-                { user(id: \"%s\") {\n"
-                + "  healthFactor\n"
-                + "  reserves: userReserves {\n"
-                + "    scaledATokenBalance\n"
-                + "    scaledVariableDebt\n"
-                + "    reserve { symbol decimals liquidityRate variableBorrowRate price { priceInUsd } }\n"
-                + "  }\n"
-                + "}}""".formatted(address.toLowerCase());
+                { user(id: "%s") {
+                  %s
+                }}""".formatted(address.toLowerCase(), USER_FIELDS);
     }
 
-    private Map<String, Object> executeQuery(String query) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        Map<String, String> body = Map.of("query", query);
-        HttpEntity<Map<String, String>> entity = new HttpEntity<>(body, headers);
-        return restTemplate.postForObject(subgraphUrl, entity, Map.class);
+    private String buildBatchQuery(List<String> ids) {
+        String idList = ids.stream().map(id -> "\"" + id + "\"").collect(Collectors.joining(","));
+        return """
+                { users(first: %d, where: { id_in: [%s] }) {
+                  id
+                  %s
+                }}""".formatted(ids.size(), idList, USER_FIELDS);
     }
 
-    private Map<String, Object> getUser(Map<String, Object> response) {
-        if (response == null) return null;
-        Map<String, Object> data = (Map<String, Object>) response.get("data");
-        if (data == null) return null;
-        return (Map<String, Object>) data.get("user");
+    private static UserData readUser(JsonParser parser) throws IOException {
+        if (!SubgraphJson.isObject(parser)) return null;
+        String id = null;
+        FixedDecimal healthFactor = NO_HEALTH_FACTOR;
+        List<UserReserveData> reserves = List.of();
+        for (String field; (field = SubgraphJson.nextField(parser)) != null; ) {
+            switch (field) {
+                case "id" -> id = SubgraphJson.text(parser);
+                case "healthFactor" -> healthFactor = parseWad(SubgraphJson.text(parser));
+                case "reserves" -> reserves = SubgraphJson.readList(parser, AaveV3Service::readUserReserve);
+                default -> parser.skipChildren();
+            }
+        }
+        return new UserData(id, healthFactor, reserves);
     }
 
-    private List<PortfolioDTO.PositionDTO> mapReserve(Map<String, Object> userReserve, String riskStatus) {
-        Map<String, Object> reserve = (Map<String, Object>) userReserve.get("reserve");
-        String symbol = (String) reserve.get("symbol");
-        int decimals = Integer.parseInt(reserve.get("decimals").toString());
-        BigDecimal priceUsd = new BigDecimal(((Map<String, Object>) reserve.get("price")).get("priceInUsd").toString());
-        BigDecimal liquidityRate = parseRay(reserve.get("liquidityRate").toString());
-        BigDecimal variableBorrowRate = parseRay(reserve.get("variableBorrowRate").toString());
+    private static UserReserveData readUserReserve(JsonParser parser) throws IOException {
+        if (!SubgraphJson.isObject(parser)) return null;
+        FixedDecimal scaledATokenBalance = FixedDecimal.ZERO;
+        FixedDecimal scaledVariableDebt = FixedDecimal.ZERO;
+        ReserveData reserve = null;
+        for (String field; (field = SubgraphJson.nextField(parser)) != null; ) {
+            switch (field) {
+                case "scaledATokenBalance" -> scaledATokenBalance = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                case "scaledVariableDebt" -> scaledVariableDebt = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                case "reserve" -> reserve = readReserve(parser);
+                default -> parser.skipChildren();
+            }
+        }
+        return reserve == null ? null : new UserReserveData(scaledATokenBalance, scaledVariableDebt, reserve);
+    }
+
+    private static ReserveData readReserve(JsonParser parser) throws IOException {
+        if (!SubgraphJson.isObject(parser)) return null;
+        String underlyingAsset = null;
+        String symbol = null;
+        int decimals = 0;
+        FixedDecimal liquidityRate = FixedDecimal.ZERO;
+        FixedDecimal variableBorrowRate = FixedDecimal.ZERO;
+        FixedDecimal priceUsd = FixedDecimal.ZERO;
+        for (String field; (field = SubgraphJson.nextField(parser)) != null; ) {
+            switch (field) {
+                case "underlyingAsset" -> underlyingAsset = SubgraphJson.text(parser);
+                case "symbol" -> symbol = SubgraphJson.text(parser);
+                case "decimals" -> decimals = Integer.parseInt(SubgraphJson.text(parser));
+                case "liquidityRate" -> liquidityRate = parseRay(SubgraphJson.text(parser));
+                case "variableBorrowRate" -> variableBorrowRate = parseRay(SubgraphJson.text(parser));
+                case "price" -> {
+                    if (SubgraphJson.isObject(parser)) {
+                        for (String priceField; (priceField = SubgraphJson.nextField(parser)) != null; ) {
+                            if (priceField.equals("priceInUsd")) {
+                                priceUsd = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return new ReserveData(underlyingAsset, symbol, decimals, liquidityRate, variableBorrowRate, priceUsd);
+    }
 
-        BigDecimal supplied = new BigDecimal(userReserve.getOrDefault("scaledATokenBalance", "0").toString())
-                .movePointLeft(decimals);
-        BigDecimal borrowed = new BigDecimal(userReserve.getOrDefault("scaledVariableDebt", "0").toString())
-                .movePointLeft(decimals);
+    private List<PortfolioDTO.PositionDTO> mapReserve(UserReserveData userReserve, String riskStatus) {
+        ReserveData reserve = userReserve.reserve();
+        String symbol = reserve.symbol();
+        FixedDecimal priceUsd = reserve.priceUsd();
+        observedPrices.publish(reserve.underlyingAsset(), "aave", priceUsd.toBigDecimal().doubleValue());
+        FixedDecimal liquidityRate = reserve.liquidityRate();
+        FixedDecimal variableBorrowRate = reserve.variableBorrowRate();
+
+        FixedDecimal supplied = userReserve.scaledATokenBalance().movePointLeft(reserve.decimals());
+        FixedDecimal borrowed = userReserve.scaledVariableDebt().movePointLeft(reserve.decimals());
 
         List<PortfolioDTO.PositionDTO> positions = new ArrayList<>();
 
-        if (supplied.compareTo(BigDecimal.ZERO) > 0) {
-            BigDecimal suppliedUsd = supplied.multiply(priceUsd);
+        if (supplied.signum() > 0) {
+            FixedDecimal suppliedUsd = supplied.multiply(priceUsd);
             positions.add(new PortfolioDTO.PositionDTO(
                     "Aave",
                     "ethereum",
                     symbol,
-                    supplied,
-                    suppliedUsd,
-                    liquidityRate,
+                    supplied.toBigDecimal(),
+                    suppliedUsd.toBigDecimal(),
+                    liquidityRate.toBigDecimal(),
                     BigDecimal.ZERO,
                     BigDecimal.ZERO,
                     riskStatus,
@@ -110,17 +223,17 @@ public class AaveV3Service {
             ));
         }
 
-        if (borrowed.compareTo(BigDecimal.ZERO) > 0) {
-            BigDecimal borrowedUsd = borrowed.multiply(priceUsd);
+        if (borrowed.signum() > 0) {
+            FixedDecimal borrowedUsd = borrowed.multiply(priceUsd);
             positions.add(new PortfolioDTO.PositionDTO(
                     "Aave",
                     "ethereum",
                     symbol,
-                    borrowed,
+                    borrowed.toBigDecimal(),
                     BigDecimal.ZERO,
                     BigDecimal.ZERO,
-                    borrowedUsd,
-                    variableBorrowRate,
+                    borrowedUsd.toBigDecimal(),
+                    variableBorrowRate.toBigDecimal(),
                     riskStatus,
                     "BORROW"
             ));
@@ -129,23 +242,37 @@ public class AaveV3Service {
         return positions;
     }
 
-    private BigDecimal parseRay(String value) {
-        if (value == null) return BigDecimal.ZERO;
-        return new BigDecimal(value).movePointLeft(27);
+    private static FixedDecimal parseRay(String value) {
+        if (value == null) return FixedDecimal.ZERO;
+        return FixedDecimal.parseUnits(value, 27);
     }
 
-    private BigDecimal parseWad(String value) {
-        if (value == null) return BigDecimal.ZERO;
-        return new BigDecimal(value).movePointLeft(18);
+    private static FixedDecimal parseWad(String value) {
+        if (value == null) return FixedDecimal.ZERO;
+        return FixedDecimal.parseUnits(value, 18);
     }
 
-    private String riskStatus(BigDecimal healthFactor) {
-        if (healthFactor.compareTo(new BigDecimal("1.1")) < 0) {
+    private String riskStatus(FixedDecimal healthFactor) {
+        if (healthFactor.compareTo(CRITICAL_HEALTH_FACTOR) < 0) {
             return "CRITICAL";
-        } else if (healthFactor.compareTo(new BigDecimal("1.3")) < 0) {
+        } else if (healthFactor.compareTo(WARN_HEALTH_FACTOR) < 0) {
             return "WARN";
         }
         return "OK";
     }
-}
 
+    /**
+     * Aave state of a wallet. The health factor is {@code null} when the wallet has
+     * never interacted with Aave.
+     */
+    public record AaveAccount(BigDecimal healthFactor, List<PortfolioDTO.PositionDTO> positions) {}
+
+    private record UserData(String id, FixedDecimal healthFactor, List<UserReserveData> reserves) {}
+
+    /** Balances are raw on-chain integers; they are scaled by the reserve decimals when mapped. */
+    private record UserReserveData(FixedDecimal scaledATokenBalance, FixedDecimal scaledVariableDebt,
+                                   ReserveData reserve) {}
+
+    private record ReserveData(String underlyingAsset, String symbol, int decimals, FixedDecimal liquidityRate,
+                               FixedDecimal variableBorrowRate, FixedDecimal priceUsd) {}
+}
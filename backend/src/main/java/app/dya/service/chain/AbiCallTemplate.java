@@ -0,0 +1,85 @@
+package app.dya.service.chain;
+
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+
+import java.util.List;
+
+/**
+ * ABI-encoded call data with one address argument left open.
+ *
+ * <p>The function is encoded once with web3j, using {@link #ACCOUNT} for the open argument;
+ * the selector and all other arguments are kept as a prefix and suffix around that word.
+ * {@link #encode(String)} then only pads the address into place, which is the same
+ * encoding without building a {@link Function} per call. Any static or dynamic arguments
+ * are allowed as long as the placeholder appears exactly once.</p>
+ */
+public final class AbiCallTemplate {
+
+    /** Placeholder for the open argument. */
+    public static final Address ACCOUNT = new Address("0x" + "f".repeat(40));
+
+    private static final int SELECTOR_CHARS = 10;
+    private static final int WORD_CHARS = 64;
+    private static final int ADDRESS_CHARS = 40;
+    private static final String PLACEHOLDER_WORD = "0".repeat(WORD_CHARS - ADDRESS_CHARS) + "f".repeat(ADDRESS_CHARS);
+
+    private final String prefix;
+    private final String suffix;
+
+    private AbiCallTemplate(String prefix, String suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * @param name   function name
+     * @param inputs function arguments, containing {@link #ACCOUNT} exactly once
+     * @throws IllegalArgumentException when the placeholder is missing or ambiguous
+     */
+    public static AbiCallTemplate precompile(String name, List<Type> inputs) {
+        String encoded = FunctionEncoder.encode(new Function(name, inputs, List.of()));
+        int slot = -1;
+        for (int i = SELECTOR_CHARS; i + WORD_CHARS <= encoded.length(); i += WORD_CHARS) {
+            if (encoded.regionMatches(i, PLACEHOLDER_WORD, 0, WORD_CHARS)) {
+                if (slot >= 0) {
+                    throw new IllegalArgumentException("ambiguous account placeholder in " + name);
+                }
+                slot = i;
+            }
+        }
+        if (slot < 0) {
+            throw new IllegalArgumentException("no account placeholder in " + name);
+        }
+        return new AbiCallTemplate(encoded.substring(0, slot + WORD_CHARS - ADDRESS_CHARS),
+                encoded.substring(slot + WORD_CHARS));
+    }
+
+    /**
+     * @param account address for the open argument, with or without {@code 0x}; shorter
+     *                addresses are left-padded like {@link Address} does
+     * @return the call data, identical to encoding the function with this account
+     * @throws IllegalArgumentException when the account is not a hex address
+     */
+    public String encode(String account) {
+        int start = account.startsWith("0x") || account.startsWith("0X") ? 2 : 0;
+        int length = account.length() - start;
+        if (length > ADDRESS_CHARS) {
+            throw new IllegalArgumentException("not an address: " + account);
+        }
+        StringBuilder data = new StringBuilder(prefix.length() + ADDRESS_CHARS + suffix.length()).append(prefix);
+        for (int i = length; i < ADDRESS_CHARS; i++) {
+            data.append('0');
+        }
+        for (int i = start; i < account.length(); i++) {
+            char c = Character.toLowerCase(account.charAt(i));
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                throw new IllegalArgumentException("not an address: " + account);
+            }
+            data.append(c);
+        }
+        return data.append(suffix).toString();
+    }
+}
@@ -0,0 +1,109 @@
+package app.dya.service.chain;
+
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code eth_call}s pinned to the tracked head block and cached by
+ * (from, to, call data, block).
+ *
+ * <p>A repeated call within the same block is answered from the cache, and concurrent
+ * identical calls share one request. Entries of older blocks are dropped as soon as the
+ * head advances. Failed calls and RPC errors are not cached. Until the first head is
+ * known, calls go to {@code latest} uncached.</p>
+ */
+public class BlockPinnedCallCache {
+
+    private final EthCallBatcher rpc;
+    private final BlockTracker blocks;
+    private final int maxEntries;
+    private final ConcurrentHashMap<CallKey, CompletableFuture<EthCall>> calls = new ConcurrentHashMap<>();
+
+    public BlockPinnedCallCache(EthCallBatcher rpc, BlockTracker blocks, int maxEntries) {
+        this.rpc = rpc;
+        this.blocks = blocks;
+        this.maxEntries = maxEntries;
+        blocks.onAdvance(this::evictBefore);
+    }
+
+    public CompletableFuture<EthCall> call(Transaction transaction) {
+        return callAll(List.of(transaction)).get(0);
+    }
+
+    /**
+     * @return one future per transaction, in the same order
+     */
+    public List<CompletableFuture<EthCall>> callAll(List<Transaction> transactions) {
+        long block = blocks.head();
+        if (block < 0) {
+            return rpc.callAll(transactions, DefaultBlockParameterName.LATEST);
+        }
+
+        List<CompletableFuture<EthCall>> results = new ArrayList<>(transactions.size());
+        List<Transaction> misses = new ArrayList<>();
+        List<CallKey> missKeys = new ArrayList<>();
+        List<CompletableFuture<EthCall>> missResults = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            CallKey key = CallKey.of(transaction, block);
+            CompletableFuture<EthCall> result = new CompletableFuture<>();
+            CompletableFuture<EthCall> cached = calls.size() < maxEntries ? calls.putIfAbsent(key, result) : null;
+            if (cached != null) {
+                results.add(cached);
+                continue;
+            }
+            results.add(result);
+            misses.add(transaction);
+            missKeys.add(key);
+            missResults.add(result);
+        }
+        if (misses.isEmpty()) {
+            return results;
+        }
+
+        List<CompletableFuture<EthCall>> sent = rpc.callAll(misses, DefaultBlockParameter.valueOf(BigInteger.valueOf(block)));
+        for (int i = 0; i < sent.size(); i++) {
+            CallKey key = missKeys.get(i);
+            CompletableFuture<EthCall> result = missResults.get(i);
+            sent.get(i).whenComplete((response, error) -> {
+                if (error != null || response.hasError()) {
+                    calls.remove(key, result);
+                }
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response);
+                }
+            });
+        }
+        return results;
+    }
+
+    int size() {
+        return calls.size();
+    }
+
+    private void evictBefore(long head) {
+        calls.keySet().removeIf(key -> key.block() < head);
+    }
+
+    private record CallKey(String from, String to, String data, long block) {
+        static CallKey of(Transaction transaction, long block) {
+            return new CallKey(lower(transaction.getFrom()), lower(transaction.getTo()),
+                    Objects.requireNonNullElse(transaction.getData(), ""), block);
+        }
+
+        private static String lower(String address) {
+            return address == null ? "" : address.toLowerCase(Locale.ROOT);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package app.dya.service.chain;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Process-wide view of the chain head. On-chain reads are pinned to {@link #head()} so
+ * that every read within one block sees the same state and can be cached.
+ *
+ * <p>Heads are pushed by a {@link NewHeadsSubscription} when one is connected; while no
+ * head has been pushed for {@code pushTimeout}, {@code eth_blockNumber} is polled instead.
+ * The head only moves forward; listeners registered with {@link #onAdvance} are told
+ * about every new head.</p>
+ */
+public class BlockTracker {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BlockTracker.class);
+
+    private final Web3j web3j;
+    private final AtomicLong head = new AtomicLong(-1);
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+    private final long pushTimeoutNanos;
+    private volatile long lastPushNanos;
+    private volatile boolean pushed;
+
+    /**
+     * @param web3j       RPC used for polling
+     * @param pushTimeout how long polling is paused after a pushed head
+     */
+    public BlockTracker(Web3j web3j, Duration pushTimeout) {
+        this.web3j = web3j;
+        this.pushTimeoutNanos = pushTimeout.toNanos();
+    }
+
+    /**
+     * @return the latest known block number, or {@code -1} before the first head is known
+     */
+    public long head() {
+        return head.get();
+    }
+
+    /**
+     * Polls {@code eth_blockNumber} unless a head was pushed within the push timeout.
+     */
+    @Scheduled(fixedDelayString = "${app.chains.ethereum.blockPollMillis:4000}")
+    public void poll() {
+        if (pushed && System.nanoTime() - lastPushNanos < pushTimeoutNanos) {
+            return;
+        }
+        refresh();
+    }
+
+    /**
+     * Polls {@code eth_blockNumber}. Failures keep the previous head.
+     *
+     * @return the head after polling
+     */
+    public long refresh() {
+        try {
+            EthBlockNumber response = web3j.ethBlockNumber().send();
+            if (response.hasError()) {
+                log.warn("eth_blockNumber failed: {}", response.getError().getMessage());
+            } else {
+                advanceTo(response.getBlockNumber().longValueExact());
+            }
+        } catch (Exception e) {
+            log.warn("eth_blockNumber failed: {}", e.getMessage());
+        }
+        return head.get();
+    }
+
+    /**
+     * Records a head received from a subscription, pausing polling.
+     */
+    public void push(long block) {
+        lastPushNanos = System.nanoTime();
+        pushed = true;
+        advanceTo(block);
+    }
+
+    /**
+     * Moves the head forward; older or equal block numbers are ignored.
+     *
+     * @return whether the head advanced
+     */
+    public boolean advanceTo(long block) {
+        long current;
+        do {
+            current = head.get();
+            if (block <= current) {
+                return false;
+            }
+        } while (!head.compareAndSet(current, block));
+        for (LongConsumer listener : listeners) {
+            try {
+                listener.accept(block);
+            } catch (RuntimeException e) {
+                log.warn("New head listener failed for block {}", block, e);
+            }
+        }
+        return true;
+    }
+
+    public void onAdvance(LongConsumer listener) {
+        listeners.add(listener);
+    }
+}
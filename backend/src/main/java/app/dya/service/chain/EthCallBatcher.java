@@ -0,0 +1,159 @@
+package app.dya.service.chain;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent {@code eth_call}s into JSON-RPC batch requests.
+ *
+ * <p>Calls are queued for at most {@code maxWait} after the first call of a batch, or
+ * until {@code maxBatchSize} calls are queued, and then sent as one JSON-RPC array. Each
+ * caller gets its own {@link EthCall} back; an RPC error on one call only fails that
+ * call, while a transport failure fails the whole batch.</p>
+ */
+public class EthCallBatcher implements AutoCloseable {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(EthCallBatcher.class);
+
+    private final Web3j web3j;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Object lock = new Object();
+    private List<PendingCall> queue = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public EthCallBatcher(Web3j web3j, int maxBatchSize, Duration maxWait) {
+        this.web3j = web3j;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitNanos = Math.max(0, maxWait.toNanos());
+        this.timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("eth-call-batcher")
+                .daemon()
+                .factory());
+    }
+
+    /**
+     * Queue one {@code eth_call}.
+     *
+     * @return future completed with the node's response, or exceptionally with an
+     * {@link IOException} when the batch request fails
+     */
+    public CompletableFuture<EthCall> call(Transaction transaction, DefaultBlockParameter block) {
+        return callAll(List.of(transaction), block).get(0);
+    }
+
+    /**
+     * Queue several {@code eth_call}s at once, so they end up in the same batch whenever
+     * the size cap allows.
+     *
+     * @return one future per transaction, in the same order
+     */
+    public List<CompletableFuture<EthCall>> callAll(List<Transaction> transactions, DefaultBlockParameter block) {
+        List<CompletableFuture<EthCall>> results = new ArrayList<>(transactions.size());
+        List<List<PendingCall>> full = new ArrayList<>();
+        synchronized (lock) {
+            for (Transaction transaction : transactions) {
+                PendingCall call = new PendingCall(web3j.ethCall(transaction, block), new CompletableFuture<>());
+                results.add(call.result());
+                queue.add(call);
+                if (queue.size() >= maxBatchSize) {
+                    full.add(drain());
+                }
+            }
+            if (!queue.isEmpty() && scheduledFlush == null) {
+                scheduledFlush = timer.schedule(this::flush, maxWaitNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        for (List<PendingCall> batch : full) {
+            sender.execute(() -> send(batch));
+        }
+        return results;
+    }
+
+    private void flush() {
+        List<PendingCall> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            sender.execute(() -> send(batch));
+        }
+    }
+
+    /** Takes the queued calls; callers hold {@link #lock}. */
+    private List<PendingCall> drain() {
+        List<PendingCall> batch = queue;
+        queue = new ArrayList<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void send(List<PendingCall> batch) {
+        try {
+            if (batch.size() == 1) {
+                PendingCall call = batch.get(0);
+                call.result().complete(call.request().send());
+                return;
+            }
+            BatchRequest request = web3j.newBatch();
+            Map<Long, PendingCall> byId = new HashMap<>();
+            for (PendingCall call : batch) {
+                request.add(call.request());
+                byId.put(call.request().getId(), call);
+            }
+            List<? extends Response<?>> responses = request.send().getResponses();
+            log.debug("Sent {} eth_calls in one batch", batch.size());
+            for (int i = 0; i < responses.size(); i++) {
+                Response<?> response = responses.get(i);
+                PendingCall call = byId.remove(response.getId());
+                if (call == null && i < batch.size()) {
+                    call = byId.remove(batch.get(i).request().getId());
+                }
+                if (call != null) {
+                    call.result().complete((EthCall) response);
+                }
+            }
+            for (PendingCall missing : byId.values()) {
+                missing.result().completeExceptionally(new IOException("no response for eth_call in batch"));
+            }
+        } catch (Exception e) {
+            IOException failure = e instanceof IOException io ? io : new IOException("eth_call batch failed", e);
+            for (PendingCall call : batch) {
+                call.result().completeExceptionally(failure);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        timer.shutdownNow();
+        sender.shutdown();
+    }
+
+    private record PendingCall(Request<?, EthCall> request, CompletableFuture<EthCall> result) {}
+}
@@ -0,0 +1,116 @@
+package app.dya.service.chain;
+
+import io.reactivex.disposables.Disposable;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.websocket.WebSocketService;
+import org.web3j.utils.Numeric;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional {@code eth_subscribe("newHeads")} subscription pushing every new block to the
+ * {@link BlockTracker}.
+ *
+ * <p>Lost connections and rejected subscriptions are retried with exponential backoff
+ * between {@code minBackoff} and {@code maxBackoff}. While disconnected the tracker falls
+ * back to polling {@code eth_blockNumber}. Connecting and all state changes run on one
+ * scheduler thread.</p>
+ */
+public class NewHeadsSubscription implements AutoCloseable {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NewHeadsSubscription.class);
+
+    private final String wsUrl;
+    private final BlockTracker blocks;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "new-heads");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private WebSocketService service;
+    private Disposable subscription;
+    private int failures;
+    private volatile boolean connected;
+    private volatile boolean closed;
+
+    public NewHeadsSubscription(String wsUrl, BlockTracker blocks, Duration minBackoff, Duration maxBackoff) {
+        this.wsUrl = wsUrl;
+        this.blocks = blocks;
+        this.minBackoffMillis = Math.max(1, minBackoff.toMillis());
+        this.maxBackoffMillis = Math.max(minBackoffMillis, maxBackoff.toMillis());
+    }
+
+    /**
+     * Connects in the background. Does nothing without a WebSocket URL.
+     */
+    public void start() {
+        if (wsUrl == null || wsUrl.isBlank()) {
+            log.info("No WebSocket RPC configured; polling eth_blockNumber for new heads");
+            return;
+        }
+        scheduler.execute(this::connect);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    private void connect() {
+        if (closed) return;
+        WebSocketService ws = new WebSocketService(wsUrl, false);
+        service = ws;
+        try {
+            ws.connect();
+            subscription = Web3j.build(ws).newHeadsNotifications().subscribe(
+                    head -> onHead(head.getParams().getResult().getNumber()),
+                    error -> scheduler.execute(() -> disconnected(ws, error)),
+                    () -> scheduler.execute(() -> disconnected(ws, null)));
+            connected = true;
+            failures = 0;
+            log.info("Subscribed to newHeads on {}", wsUrl);
+        } catch (Exception e) {
+            disconnected(ws, e);
+        }
+    }
+
+    private void onHead(String number) {
+        try {
+            blocks.push(Numeric.toBigInt(number).longValueExact());
+        } catch (RuntimeException e) {
+            log.warn("Ignoring malformed new head {}", number);
+        }
+    }
+
+    private void disconnected(WebSocketService ws, Throwable error) {
+        if (ws != service) return;
+        connected = false;
+        if (subscription != null) {
+            subscription.dispose();
+            subscription = null;
+        }
+        ws.close();
+        service = null;
+        if (closed) return;
+        long delay = Math.min(maxBackoffMillis, minBackoffMillis << Math.min(failures++, 20));
+        log.warn("newHeads subscription lost ({}); reconnecting in {} ms",
+                error == null ? "closed" : error.getMessage(), delay);
+        scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.execute(() -> {
+            if (service != null) {
+                disconnected(service, null);
+            }
+        });
+        scheduler.shutdown();
+    }
+}
@@ -1,34 +1,53 @@
 package app.dya.service.compound;
 
+import app.dya.service.chain.AbiCallTemplate;
+import app.dya.service.chain.BlockPinnedCallCache;
 import org.web3j.abi.FunctionEncoder;
-import org.web3j.abi.FunctionReturnDecoder;
-import org.web3j.abi.TypeReference;
 import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
 import org.web3j.abi.datatypes.Function;
-import org.web3j.abi.datatypes.Type;
-import org.web3j.abi.datatypes.generated.Uint256;
-import org.web3j.protocol.Web3j;
-import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.methods.request.Transaction;
 import org.web3j.protocol.core.methods.response.EthCall;
+import org.web3j.utils.Numeric;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.math.BigInteger;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Minimal client for interacting with the Compound Lens contract.
  * Only the fields required by the application are exposed.
+ *
+ * <p>Per-account calls are encoded from {@link AbiCallTemplate}s precompiled once per
+ * market (list), and every response is decoded straight from the returned hex.</p>
  */
 public class CompoundLensClient {
 
     private static final String LENS_ADDRESS = "0xd513d22422a3062Bd342Ae374b4b9c20E0a9a074";
+    private static final int WORD_CHARS = 64;
+    private static final int BALANCES_WORDS = 6;
+    private static final int METADATA_MIN_WORDS = 14;
+    private static final int PRICE_WORDS = 2;
+    private static final String ZERO_WORD = "0".repeat(WORD_CHARS);
 
-    private final Web3j web3j;
+    private final BlockPinnedCallCache rpc;
+    private final Map<String, AbiCallTemplate> balancesCalls = new ConcurrentHashMap<>();
+    private final Map<List<String>, AbiCallTemplate> balancesAllCalls = new ConcurrentHashMap<>();
 
-    public CompoundLensClient(Web3j web3j) {
-        this.web3j = web3j;
+    /**
+     * @param rpc block-pinned, cached and batched {@code eth_call} access
+     */
+    public CompoundLensClient(BlockPinnedCallCache rpc) {
+        this.rpc = rpc;
     }
 
     /**
@@ -40,30 +59,214 @@ public class CompoundLensClient {
      * @throws IOException on RPC or decoding failure
      */
     public CTokenBalance getBalance(String cTokenAddress, String account) throws IOException {
-        Function function = new Function(
-                "cTokenBalances",
-                Arrays.asList(new Address(cTokenAddress), new Address(account)),
-                Arrays.asList(
-                        new TypeReference<Address>() {},
-                        new TypeReference<Uint256>() {},
-                        new TypeReference<Uint256>() {},
-                        new TypeReference<Uint256>() {},
-                        new TypeReference<Uint256>() {},
-                        new TypeReference<Uint256>() {}
-                )
-        );
-
-        String encodedFunction = FunctionEncoder.encode(function);
-        Transaction tx = Transaction.createEthCallTransaction(account, LENS_ADDRESS, encodedFunction);
-        EthCall response = web3j.ethCall(tx, DefaultBlockParameterName.LATEST).send();
+        Transaction tx = Transaction.createEthCallTransaction(account, LENS_ADDRESS, balancesCall(cTokenAddress).encode(account));
+        return decodeBalance(await(rpc.call(tx)));
+    }
+
+    /**
+     * Fetch supply and borrow balances of every given cToken for one account with a
+     * single {@code cTokenBalancesAll} call.
+     *
+     * @param cTokenAddresses addresses of the cToken contracts
+     * @param account wallet address
+     * @return balances in the order of {@code cTokenAddresses}
+     * @throws IOException on RPC or decoding failure
+     */
+    public List<CTokenBalance> getBalancesAll(List<String> cTokenAddresses, String account) throws IOException {
+        if (cTokenAddresses.isEmpty()) {
+            return List.of();
+        }
+        Transaction tx = Transaction.createEthCallTransaction(account, LENS_ADDRESS,
+                balancesAllCall(cTokenAddresses).encode(account));
+        return decodeBalancesAll(await(rpc.call(tx)), cTokenAddresses.size());
+    }
+
+    /**
+     * Fetch supply and borrow balances of every given cToken for several accounts
+     * with one {@code cTokenBalancesAll} call per account, queued together so they
+     * share JSON-RPC batch requests.
+     *
+     * @param cTokenAddresses addresses of the cToken contracts
+     * @param accounts wallet addresses
+     * @return balances per account, in the order of {@code cTokenAddresses}
+     * @throws IOException on RPC or decoding failure
+     */
+    public Map<String, List<CTokenBalance>> getBalances(List<String> cTokenAddresses, Collection<String> accounts)
+            throws IOException {
+        List<String> accountList = List.copyOf(accounts);
+        if (accountList.isEmpty() || cTokenAddresses.isEmpty()) {
+            return Map.of();
+        }
+        AbiCallTemplate template = balancesAllCall(cTokenAddresses);
+        List<Transaction> calls = new ArrayList<>(accountList.size());
+        for (String account : accountList) {
+            calls.add(Transaction.createEthCallTransaction(account, LENS_ADDRESS, template.encode(account)));
+        }
+
+        List<CompletableFuture<EthCall>> responses = rpc.callAll(calls);
+        Map<String, List<CTokenBalance>> balances = new LinkedHashMap<>();
+        for (int i = 0; i < accountList.size(); i++) {
+            balances.put(accountList.get(i), decodeBalancesAll(await(responses.get(i)), cTokenAddresses.size()));
+        }
+        return balances;
+    }
+
+    /**
+     * Fetch rates and underlying prices of every given cToken with one
+     * {@code cTokenMetadataAll} and one {@code cTokenUnderlyingPriceAll} call, sent in the
+     * same JSON-RPC batch.
+     *
+     * @param cTokenAddresses addresses of the cToken contracts
+     * @return market data in the order of {@code cTokenAddresses}
+     * @throws IOException on RPC or decoding failure
+     */
+    public List<CTokenMarket> getMarketsAll(List<String> cTokenAddresses) throws IOException {
+        if (cTokenAddresses.isEmpty()) {
+            return List.of();
+        }
+        DynamicArray<Address> cTokens = new DynamicArray<>(Address.class,
+                cTokenAddresses.stream().map(Address::new).toList());
+        List<CompletableFuture<EthCall>> responses = rpc.callAll(List.of(
+                lensCall(new Function("cTokenMetadataAll", List.of(cTokens), List.of())),
+                lensCall(new Function("cTokenUnderlyingPriceAll", List.of(cTokens), List.of()))));
+        return decodeMarketsAll(await(responses.get(0)), await(responses.get(1)), cTokenAddresses.size());
+    }
+
+    private static Transaction lensCall(Function function) {
+        return Transaction.createEthCallTransaction(null, LENS_ADDRESS, FunctionEncoder.encode(function));
+    }
+
+    private static EthCall await(CompletableFuture<EthCall> call) throws IOException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            call.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for eth_call");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private AbiCallTemplate balancesCall(String cTokenAddress) {
+        return balancesCalls.computeIfAbsent(cTokenAddress.toLowerCase(Locale.ROOT), cToken ->
+                AbiCallTemplate.precompile("cTokenBalances", List.of(new Address(cToken), AbiCallTemplate.ACCOUNT)));
+    }
+
+    private AbiCallTemplate balancesAllCall(List<String> cTokenAddresses) {
+        return balancesAllCalls.computeIfAbsent(List.copyOf(cTokenAddresses), cTokens ->
+                AbiCallTemplate.precompile("cTokenBalancesAll", List.of(
+                        new DynamicArray<>(Address.class, cTokens.stream().map(Address::new).toList()),
+                        AbiCallTemplate.ACCOUNT)));
+    }
+
+    /**
+     * Decodes the returned {@code CTokenBalances} tuple: cToken, balanceOf,
+     * borrowBalanceCurrent, balanceOfUnderlying, tokenBalance, tokenAllowance.
+     */
+    static CTokenBalance decodeBalance(EthCall response) throws IOException {
         if (response == null || response.hasError()) {
             throw new IOException(response != null ? response.getError().getMessage() : "null response");
         }
+        String hex = Numeric.cleanHexPrefix(response.getValue() == null ? "" : response.getValue());
+        if (hex.length() < BALANCES_WORDS * WORD_CHARS) {
+            throw new IOException("truncated cTokenBalances response");
+        }
+        return new CTokenBalance(word(hex, 3 * WORD_CHARS, "cTokenBalances"), word(hex, 2 * WORD_CHARS, "cTokenBalances"));
+    }
+
+    /**
+     * Decodes the returned {@code CTokenBalances[]}: six words per struct (cToken,
+     * balanceOf, borrowBalanceCurrent, balanceOfUnderlying, tokenBalance, tokenAllowance).
+     */
+    private List<CTokenBalance> decodeBalancesAll(EthCall response, int expected) throws IOException {
+        StructArray structs = StructArray.decode(response, expected, BALANCES_WORDS, "cTokenBalancesAll");
+        List<CTokenBalance> balances = new ArrayList<>(expected);
+        for (int i = 0; i < expected; i++) {
+            balances.add(new CTokenBalance(structs.word(i, 3), structs.word(i, 2)));
+        }
+        return balances;
+    }
 
-        List<Type> values = FunctionReturnDecoder.decode(response.getValue(), function.getOutputParameters());
-        BigInteger borrow = ((Uint256) values.get(2)).getValue();
-        BigInteger supply = ((Uint256) values.get(3)).getValue();
-        return new CTokenBalance(supply, borrow);
+    /**
+     * Decodes {@code CTokenMetadata[]} and {@code CTokenUnderlyingPrice[]}. The metadata
+     * struct grew over Lens versions, so its width is derived from the response; the fields
+     * read here (supplyRatePerBlock, borrowRatePerBlock, underlyingDecimals) are at the same
+     * position in every version.
+     */
+    private List<CTokenMarket> decodeMarketsAll(EthCall metadataResponse, EthCall pricesResponse, int expected)
+            throws IOException {
+        StructArray metadata = StructArray.decode(metadataResponse, expected, METADATA_MIN_WORDS, "cTokenMetadataAll");
+        StructArray prices = StructArray.decode(pricesResponse, expected, PRICE_WORDS, "cTokenUnderlyingPriceAll");
+        List<CTokenMarket> markets = new ArrayList<>(expected);
+        for (int i = 0; i < expected; i++) {
+            BigInteger decimals = metadata.word(i, 13);
+            if (decimals.bitLength() > 8) {
+                throw new IOException("malformed cTokenMetadataAll response");
+            }
+            markets.add(new CTokenMarket(metadata.word(i, 2), metadata.word(i, 3), decimals.intValue(), prices.word(i, 1)));
+        }
+        return markets;
+    }
+
+    /**
+     * A returned array of static structs: an offset word, the array length and then
+     * {@code structWords} words per element, at least {@code minWords}. Decoded by hand because web3j 4.10 repeats
+     * the first element when decoding dynamic arrays of static structs.
+     */
+    private record StructArray(String hex, String method, int first, int structWords) {
+
+        static StructArray decode(EthCall response, int expected, int minWords, String method) throws IOException {
+            if (response == null || response.hasError()) {
+                throw new IOException(response != null ? response.getError().getMessage() : "null response");
+            }
+            String hex = Numeric.cleanHexPrefix(response.getValue() == null ? "" : response.getValue());
+            int arrayStart = lengthWord(hex, 0, method) * 2;
+            int length = lengthWord(hex, arrayStart, method);
+            if (length != expected) {
+                throw new IOException("expected " + expected + " " + method + " results but got " + length);
+            }
+            int first = arrayStart + WORD_CHARS;
+            int structWords = length == 0 ? minWords : (hex.length() - first) / WORD_CHARS / length;
+            if (structWords < minWords || first + length * structWords * WORD_CHARS > hex.length()) {
+                throw new IOException("truncated " + method + " response");
+            }
+            return new StructArray(hex, method, first, structWords);
+        }
+
+        BigInteger word(int index, int field) throws IOException {
+            return CompoundLensClient.word(hex, first + (index * structWords + field) * WORD_CHARS, method);
+        }
+    }
+
+    /**
+     * Reads one uint256 word. Values below 2^60, which covers practically every balance and
+     * rate, are parsed in place without copying the hex.
+     */
+    private static BigInteger word(String hex, int start, String method) throws IOException {
+        if (start < 0 || start + WORD_CHARS > hex.length()) {
+            throw new IOException("truncated " + method + " response");
+        }
+        try {
+            int small = start + WORD_CHARS - 15;
+            if (hex.regionMatches(start, ZERO_WORD, 0, small - start)) {
+                return BigInteger.valueOf(Long.parseLong(hex, small, start + WORD_CHARS, 16));
+            }
+            return new BigInteger(hex.substring(start, start + WORD_CHARS), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed " + method + " response", e);
+        }
+    }
+
+    private static int lengthWord(String hex, int start, String method) throws IOException {
+        BigInteger value = word(hex, start, method);
+        if (value.bitLength() > 24) {
+            throw new IOException("malformed " + method + " response");
+        }
+        return value.intValue();
     }
 
     /**
@@ -72,4 +275,13 @@ public class CompoundLensClient {
      * {@code borrowBalanceCurrent}.
      */
     public record CTokenBalance(BigInteger supply, BigInteger borrow) {}
+
+    /**
+     * Raw market data of one cToken: rates per block scaled by 1e18 and the oracle price
+     * of one underlying unit scaled by {@code 1e(36 - underlyingDecimals)}.
+     */
+    public record CTokenMarket(BigInteger supplyRatePerBlock,
+                               BigInteger borrowRatePerBlock,
+                               int underlyingDecimals,
+                               BigInteger underlyingPrice) {}
 }
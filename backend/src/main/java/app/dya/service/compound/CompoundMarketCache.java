@@ -0,0 +1,90 @@
+package app.dya.service.compound;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rates and prices of the tracked Compound markets, shared by every position lookup.
+ *
+ * <p>Markets are read in bulk by {@link #refresh()}, which callers trigger once per block
+ * or interval; lookups only read the last loaded markets and never call the RPC. A failed
+ * refresh keeps the previous markets.</p>
+ */
+public class CompoundMarketCache {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CompoundMarketCache.class);
+
+    /** 12 second blocks since the merge. */
+    static final BigDecimal BLOCKS_PER_YEAR = BigDecimal.valueOf(7200L * 365);
+
+    private final CompoundLensClient lensClient;
+    private final List<String> cTokenAddresses;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile Map<String, Market> markets = Map.of();
+
+    public CompoundMarketCache(CompoundLensClient lensClient, List<String> cTokenAddresses) {
+        this.lensClient = lensClient;
+        this.cTokenAddresses = List.copyOf(cTokenAddresses);
+    }
+
+    /**
+     * @return the market of the cToken, or {@code null} before it was loaded
+     */
+    public Market market(String cTokenAddress) {
+        return markets.get(cTokenAddress.toLowerCase(Locale.ROOT));
+    }
+
+    /** Set the market of one cToken, for tests and benchmarks that do not load markets over RPC. */
+    void put(String cTokenAddress, Market market) {
+        Map<String, Market> next = new HashMap<>(markets);
+        next.put(cTokenAddress.toLowerCase(Locale.ROOT), market);
+        markets = Map.copyOf(next);
+    }
+
+    /** Reload all markets unless a reload is already running. */
+    public void refresh() {
+        if (!refreshing.compareAndSet(false, true)) return;
+        try {
+            List<CompoundLensClient.CTokenMarket> loaded = lensClient.getMarketsAll(cTokenAddresses);
+            Map<String, Market> next = new HashMap<>();
+            for (int i = 0; i < loaded.size(); i++) {
+                next.put(cTokenAddresses.get(i).toLowerCase(Locale.ROOT), Market.of(loaded.get(i)));
+            }
+            markets = Map.copyOf(next);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Refreshing Compound markets failed: {}", e.toString());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /** {@link #refresh()} on a virtual thread. */
+    public void refreshAsync() {
+        if (refreshing.get()) return;
+        Thread.ofVirtual().name("compound-markets").start(this::refresh);
+    }
+
+    /**
+     * @param supplyApr deposit APR as decimal
+     * @param borrowApr borrow APR as decimal
+     * @param priceUsd  USD price of one underlying token
+     */
+    public record Market(BigDecimal supplyApr, BigDecimal borrowApr, BigDecimal priceUsd) {
+
+        static Market of(CompoundLensClient.CTokenMarket market) {
+            return new Market(
+                    perYear(market.supplyRatePerBlock().toString()),
+                    perYear(market.borrowRatePerBlock().toString()),
+                    new BigDecimal(market.underlyingPrice()).movePointLeft(36 - market.underlyingDecimals()));
+        }
+
+        private static BigDecimal perYear(String ratePerBlock) {
+            return new BigDecimal(ratePerBlock).movePointLeft(18).multiply(BLOCKS_PER_YEAR);
+        }
+    }
+}
@@ -1,42 +1,45 @@
 package app.dya.service.compound;
 
 import app.dya.api.dto.PortfolioDTO;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import app.dya.service.chain.BlockTracker;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.web3j.protocol.Web3j;
-import org.web3j.protocol.http.HttpService;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service responsible for fetching positions from the Compound v2 protocol via on-chain calls.
+ *
+ * <p>Balances are read per request; rates and prices come from a shared
+ * {@link CompoundMarketCache} refreshed on every new head and every
+ * {@code app.compound.markets.refreshMillis}.</p>
  */
 @Service
 public class CompoundV2Service {
 
     private final CompoundLensClient lensClient;
     private final List<TokenMetadata> tokens;
+    private final CompoundMarketCache markets;
 
-    @Autowired
-    public CompoundV2Service(@Value("${app.chains.ethereum.rpcUrl:}") String rpcUrl,
-                             @Value("${app.chains.ethereum.infuraApiKey:}") String infuraApiKey) {
-        if (rpcUrl == null || rpcUrl.isBlank()) {
-            rpcUrl = String.format("https://mainnet.infura.io/v3/%s", infuraApiKey);
-        }
-        Web3j web3j = Web3j.build(new HttpService(rpcUrl));
-        this.lensClient = new CompoundLensClient(web3j);
+    public CompoundV2Service(CompoundLensClient lensClient, BlockTracker blockTracker) {
+        this.lensClient = lensClient;
         this.tokens = defaultTokens();
+        this.markets = new CompoundMarketCache(lensClient, cTokenAddresses());
+        blockTracker.onAdvance(block -> markets.refreshAsync());
     }
 
-    // package-private for tests
-    CompoundV2Service(CompoundLensClient lensClient) {
-        this.lensClient = lensClient;
-        this.tokens = defaultTokens();
+    @Scheduled(fixedDelayString = "${app.compound.markets.refreshMillis:60000}")
+    public void refreshMarkets() {
+        markets.refresh();
     }
 
     private List<TokenMetadata> defaultTokens() {
@@ -51,6 +54,8 @@ public class CompoundV2Service {
      *
      * @param address wallet address
      * @return list of positions held on Compound v2
+     * @throws UncheckedIOException when the RPC request fails
+     * @throws IllegalStateException when the wallet holds a market whose data is not loaded yet
      */
     public List<PortfolioDTO.PositionDTO> getPositions(String address) {
         List<PortfolioDTO.PositionDTO> positions = new ArrayList<>();
@@ -59,48 +64,104 @@ public class CompoundV2Service {
         }
 
         try {
-            for (TokenMetadata token : tokens) {
-                CompoundLensClient.CTokenBalance balance = lensClient.getBalance(token.cTokenAddress, address);
-                BigDecimal supply = toDecimal(balance.supply(), token.decimals);
-                BigDecimal borrow = toDecimal(balance.borrow(), token.decimals);
-
-                if (supply.compareTo(BigDecimal.ZERO) > 0) {
-                    positions.add(new PortfolioDTO.PositionDTO(
-                            "Compound",
-                            "ethereum",
-                            token.symbol,
-                            supply,
-                            BigDecimal.ZERO,
-                            BigDecimal.ZERO,
-                            BigDecimal.ZERO,
-                            BigDecimal.ZERO,
-                            "OK",
-                            "DEPOSIT"
-                    ));
-                }
-
-                if (borrow.compareTo(BigDecimal.ZERO) > 0) {
-                    positions.add(new PortfolioDTO.PositionDTO(
-                            "Compound",
-                            "ethereum",
-                            token.symbol,
-                            BigDecimal.ZERO,
-                            BigDecimal.ZERO,
-                            BigDecimal.ZERO,
-                            borrow,
-                            BigDecimal.ZERO,
-                            "OK",
-                            "BORROW"
-                    ));
-                }
+            List<CompoundLensClient.CTokenBalance> balances = lensClient.getBalancesAll(cTokenAddresses(), address);
+            for (int i = 0; i < balances.size(); i++) {
+                addPositions(positions, tokens.get(i), balances.get(i));
             }
-        } catch (Exception e) {
-            return positions;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
 
         return positions;
     }
 
+    /**
+     * Retrieve Compound v2 positions for several wallets with a single batched RPC request.
+     *
+     * @param addresses wallet addresses
+     * @return positions keyed by lower-case address; every requested wallet is present
+     * @throws UncheckedIOException when the batched RPC request fails
+     * @throws IllegalStateException when a wallet holds a market whose data is not loaded yet
+     */
+    public Map<String, List<PortfolioDTO.PositionDTO>> getPositionsByAccount(Collection<String> addresses) {
+        List<String> accounts = addresses.stream()
+                .filter(a -> a != null && !a.isBlank())
+                .map(String::toLowerCase)
+                .distinct()
+                .toList();
+        Map<String, List<CompoundLensClient.CTokenBalance>> balances;
+        try {
+            balances = lensClient.getBalances(cTokenAddresses(), accounts);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Map<String, List<PortfolioDTO.PositionDTO>> positions = new HashMap<>();
+        for (String account : accounts) {
+            List<PortfolioDTO.PositionDTO> accountPositions = new ArrayList<>();
+            List<CompoundLensClient.CTokenBalance> accountBalances = balances.getOrDefault(account, List.of());
+            for (int i = 0; i < accountBalances.size(); i++) {
+                addPositions(accountPositions, tokens.get(i), accountBalances.get(i));
+            }
+            positions.put(account, accountPositions);
+        }
+        return positions;
+    }
+
+    /** The shared market data, for tests and benchmarks that preload it. */
+    CompoundMarketCache markets() {
+        return markets;
+    }
+
+    private List<String> cTokenAddresses() {
+        return tokens.stream().map(TokenMetadata::cTokenAddress).toList();
+    }
+
+    private void addPositions(List<PortfolioDTO.PositionDTO> positions,
+                              TokenMetadata token,
+                              CompoundLensClient.CTokenBalance balance) {
+        BigDecimal supply = toDecimal(balance.supply(), token.decimals);
+        BigDecimal borrow = toDecimal(balance.borrow(), token.decimals);
+        if (supply.signum() == 0 && borrow.signum() == 0) return;
+        CompoundMarketCache.Market market = markets.market(token.cTokenAddress);
+        if (market == null) {
+            // without rates and prices the positions would be served, and cached, as worth nothing
+            markets.refreshAsync();
+            throw new IllegalStateException("Compound market data for " + token.symbol + " is not loaded yet");
+        }
+        BigDecimal priceUsd = market.priceUsd();
+
+        if (supply.compareTo(BigDecimal.ZERO) > 0) {
+            positions.add(new PortfolioDTO.PositionDTO(
+                    "Compound",
+                    "ethereum",
+                    token.symbol,
+                    supply,
+                    supply.multiply(priceUsd),
+                    market.supplyApr(),
+                    BigDecimal.ZERO,
+                    BigDecimal.ZERO,
+                    "OK",
+                    "DEPOSIT"
+            ));
+        }
+
+        if (borrow.compareTo(BigDecimal.ZERO) > 0) {
+            positions.add(new PortfolioDTO.PositionDTO(
+                    "Compound",
+                    "ethereum",
+                    token.symbol,
+                    borrow,
+                    BigDecimal.ZERO,
+                    BigDecimal.ZERO,
+                    borrow.multiply(priceUsd),
+                    market.borrowApr(),
+                    "OK",
+                    "BORROW"
+            ));
+        }
+    }
+
     private BigDecimal toDecimal(BigInteger value, int decimals) {
         if (value == null) return BigDecimal.ZERO;
         return new BigDecimal(value).movePointLeft(decimals);
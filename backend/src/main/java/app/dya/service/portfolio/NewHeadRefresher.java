@@ -0,0 +1,95 @@
+package app.dya.service.portfolio;
+
+import app.dya.service.AlertSubscriptionService;
+import app.dya.service.chain.BlockTracker;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ties portfolio freshness to the chain head instead of a fixed TTL.
+ *
+ * <p>On every new head all cached snapshots stop being fresh. When enabled, the wallets with
+ * alert subscriptions are also refreshed so that their next view is already up to date: in
+ * shards of {@code shardSize}, one shard at a time, and at most once every
+ * {@code minInterval} however fast blocks arrive. A refresh still running when the next head
+ * arrives is not started twice.</p>
+ */
+@Service
+public class NewHeadRefresher {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NewHeadRefresher.class);
+
+    private final PositionAggregator aggregator;
+    private final AlertSubscriptionService subscriptions;
+    private final boolean refreshWatched;
+    private final int shardSize;
+    private final Duration minInterval;
+    private final Clock clock;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile Instant lastRefresh = Instant.MIN;
+
+    @Autowired
+    public NewHeadRefresher(BlockTracker blockTracker,
+                            PositionAggregator aggregator,
+                            AlertSubscriptionService subscriptions,
+                            @Value("${app.portfolio.watched.refreshOnNewHead:false}") boolean refreshWatched,
+                            @Value("${app.portfolio.watched.shardSize:100}") int shardSize,
+                            @Value("${app.portfolio.watched.minIntervalSeconds:60}") long minIntervalSeconds) {
+        this(blockTracker, aggregator, subscriptions, refreshWatched, shardSize,
+                Duration.ofSeconds(minIntervalSeconds), Clock.systemUTC());
+    }
+
+    NewHeadRefresher(BlockTracker blockTracker, PositionAggregator aggregator, AlertSubscriptionService subscriptions,
+                     boolean refreshWatched, int shardSize, Duration minInterval, Clock clock) {
+        if (shardSize <= 0) throw new IllegalArgumentException("shardSize must be positive");
+        this.aggregator = aggregator;
+        this.subscriptions = subscriptions;
+        this.refreshWatched = refreshWatched;
+        this.shardSize = shardSize;
+        this.minInterval = minInterval;
+        this.clock = clock;
+        blockTracker.onAdvance(this::onNewHead);
+    }
+
+    void onNewHead(long block) {
+        aggregator.expireSnapshots();
+        if (!refreshWatched) return;
+        Instant now = clock.instant();
+        if (now.isBefore(lastRefresh.plus(minInterval))) return;
+        List<String> watched = new ArrayList<>(subscriptions.watchedAddresses());
+        if (watched.isEmpty() || !refreshing.compareAndSet(false, true)) return;
+        lastRefresh = now;
+        watched.sort(null);
+        executor.execute(() -> {
+            try {
+                for (int from = 0; from < watched.size(); from += shardSize) {
+                    List<String> shard = watched.subList(from, Math.min(watched.size(), from + shardSize));
+                    try {
+                        aggregator.fetchBatch(shard);
+                    } catch (RuntimeException e) {
+                        log.warn("Refreshing {} watched wallets at block {} failed: {}", shard.size(), block, e.toString());
+                    }
+                }
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,53 @@
+package app.dya.service.portfolio;
+
+import app.dya.api.dto.PortfolioDTO;
+import app.dya.math.FixedDecimal;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Portfolio-level figures derived from a list of positions.
+ *
+ * @param totalUsd      sum of position USD values
+ * @param netWorthUsd   total value minus borrowed USD
+ * @param dailyYieldUsd deposit yield minus borrow cost per day
+ * @param healthFactor  total value over borrowed USD, zero without borrows
+ */
+public record PortfolioTotals(
+        BigDecimal totalUsd,
+        BigDecimal netWorthUsd,
+        BigDecimal dailyYieldUsd,
+        BigDecimal healthFactor
+) {
+
+    private static final FixedDecimal DAYS_PER_YEAR = FixedDecimal.valueOf(365, 0);
+
+    public static PortfolioTotals of(List<PortfolioDTO.PositionDTO> positions) {
+        FixedDecimal totalUsd = FixedDecimal.ZERO;
+        FixedDecimal totalBorrowUsd = FixedDecimal.ZERO;
+        FixedDecimal dailyYieldUsd = FixedDecimal.ZERO;
+        for (PortfolioDTO.PositionDTO p : positions) {
+            FixedDecimal usdValue = FixedDecimal.valueOf(p.usdValue());
+            FixedDecimal borrowAmount = FixedDecimal.valueOf(p.borrowAmount());
+            totalUsd = totalUsd.add(usdValue);
+            totalBorrowUsd = totalBorrowUsd.add(borrowAmount);
+
+            FixedDecimal depositYield = usdValue
+                    .multiply(FixedDecimal.valueOf(p.apr()))
+                    .divide(DAYS_PER_YEAR, 18);
+            FixedDecimal borrowCost = borrowAmount
+                    .multiply(FixedDecimal.valueOf(p.borrowApr()))
+                    .divide(DAYS_PER_YEAR, 18);
+            dailyYieldUsd = dailyYieldUsd.add(depositYield).subtract(borrowCost);
+        }
+
+        FixedDecimal netWorthUsd = totalUsd.subtract(totalBorrowUsd);
+        FixedDecimal healthFactor = totalBorrowUsd.signum() > 0
+                ? totalUsd.divide(totalBorrowUsd, 2)
+                : FixedDecimal.ZERO;
+
+        return new PortfolioTotals(totalUsd.toBigDecimal(), netWorthUsd.toBigDecimal(),
+                dailyYieldUsd.toBigDecimal(), healthFactor.toBigDecimal());
+    }
+}
@@ -0,0 +1,417 @@
+package app.dya.service.portfolio;
+
+import app.dya.api.dto.PortfolioDTO;
+import app.dya.service.aave.AaveV3Service;
+import app.dya.service.compound.CompoundV2Service;
+import app.dya.service.uniswap.UniswapV3Service;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Fetches positions from every supported protocol concurrently.
+ *
+ * <p>Each protocol lookup runs on its own virtual thread and is bounded by a
+ * configurable deadline measured from when the lookup starts. Protocols that
+ * fail or miss their deadline are reported as degraded while the positions of
+ * the protocols that did answer are still returned.</p>
+ *
+ * <p>{@link #snapshot(String)} is the shared entry point for controllers: concurrent
+ * callers for the same wallet share a single fan-out and complete snapshots are cached
+ * per wallet so that the portfolio and alerts views of one page load, and repeat views
+ * shortly after, cost at most one round of upstream calls.</p>
+ */
+@Service
+public class PositionAggregator {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PositionAggregator.class);
+
+    private static final Function<String, Semaphore> NO_LIMIT = protocol -> null;
+
+    private final List<ProtocolSource> sources;
+    private final Duration batchDeadline;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final StaleWhileRevalidateCache<String, PositionSnapshot> snapshots;
+    /** {@link System#nanoTime()} of the last {@link #expireSnapshots()}; 0 before the first one. */
+    private volatile long lastExpiry;
+
+    public PositionAggregator(AaveV3Service aaveV3Service,
+                              CompoundV2Service compoundV2Service,
+                              UniswapV3Service uniswapV3Service,
+                              @Value("${app.portfolio.deadlines.aaveMillis:4000}") long aaveDeadlineMillis,
+                              @Value("${app.portfolio.deadlines.compoundMillis:4000}") long compoundDeadlineMillis,
+                              @Value("${app.portfolio.deadlines.uniswapMillis:4000}") long uniswapDeadlineMillis,
+                              @Value("${app.portfolio.batch.deadlineMillis:15000}") long batchDeadlineMillis,
+                              @Value("${app.portfolio.snapshotTtlSeconds:15}") long snapshotTtlSeconds,
+                              @Value("${app.portfolio.staleWindowSeconds:300}") long staleWindowSeconds,
+                              @Value("${app.portfolio.cache.maxEntries:10000}") int maxCachedSnapshots) {
+        this.sources = List.of(
+                new ProtocolSource("Aave",
+                        address -> toResult(aaveV3Service.getAccount(address)),
+                        addresses -> toResults(aaveV3Service.getAccounts(addresses), PositionAggregator::toResult),
+                        Duration.ofMillis(aaveDeadlineMillis)),
+                new ProtocolSource("Compound",
+                        address -> new ProtocolResult(compoundV2Service.getPositions(address), null),
+                        addresses -> toResults(compoundV2Service.getPositionsByAccount(addresses), p -> new ProtocolResult(p, null)),
+                        Duration.ofMillis(compoundDeadlineMillis)),
+                new ProtocolSource("UniswapV3",
+                        address -> new ProtocolResult(uniswapV3Service.getPositions(address), null),
+                        addresses -> toResults(uniswapV3Service.getPositionsByOwner(addresses), p -> new ProtocolResult(p, null)),
+                        Duration.ofMillis(uniswapDeadlineMillis))
+        );
+        this.batchDeadline = Duration.ofMillis(batchDeadlineMillis);
+        this.snapshots = snapshotTtlSeconds > 0
+                ? new StaleWhileRevalidateCache<>(Duration.ofSeconds(snapshotTtlSeconds),
+                        Duration.ofSeconds(Math.max(0, staleWindowSeconds)),
+                        maxCachedSnapshots,
+                        executor,
+                        snapshot -> snapshot.degradedProtocols().isEmpty())
+                : null;
+    }
+
+    /**
+     * Return a recent snapshot for the wallet, fetching it if none is cached.
+     *
+     * <p>Snapshots are fresh for {@code app.portfolio.snapshotTtlSeconds}. During the following
+     * {@code app.portfolio.staleWindowSeconds} the cached snapshot is still returned immediately
+     * while a background refresh replaces it; its {@code fetchedAt} shows its real age. Only
+     * one fetch per wallet is in flight at a time and concurrent callers share its result.
+     * Snapshots with degraded protocols are handed to the waiting callers but never replace
+     * a cached snapshot, so the next request retries the missing protocols.</p>
+     *
+     * @param address wallet address
+     * @return cached or freshly fetched snapshot
+     */
+    public PositionSnapshot snapshot(String address) {
+        if (snapshots == null) {
+            return fetch(address);
+        }
+        return snapshots.get(address.toLowerCase(), this::fetch);
+    }
+
+    /**
+     * Query all protocols for the given wallet in parallel.
+     *
+     * @param address wallet address
+     * @return positions in protocol order together with the protocols that did not answer in time
+     */
+    public PositionSnapshot fetch(String address) {
+        List<String> degraded = new ArrayList<>();
+        List<ProtocolResult> results = fanOut(source -> () -> source.fetcher().apply(address),
+                ProtocolSource::deadline, NO_LIMIT, address, degraded);
+        return combine(address, results, degraded, Instant.now());
+    }
+
+    /**
+     * Query all protocols for the given wallet in parallel and report each protocol to the
+     * listener as soon as it answers, fails or misses its deadline.
+     *
+     * <p>The listener is called from the thread that completed the protocol lookup. The
+     * complete snapshot is stored in the snapshot cache like one fetched by
+     * {@link #snapshot(String)}.</p>
+     *
+     * @param address  wallet address
+     * @param listener receives the outcome of each protocol
+     * @return the combined snapshot once every protocol has answered or timed out
+     */
+    public CompletableFuture<PositionSnapshot> stream(String address, ProtocolListener listener) {
+        List<CompletableFuture<ProtocolResult>> futures = new ArrayList<>(sources.size());
+        for (ProtocolSource source : sources) {
+            futures.add(CompletableFuture
+                    .supplyAsync(() -> source.fetcher().apply(address), executor)
+                    .orTimeout(source.deadline().toMillis(), TimeUnit.MILLISECONDS)
+                    .handle((result, error) -> {
+                        if (error != null) {
+                            log.warn("{} failed or missed its deadline for {}: {}", source.name(), address, error.toString());
+                            listener.onProtocol(source.name(), List.of(), true);
+                            return null;
+                        }
+                        listener.onProtocol(source.name(), result.positions(), false);
+                        return result;
+                    }));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            List<ProtocolResult> results = new ArrayList<>(sources.size());
+            List<String> degraded = new ArrayList<>();
+            for (int i = 0; i < sources.size(); i++) {
+                ProtocolResult result = futures.get(i).join();
+                if (result == null) {
+                    degraded.add(sources.get(i).name());
+                }
+                results.add(result);
+            }
+            PositionSnapshot snapshot = combine(address, results, degraded, Instant.now());
+            if (snapshots != null) {
+                snapshots.put(address.toLowerCase(), snapshot);
+            }
+            return snapshot;
+        });
+    }
+
+    /**
+     * Query all protocols for several wallets at once. Every protocol answers the whole
+     * batch with a handful of upstream requests instead of one request per wallet.
+     *
+     * @param addresses wallet addresses
+     * @return snapshots keyed by lower-case address, in request order
+     */
+    public Map<String, PositionSnapshot> fetchBatch(Collection<String> addresses) {
+        return fetchBatch(addresses, NO_LIMIT);
+    }
+
+    /**
+     * {@link #fetchBatch(Collection)} with a limit on the batch requests in flight to each
+     * protocol. The requests to all protocols are started at once; each one waits for a free
+     * permit of its own protocol and holds it until the protocol answers or misses its
+     * deadline, which is measured from when the request was sent. A slow protocol therefore
+     * only delays its own requests.
+     *
+     * @param addresses wallet addresses
+     * @param permits   the permits of each protocol by name, e.g. "Aave"; protocols mapped to
+     *                  {@code null} are not limited
+     * @return snapshots keyed by lower-case address, in request order
+     */
+    public Map<String, PositionSnapshot> fetchBatch(Collection<String> addresses, Function<String, Semaphore> permits) {
+        List<String> keys = addresses.stream().map(String::toLowerCase).distinct().toList();
+        List<String> degraded = new ArrayList<>();
+        List<Map<String, ProtocolResult>> batchResults = fanOut(source -> () -> source.batchFetcher().apply(keys),
+                source -> batchDeadline, permits, keys.size() + " wallets", degraded);
+
+        Instant now = Instant.now();
+        Map<String, PositionSnapshot> batch = new LinkedHashMap<>();
+        for (String key : keys) {
+            List<ProtocolResult> results = new ArrayList<>(sources.size());
+            for (Map<String, ProtocolResult> protocolResults : batchResults) {
+                results.add(protocolResults == null ? null : protocolResults.get(key));
+            }
+            PositionSnapshot snapshot = combine(key, results, List.copyOf(degraded), now);
+            if (snapshots != null) {
+                snapshots.put(key, snapshot);
+            }
+            batch.put(key, snapshot);
+        }
+        return batch;
+    }
+
+    /**
+     * Snapshots of several wallets for background jobs: snapshots cached less than
+     * {@code maxAge} ago, e.g. by a page view or a new-head refresh, are reused even if a new
+     * block has ended their freshness, and only the other wallets are fetched with
+     * {@link #fetchBatch}.
+     *
+     * @param addresses wallet addresses
+     * @param maxAge    how old a cached snapshot may be to be reused
+     * @param permits   limits the requests to each protocol, see {@link #fetchBatch(Collection, Function)}
+     * @return snapshots keyed by lower-case address, in request order
+     */
+    public Map<String, PositionSnapshot> snapshotBatch(Collection<String> addresses, Duration maxAge,
+                                                       Function<String, Semaphore> permits) {
+        List<String> keys = addresses.stream().map(String::toLowerCase).distinct().toList();
+        Map<String, PositionSnapshot> cached = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            PositionSnapshot snapshot = snapshots == null ? null : snapshots.peek(key, maxAge);
+            if (snapshot != null) {
+                cached.put(key, snapshot);
+            } else {
+                missing.add(key);
+            }
+        }
+        Map<String, PositionSnapshot> fetched = missing.isEmpty() ? Map.of() : fetchBatch(missing, permits);
+        Map<String, PositionSnapshot> batch = new LinkedHashMap<>();
+        for (String key : keys) {
+            PositionSnapshot snapshot = cached.get(key);
+            batch.put(key, snapshot != null ? snapshot : fetched.get(key));
+        }
+        return batch;
+    }
+
+    /**
+     * End the freshness of every cached snapshot, e.g. because a new block was mined. The
+     * next request for a wallet still gets its cached snapshot while it is refreshed.
+     */
+    public void expireSnapshots() {
+        lastExpiry = System.nanoTime();
+        if (snapshots != null) {
+            snapshots.expireAll();
+        }
+    }
+
+    /**
+     * How much longer {@code snapshot} of the wallet stays fresh in the snapshot cache: the
+     * rest of its TTL, but no longer than {@code blockInterval} after the snapshots were last
+     * expired, since the next block will expire them again. Zero once it is stale, was
+     * replaced, or was never cached.
+     *
+     * @param address       wallet address
+     * @param snapshot      snapshot returned by {@link #snapshot(String)}
+     * @param blockInterval expected time between new heads
+     */
+    public Duration freshFor(String address, PositionSnapshot snapshot, Duration blockInterval) {
+        if (snapshots == null) {
+            return Duration.ZERO;
+        }
+        Duration fresh = snapshots.freshFor(address.toLowerCase(), snapshot);
+        long expiredAt = lastExpiry;
+        Duration untilNextBlock = expiredAt == 0 ? blockInterval
+                : blockInterval.minusNanos(System.nanoTime() - expiredAt);
+        Duration left = fresh.compareTo(untilNextBlock) < 0 ? fresh : untilNextBlock;
+        return left.isNegative() ? Duration.ZERO : left;
+    }
+
+    private static PositionSnapshot combine(String address,
+                                            List<ProtocolResult> results,
+                                            List<String> degraded,
+                                            Instant fetchedAt) {
+        List<PortfolioDTO.PositionDTO> positions = new ArrayList<>();
+        BigDecimal healthFactor = null;
+        for (ProtocolResult result : results) {
+            if (result == null) continue;
+            positions.addAll(result.positions());
+            if (result.healthFactor() != null) {
+                healthFactor = result.healthFactor();
+            }
+        }
+        return new PositionSnapshot(address, positions, healthFactor, degraded, fetchedAt);
+    }
+
+    /**
+     * Run one task per protocol concurrently and wait for each until its deadline,
+     * measured from when the task was started. All tasks are submitted at once; a task whose
+     * protocol has permits waits for one on its own thread before it starts, so a protocol
+     * without a free permit does not hold up the others. The permit is returned when the
+     * task ends or is given up.
+     *
+     * @return results in protocol order; {@code null} for protocols that were added to {@code degraded}
+     */
+    private <T> List<T> fanOut(Function<ProtocolSource, Callable<T>> task,
+                               Function<ProtocolSource, Duration> deadline,
+                               Function<String, Semaphore> permits,
+                               String subject,
+                               List<String> degraded) {
+        int n = sources.size();
+        List<Future<T>> futures = new ArrayList<>(n);
+        List<Runnable> releases = new ArrayList<>(n);
+        List<CountDownLatch> admitted = new ArrayList<>(n);
+        AtomicLongArray started = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) {
+            int index = i;
+            ProtocolSource source = sources.get(i);
+            Semaphore slots = permits.apply(source.name());
+            Runnable release = releaseOnce(slots);
+            CountDownLatch admission = new CountDownLatch(1);
+            Callable<T> call = task.apply(source);
+            futures.add(executor.submit(() -> {
+                try {
+                    if (slots != null) slots.acquire();
+                    started.set(index, System.nanoTime());
+                } finally {
+                    admission.countDown();
+                }
+                try {
+                    return call.call();
+                } finally {
+                    release.run();
+                }
+            }));
+            releases.add(release);
+            admitted.add(admission);
+        }
+
+        List<T> results = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ProtocolSource source = sources.get(i);
+            Future<T> future = futures.get(i);
+            Duration limit = deadline.apply(source);
+            T result = null;
+            try {
+                // waiting for a permit does not count against the deadline
+                admitted.get(i).await();
+                long startedAt = started.get(i) == 0 ? System.nanoTime() : started.get(i);
+                long remaining = limit.toNanos() - (System.nanoTime() - startedAt);
+                result = future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                releases.get(i).run();
+                degraded.add(source.name());
+                log.warn("{} missed its {} ms deadline for {}", source.name(), limit.toMillis(), subject);
+            } catch (ExecutionException e) {
+                degraded.add(source.name());
+                log.warn("{} failed for {}: {}", source.name(), subject, e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                if (started.get(i) != 0) releases.get(i).run();
+                degraded.add(source.name());
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /** Returns the permit to {@code slots} the first time it is run; does nothing without permits. */
+    private static Runnable releaseOnce(Semaphore slots) {
+        if (slots == null) return () -> {};
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) slots.release();
+        };
+    }
+
+    private static ProtocolResult toResult(AaveV3Service.AaveAccount account) {
+        return new ProtocolResult(account.positions(), account.healthFactor());
+    }
+
+    private static <V> Map<String, ProtocolResult> toResults(Map<String, V> values, Function<V, ProtocolResult> mapper) {
+        Map<String, ProtocolResult> results = new HashMap<>();
+        values.forEach((address, value) -> results.put(address.toLowerCase(), mapper.apply(value)));
+        return results;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** Receives the outcome of each protocol of a {@link #stream streamed} fetch. */
+    @FunctionalInterface
+    public interface ProtocolListener {
+        /**
+         * @param protocol  protocol name, e.g. "Aave"
+         * @param positions positions returned by the protocol, empty when degraded
+         * @param degraded  whether the protocol failed or missed its deadline
+         */
+        void onProtocol(String protocol, List<PortfolioDTO.PositionDTO> positions, boolean degraded);
+    }
+
+    private record ProtocolSource(String name,
+                                  Function<String, ProtocolResult> fetcher,
+                                  Function<List<String>, Map<String, ProtocolResult>> batchFetcher,
+                                  Duration deadline) {}
+
+    private record ProtocolResult(List<PortfolioDTO.PositionDTO> positions, BigDecimal healthFactor) {}
+}
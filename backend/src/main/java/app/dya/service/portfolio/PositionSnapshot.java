@@ -0,0 +1,24 @@
+package app.dya.service.portfolio;
+
+import app.dya.api.dto.PortfolioDTO;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Positions collected for a wallet across all protocols at a point in time.
+ *
+ * @param address           wallet address the snapshot belongs to
+ * @param positions         positions returned by the protocols that answered
+ * @param aaveHealthFactor  Aave health factor, {@code null} if unknown or Aave did not answer
+ * @param degradedProtocols protocols that failed or missed their deadline
+ * @param fetchedAt         when the fan-out completed
+ */
+public record PositionSnapshot(
+        String address,
+        List<PortfolioDTO.PositionDTO> positions,
+        BigDecimal aaveHealthFactor,
+        List<String> degradedProtocols,
+        Instant fetchedAt
+) {}
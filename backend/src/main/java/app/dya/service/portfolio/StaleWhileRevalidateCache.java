@@ -0,0 +1,153 @@
+package app.dya.service.portfolio;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bounded cache that keeps serving an entry after its freshness TTL has passed while a
+ * background reload brings it up to date.
+ *
+ * <p>An entry younger than {@code freshFor} is returned as is. An entry that is older but
+ * still within the following {@code staleFor} window is returned immediately and a reload
+ * is started in the background. Older entries and misses are loaded synchronously. At most
+ * one load per key is in flight; concurrent callers share it. When more than
+ * {@code maxEntries} keys are cached the least recently used one is dropped.
+ * {@link #expireAll()} ends the freshness of every cached entry at once. {@link #peek} reads
+ * an entry without loading anything.</p>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class StaleWhileRevalidateCache<K, V> {
+
+    private final long freshNanos;
+    private final long staleNanos;
+    private final Executor executor;
+    private final Predicate<V> cacheable;
+    private final Map<K, Entry<V>> entries;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private volatile long expiredAt = System.nanoTime();
+
+    /**
+     * @param freshFor   how long an entry is served without reloading
+     * @param staleFor   how long after that an entry is still served while it is reloaded
+     * @param maxEntries maximum number of cached keys
+     * @param executor   executor running the loads
+     * @param cacheable  decides whether a loaded value may replace the cached one
+     */
+    public StaleWhileRevalidateCache(Duration freshFor,
+                                     Duration staleFor,
+                                     int maxEntries,
+                                     Executor executor,
+                                     Predicate<V> cacheable) {
+        this.freshNanos = freshFor.toNanos();
+        this.staleNanos = staleFor.toNanos();
+        this.executor = executor;
+        this.cacheable = cacheable;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return the cached value for the key, reloading it as described in the class comment.
+     *
+     * @param key    cache key
+     * @param loader loads the value for the key; may run on the cache executor
+     * @return cached or freshly loaded value
+     */
+    public V get(K key, Function<K, V> loader) {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            long age = System.nanoTime() - entry.storedAt;
+            if (age < freshNanos && entry.storedAt - expiredAt >= 0) {
+                return entry.value;
+            }
+            if (age < freshNanos + staleNanos) {
+                reload(key, loader);
+                return entry.value;
+            }
+        }
+        return reload(key, loader).join();
+    }
+
+    /**
+     * Return the cached value for the key if it was stored less than {@code maxAge} ago,
+     * whether or not it is still fresh. Nothing is loaded or reloaded.
+     *
+     * @return the cached value, or {@code null} if there is none that recent
+     */
+    public V peek(K key, Duration maxAge) {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        return entry != null && System.nanoTime() - entry.storedAt < maxAge.toNanos() ? entry.value : null;
+    }
+
+    /**
+     * How much longer {@code value} is served as fresh for the key: zero if it is no longer
+     * the cached value, is past {@code freshFor}, or was stored before {@link #expireAll}.
+     */
+    public Duration freshFor(K key, V value) {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null || entry.value != value || entry.storedAt - expiredAt < 0) return Duration.ZERO;
+        return Duration.ofNanos(Math.max(0, freshNanos - (System.nanoTime() - entry.storedAt)));
+    }
+
+    /** Store a value that was loaded outside of {@link #get}. Values rejected by the predicate are ignored. */
+    public void put(K key, V value) {
+        if (!cacheable.test(value)) return;
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Treat every entry stored so far as past its freshness TTL. Entries are still served
+     * during their stale window while they are reloaded.
+     */
+    public void expireAll() {
+        expiredAt = System.nanoTime() + 1;
+    }
+
+    private CompletableFuture<V> reload(K key, Function<K, V> loader) {
+        CompletableFuture<V> existing = inFlight.get(key);
+        if (existing != null) return existing;
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) return existing;
+
+        executor.execute(() -> {
+            // Leave inFlight before completing so callers woken by the result start a new load.
+            try {
+                V value = loader.apply(key);
+                put(key, value);
+                inFlight.remove(key, mine);
+                mine.complete(value);
+            } catch (Throwable t) {
+                inFlight.remove(key, mine);
+                mine.completeExceptionally(t);
+            }
+        });
+        return mine;
+    }
+
+    private record Entry<V>(V value, long storedAt) {}
+}
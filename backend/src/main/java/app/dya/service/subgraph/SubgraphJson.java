@@ -0,0 +1,148 @@
+package app.dya.service.subgraph;
+
+import app.dya.math.FixedDecimal;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming access to GraphQL responses of The Graph subgraphs.
+ *
+ * <p>Responses are read token by token straight into the caller's records; fields the
+ * caller does not ask for are skipped and no intermediate {@code Map} tree is built.</p>
+ */
+public final class SubgraphJson {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private SubgraphJson() {
+    }
+
+    /**
+     * Reads one JSON value, positioned on its first token, into a typed record.
+     */
+    @FunctionalInterface
+    public interface ValueReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * POST a GraphQL query and decode {@code data.<field>} with the given reader.
+     *
+     * @param absent value returned when the response has no data or the field is missing or null
+     */
+    public static <T> T query(RestTemplate restTemplate, String url, String query, String field,
+                              ValueReader<T> reader, T absent) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<Map<String, String>> entity = new HttpEntity<>(Map.of("query", query), headers);
+        T result = restTemplate.execute(url, HttpMethod.POST, restTemplate.httpEntityCallback(entity),
+                response -> readData(response.getBody(), field, reader, absent));
+        return result == null ? absent : result;
+    }
+
+    static <T> T readData(InputStream body, String field, ValueReader<T> reader, T absent) throws IOException {
+        T result = absent;
+        try (JsonParser parser = JSON.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return absent;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                if (!"data".equals(name) || parser.currentToken() != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String dataField = parser.currentName();
+                    parser.nextToken();
+                    if (field.equals(dataField) && parser.currentToken() != JsonToken.VALUE_NULL) {
+                        result = reader.read(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a JSON array element by element; anything other than an array reads as empty.
+     * Elements the reader maps to {@code null} are dropped.
+     */
+    public static <T> List<T> readList(JsonParser parser, ValueReader<T> element) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return List.of();
+        }
+        List<T> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            T value = element.read(parser);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Advances to the next field of the current object and its value.
+     *
+     * @return the field name, or {@code null} at the end of the object
+     */
+    public static String nextField(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.FIELD_NAME) {
+            return null;
+        }
+        String name = parser.currentName();
+        parser.nextToken();
+        return name;
+    }
+
+    /**
+     * Whether the parser is positioned on an object; other values are skipped.
+     */
+    public static boolean isObject(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.START_OBJECT) {
+            return true;
+        }
+        parser.skipChildren();
+        return false;
+    }
+
+    /**
+     * Text of a scalar value (subgraphs encode big numbers as strings), or {@code null}.
+     */
+    public static String text(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isScalarValue()) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    /**
+     * Decimal value of a scalar, or {@code fallback} when it is null or missing.
+     */
+    public static FixedDecimal decimal(JsonParser parser, FixedDecimal fallback) throws IOException {
+        String text = text(parser);
+        return text == null ? fallback : FixedDecimal.parse(text);
+    }
+}
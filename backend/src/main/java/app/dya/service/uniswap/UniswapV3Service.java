@@ -1,20 +1,25 @@
 package app.dya.service.uniswap;
 
 import app.dya.api.dto.PortfolioDTO;
+import app.dya.math.FixedDecimal;
+import app.dya.price.ObservedPrices;
+import app.dya.service.subgraph.SubgraphJson;
+import com.fasterxml.jackson.core.JsonParser;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 /**
  * Service fetching Uniswap v3 positions from the public subgraph.
@@ -26,13 +31,44 @@ import java.util.Map;
 @Service
 public class UniswapV3Service {
 
+    private static final int MAX_OWNERS_PER_QUERY = 200;
+    private static final int PAGE_SIZE = 1000;
+    private static final FixedDecimal DAYS_PER_YEAR = FixedDecimal.valueOf(365, 0);
+
+    private static final String POSITION_FIELDS = """
+            liquidity
+            pool {
+              liquidity
+              sqrtPrice
+              tick
+              feeTier
+              token0 { id symbol decimals derivedUSD }
+              token1 { id symbol decimals derivedUSD }
+              totalValueLockedToken0
+              totalValueLockedToken1
+              totalValueLockedUSD
+              volumeUSD
+              feesUSD
+            }""";
+
     private final RestTemplate restTemplate;
     private final String subgraphUrl;
+    private final ObservedPrices observedPrices;
+
+    public UniswapV3Service(RestTemplateBuilder restTemplateBuilder, String subgraphUrl) {
+        this(restTemplateBuilder, subgraphUrl, ObservedPrices.disabled());
+    }
 
+    /**
+     * @param observedPrices receives the {@code derivedUSD} of both tokens of every pool read
+     */
+    @Autowired
     public UniswapV3Service(RestTemplateBuilder restTemplateBuilder,
-                            @Value("${uniswap.v3.subgraph:https://api.thegraph.com/subgraphs/name/uniswap/uniswap-v3}") String subgraphUrl) {
+                            @Value("${uniswap.v3.subgraph:https://api.thegraph.com/subgraphs/name/uniswap/uniswap-v3}") String subgraphUrl,
+                            ObservedPrices observedPrices) {
         this.restTemplate = restTemplateBuilder.build();
         this.subgraphUrl = subgraphUrl;
+        this.observedPrices = observedPrices;
     }
 
     /**
@@ -43,10 +79,7 @@ public class UniswapV3Service {
         if (address == null || address.isBlank()) {
             return positions;
         }
-        String query = buildQuery(address);
-        Map<String, Object> response = executeQuery(query);
-        List<Map<String, Object>> rawPositions = extractPositions(response);
-        for (Map<String, Object> p : rawPositions) {
+        for (PositionData p : queryPositions(buildQuery(address))) {
             PortfolioDTO.PositionDTO dto = mapPosition(p);
             if (dto != null) {
                 positions.add(dto);
@@ -55,82 +88,152 @@ public class UniswapV3Service {
         return positions;
     }
 
+    /**
+     * Fetch Uniswap v3 LP positions for several wallets. Owners are queried
+     * {@value #MAX_OWNERS_PER_QUERY} at a time and each query is paged by position id.
+     *
+     * @param addresses wallet addresses
+     * @return positions keyed by lower-case owner address; every requested wallet is present
+     */
+    public Map<String, List<PortfolioDTO.PositionDTO>> getPositionsByOwner(Collection<String> addresses) {
+        List<String> owners = addresses.stream()
+                .filter(a -> a != null && !a.isBlank())
+                .map(String::toLowerCase)
+                .distinct()
+                .toList();
+        Map<String, List<PortfolioDTO.PositionDTO>> positions = new HashMap<>();
+        for (String owner : owners) {
+            positions.put(owner, new ArrayList<>());
+        }
+        for (int from = 0; from < owners.size(); from += MAX_OWNERS_PER_QUERY) {
+            List<String> chunk = owners.subList(from, Math.min(owners.size(), from + MAX_OWNERS_PER_QUERY));
+            String lastId = "";
+            List<PositionData> page;
+            do {
+                page = queryPositions(buildBatchQuery(chunk, lastId));
+                for (PositionData p : page) {
+                    if (p.id() != null) {
+                        lastId = p.id();
+                    }
+                    PortfolioDTO.PositionDTO dto = mapPosition(p);
+                    List<PortfolioDTO.PositionDTO> ownerPositions = p.owner() == null ? null : positions.get(p.owner().toLowerCase());
+                    if (dto != null && ownerPositions != null) {
+                        ownerPositions.add(dto);
+                    }
+                }
+            } while (page.size() == PAGE_SIZE);
+        }
+        return positions;
+    }
+
     private String buildQuery(String address) {
         return """
-                { positions(where: { owner: \"%s\" }) {\n" +
-                "  liquidity\n" +
-                "  pool {\n" +
-                "    liquidity\n" +
-                "    sqrtPrice\n" +
-                "    tick\n" +
-                "    feeTier\n" +
-                "    token0 { symbol decimals derivedUSD }\n" +
-                "    token1 { symbol decimals derivedUSD }\n" +
-                "    totalValueLockedToken0\n" +
-                "    totalValueLockedToken1\n" +
-                "    totalValueLockedUSD\n" +
-                "    volumeUSD\n" +
-                "    feesUSD\n" +
-                "  }\n" +
-                "}}""".formatted(address.toLowerCase());
+                { positions(where: { owner: "%s" }) {
+                  %s
+                }}""".formatted(address.toLowerCase(), POSITION_FIELDS);
     }
 
-    private Map<String, Object> executeQuery(String query) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        Map<String, String> body = Map.of("query", query);
-        HttpEntity<Map<String, String>> entity = new HttpEntity<>(body, headers);
-        return restTemplate.postForObject(subgraphUrl, entity, Map.class);
+    private String buildBatchQuery(List<String> owners, String afterId) {
+        String ownerList = owners.stream().map(o -> "\"" + o + "\"").collect(Collectors.joining(","));
+        return """
+                { positions(first: %d, orderBy: id, where: { owner_in: [%s], id_gt: "%s" }) {
+                  id
+                  owner
+                  %s
+                }}""".formatted(PAGE_SIZE, ownerList, afterId, POSITION_FIELDS);
     }
 
-    private List<Map<String, Object>> extractPositions(Map<String, Object> response) {
-        if (response == null) return Collections.emptyList();
-        Map<String, Object> data = (Map<String, Object>) response.get("data");
-        if (data == null) return Collections.emptyList();
-        Object positions = data.get("positions");
-        if (positions instanceof List<?> list) {
-            return (List<Map<String, Object>>) list;
-        }
-        return Collections.emptyList();
+    private List<PositionData> queryPositions(String query) {
+        return SubgraphJson.query(restTemplate, subgraphUrl, query, "positions",
+                parser -> SubgraphJson.readList(parser, UniswapV3Service::readPosition), List.of());
     }
 
-    private PortfolioDTO.PositionDTO mapPosition(Map<String, Object> position) {
-        BigDecimal liquidity = new BigDecimal(position.getOrDefault("liquidity", "0").toString());
-        Map<String, Object> pool = (Map<String, Object>) position.get("pool");
-        if (pool == null) return null;
-        BigDecimal poolLiquidity = new BigDecimal(pool.getOrDefault("liquidity", "0").toString());
-        if (poolLiquidity.compareTo(BigDecimal.ZERO) <= 0) return null;
+    private static PositionData readPosition(JsonParser parser) throws IOException {
+        if (!SubgraphJson.isObject(parser)) return null;
+        String id = null;
+        String owner = null;
+        FixedDecimal liquidity = FixedDecimal.ZERO;
+        PoolData pool = null;
+        for (String field; (field = SubgraphJson.nextField(parser)) != null; ) {
+            switch (field) {
+                case "id" -> id = SubgraphJson.text(parser);
+                case "owner" -> owner = SubgraphJson.text(parser);
+                case "liquidity" -> liquidity = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                case "pool" -> pool = readPool(parser);
+                default -> parser.skipChildren();
+            }
+        }
+        return new PositionData(id, owner, liquidity, pool);
+    }
 
-        BigDecimal share = liquidity.divide(poolLiquidity, 18, RoundingMode.HALF_UP);
+    private static PoolData readPool(JsonParser parser) throws IOException {
+        if (!SubgraphJson.isObject(parser)) return null;
+        FixedDecimal liquidity = FixedDecimal.ZERO;
+        String feeTier = "";
+        TokenData token0 = TokenData.UNKNOWN;
+        TokenData token1 = TokenData.UNKNOWN;
+        FixedDecimal reserve0 = FixedDecimal.ZERO;
+        FixedDecimal reserve1 = FixedDecimal.ZERO;
+        FixedDecimal tvlUsd = FixedDecimal.ZERO;
+        FixedDecimal feesUsd = FixedDecimal.ZERO;
+        for (String field; (field = SubgraphJson.nextField(parser)) != null; ) {
+            switch (field) {
+                case "liquidity" -> liquidity = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                case "feeTier" -> feeTier = Objects.requireNonNullElse(SubgraphJson.text(parser), "");
+                case "token0" -> token0 = readToken(parser);
+                case "token1" -> token1 = readToken(parser);
+                case "totalValueLockedToken0" -> reserve0 = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                case "totalValueLockedToken1" -> reserve1 = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                case "totalValueLockedUSD" -> tvlUsd = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                case "feesUSD" -> feesUsd = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                default -> parser.skipChildren();
+            }
+        }
+        return new PoolData(liquidity, feeTier, token0, token1, reserve0, reserve1, tvlUsd, feesUsd);
+    }
 
-        BigDecimal reserve0 = new BigDecimal(pool.getOrDefault("totalValueLockedToken0", "0").toString());
-        BigDecimal reserve1 = new BigDecimal(pool.getOrDefault("totalValueLockedToken1", "0").toString());
+    private static TokenData readToken(JsonParser parser) throws IOException {
+        if (!SubgraphJson.isObject(parser)) return TokenData.UNKNOWN;
+        String address = null;
+        String symbol = "";
+        FixedDecimal derivedUsd = FixedDecimal.ZERO;
+        for (String field; (field = SubgraphJson.nextField(parser)) != null; ) {
+            switch (field) {
+                case "id" -> address = SubgraphJson.text(parser);
+                case "symbol" -> symbol = Objects.requireNonNullElse(SubgraphJson.text(parser), "");
+                case "derivedUSD" -> derivedUsd = SubgraphJson.decimal(parser, FixedDecimal.ZERO);
+                default -> parser.skipChildren();
+            }
+        }
+        return new TokenData(address, symbol, derivedUsd);
+    }
 
-        Map<String, Object> token0 = (Map<String, Object>) pool.get("token0");
-        Map<String, Object> token1 = (Map<String, Object>) pool.get("token1");
-        String symbol0 = token0.getOrDefault("symbol", "").toString();
-        String symbol1 = token1.getOrDefault("symbol", "").toString();
-        String feeTier = pool.getOrDefault("feeTier", "").toString();
+    private PortfolioDTO.PositionDTO mapPosition(PositionData position) {
+        PoolData pool = position.pool();
+        if (pool == null) return null;
+        observedPrices.publish(pool.token0().address(), "uniswap", pool.token0().derivedUsd().toBigDecimal().doubleValue());
+        observedPrices.publish(pool.token1().address(), "uniswap", pool.token1().derivedUsd().toBigDecimal().doubleValue());
+        FixedDecimal poolLiquidity = pool.liquidity();
+        if (poolLiquidity.signum() <= 0) return null;
 
-        BigDecimal token0PriceUsd = new BigDecimal(token0.getOrDefault("derivedUSD", "0").toString());
-        BigDecimal token1PriceUsd = new BigDecimal(token1.getOrDefault("derivedUSD", "0").toString());
+        FixedDecimal share = position.liquidity().divide(poolLiquidity, 18);
 
-        BigDecimal token0Amount = reserve0.multiply(share);
-        BigDecimal token1Amount = reserve1.multiply(share);
+        FixedDecimal token0Amount = pool.reserve0().multiply(share);
+        FixedDecimal token1Amount = pool.reserve1().multiply(share);
 
         // usdValue = (token0_amount * token0_priceUSD) + (token1_amount * token1_priceUSD)
-        BigDecimal usdValue = token0Amount.multiply(token0PriceUsd)
-                .add(token1Amount.multiply(token1PriceUsd));
+        BigDecimal usdValue = token0Amount.multiply(pool.token0().derivedUsd())
+                .add(token1Amount.multiply(pool.token1().derivedUsd()))
+                .toBigDecimal();
 
-        BigDecimal tvlUsd = new BigDecimal(pool.getOrDefault("totalValueLockedUSD", "0").toString());
-        BigDecimal feesUsd = new BigDecimal(pool.getOrDefault("feesUSD", "0").toString());
         BigDecimal apr = BigDecimal.ZERO;
-        if (tvlUsd.compareTo(BigDecimal.ZERO) > 0) {
-            apr = feesUsd.divide(tvlUsd, 18, RoundingMode.HALF_UP)
-                    .multiply(new BigDecimal("365"));
+        if (pool.tvlUsd().signum() > 0) {
+            apr = pool.feesUsd().divide(pool.tvlUsd(), 18)
+                    .multiply(DAYS_PER_YEAR)
+                    .toBigDecimal();
         }
 
-        String asset = "LP-%s/%s-%s".formatted(symbol0, symbol1, feeTier);
+        String asset = "LP-%s/%s-%s".formatted(pool.token0().symbol(), pool.token1().symbol(), pool.feeTier());
 
         return new PortfolioDTO.PositionDTO(
                 "UniswapV3",
@@ -145,5 +248,13 @@ public class UniswapV3Service {
                 "DEPOSIT"
         );
     }
-}
 
+    private record PositionData(String id, String owner, FixedDecimal liquidity, PoolData pool) {}
+
+    private record PoolData(FixedDecimal liquidity, String feeTier, TokenData token0, TokenData token1,
+                            FixedDecimal reserve0, FixedDecimal reserve1, FixedDecimal tvlUsd, FixedDecimal feesUsd) {}
+
+    private record TokenData(String address, String symbol, FixedDecimal derivedUsd) {
+        static final TokenData UNKNOWN = new TokenData(null, "", FixedDecimal.ZERO);
+    }
+}
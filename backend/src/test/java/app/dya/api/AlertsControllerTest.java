@@ -1,16 +1,18 @@
 package app.dya.api;
 
-import app.dya.service.AaveV3HealthService;
+import app.dya.service.AlertEvaluator;
 import app.dya.service.ApyTrackingService;
 import app.dya.service.AlertSubscriptionService;
 import app.dya.service.EmailAlertService;
 import app.dya.service.aave.AaveV3Service;
 import app.dya.service.compound.CompoundV2Service;
+import app.dya.service.portfolio.PositionAggregator;
 import app.dya.service.uniswap.UniswapV3Service;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.math.BigDecimal;
@@ -21,14 +23,13 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@WebMvcTest(AlertsController.class)
+@WebMvcTest(controllers = AlertsController.class, properties = "app.portfolio.snapshotTtlSeconds=0")
+@Import({PositionAggregator.class, AlertEvaluator.class})
 class AlertsControllerTest {
 
     @Autowired
     private MockMvc mockMvc;
 
-    @MockBean
-    private AaveV3HealthService aaveV3HealthService;
     @MockBean
     private AaveV3Service aaveV3Service;
     @MockBean
@@ -44,8 +45,8 @@ class AlertsControllerTest {
 
     @Test
     void emitsRiskAlertWhenHealthFactorBelowThreshold() throws Exception {
-        when(aaveV3HealthService.getHealthFactor("0xabc")).thenReturn(new BigDecimal("1.2"));
-        when(aaveV3Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
+        when(aaveV3Service.getAccount("0xabc"))
+                .thenReturn(new AaveV3Service.AaveAccount(new BigDecimal("1.2"), java.util.Collections.emptyList()));
         when(compoundV2Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
         when(uniswapV3Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
 
@@ -58,8 +59,8 @@ class AlertsControllerTest {
 
     @Test
     void emitsRiskAlertWhenHealthFactorFarBelowThreshold() throws Exception {
-        when(aaveV3HealthService.getHealthFactor("0xabc")).thenReturn(new BigDecimal("0.9"));
-        when(aaveV3Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
+        when(aaveV3Service.getAccount("0xabc"))
+                .thenReturn(new AaveV3Service.AaveAccount(new BigDecimal("0.9"), java.util.Collections.emptyList()));
         when(compoundV2Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
         when(uniswapV3Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
 
@@ -71,8 +72,20 @@ class AlertsControllerTest {
 
     @Test
     void noAlertWhenHealthFactorAboveThreshold() throws Exception {
-        when(aaveV3HealthService.getHealthFactor("0xabc")).thenReturn(new BigDecimal("1.5"));
-        when(aaveV3Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
+        when(aaveV3Service.getAccount("0xabc"))
+                .thenReturn(new AaveV3Service.AaveAccount(new BigDecimal("1.5"), java.util.Collections.emptyList()));
+        when(compoundV2Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
+        when(uniswapV3Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
+
+        mockMvc.perform(get("/alerts/0xabc"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.alerts", hasSize(0)));
+    }
+
+    @Test
+    void noRiskAlertWhenWalletUnknownToAave() throws Exception {
+        when(aaveV3Service.getAccount("0xabc"))
+                .thenReturn(new AaveV3Service.AaveAccount(null, java.util.Collections.emptyList()));
         when(compoundV2Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
         when(uniswapV3Service.getPositions("0xabc")).thenReturn(java.util.Collections.emptyList());
 
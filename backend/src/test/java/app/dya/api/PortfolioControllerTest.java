@@ -3,26 +3,40 @@ package app.dya.api;
 import app.dya.api.dto.PortfolioDTO;
 import app.dya.service.aave.AaveV3Service;
 import app.dya.service.compound.CompoundV2Service;
+import app.dya.service.portfolio.PositionAggregator;
 import app.dya.service.uniswap.UniswapV3Service;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(PortfolioController.class)
+@Import(PositionAggregator.class)
 class PortfolioControllerTest {
 
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private PositionAggregator positionAggregator;
+
     @MockBean
     private AaveV3Service aaveV3Service;
 
@@ -34,7 +48,7 @@ class PortfolioControllerTest {
 
     @Test
     void returnsEmptyPortfolioForUnknownWallet() throws Exception {
-        when(aaveV3Service.getPositions("0xempty")).thenReturn(List.of());
+        when(aaveV3Service.getAccount("0xempty")).thenReturn(new AaveV3Service.AaveAccount(null, List.of()));
         when(compoundV2Service.getPositions("0xempty")).thenReturn(List.of());
         when(uniswapV3Service.getPositions("0xempty")).thenReturn(List.of());
 
@@ -45,7 +59,28 @@ class PortfolioControllerTest {
                 .andExpect(jsonPath("$.netWorthUsd").value(0))
                 .andExpect(jsonPath("$.dailyYieldUsd").value(0))
                 .andExpect(jsonPath("$.healthFactor").value(0))
-                .andExpect(jsonPath("$.positions.length()").value(0));
+                .andExpect(jsonPath("$.positions.length()").value(0))
+                .andExpect(jsonPath("$.degradedProtocols.length()").value(0));
+    }
+
+    @Test
+    void marksFailingProtocolAsDegraded() throws Exception {
+        List<PortfolioDTO.PositionDTO> aavePositions = List.of(
+                new PortfolioDTO.PositionDTO(
+                        "Aave", "ethereum", "DAI",
+                        new BigDecimal("100"), new BigDecimal("100"), BigDecimal.ZERO,
+                        BigDecimal.ZERO, BigDecimal.ZERO, "OK", "DEPOSIT")
+        );
+        when(aaveV3Service.getAccount("0xpartial")).thenReturn(new AaveV3Service.AaveAccount(null, aavePositions));
+        when(compoundV2Service.getPositions("0xpartial")).thenThrow(new IllegalStateException("rpc down"));
+        when(uniswapV3Service.getPositions("0xpartial")).thenReturn(List.of());
+
+        mockMvc.perform(get("/portfolio/0xpartial"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalUsd").value(100))
+                .andExpect(jsonPath("$.positions.length()").value(1))
+                .andExpect(jsonPath("$.degradedProtocols.length()").value(1))
+                .andExpect(jsonPath("$.degradedProtocols[0]").value("Compound"));
     }
 
     @Test
@@ -67,7 +102,7 @@ class PortfolioControllerTest {
                         BigDecimal.ZERO, BigDecimal.ZERO, "OK", "DEPOSIT")
         );
 
-        when(aaveV3Service.getPositions("0xabc")).thenReturn(aavePositions);
+        when(aaveV3Service.getAccount("0xabc")).thenReturn(new AaveV3Service.AaveAccount(null, aavePositions));
         when(compoundV2Service.getPositions("0xabc")).thenReturn(compoundPositions);
         when(uniswapV3Service.getPositions("0xabc")).thenReturn(List.of());
 
@@ -116,7 +151,7 @@ class PortfolioControllerTest {
                         BigDecimal.ZERO, BigDecimal.ZERO, "OK", "DEPOSIT")
         );
 
-        when(aaveV3Service.getPositions("0xcomplex")).thenReturn(aavePositions);
+        when(aaveV3Service.getAccount("0xcomplex")).thenReturn(new AaveV3Service.AaveAccount(null, aavePositions));
         when(compoundV2Service.getPositions("0xcomplex")).thenReturn(compoundPositions);
         when(uniswapV3Service.getPositions("0xcomplex")).thenReturn(uniswapPositions);
 
@@ -134,5 +169,112 @@ class PortfolioControllerTest {
                 .andExpect(jsonPath("$.positions[3].positionType").value("BORROW"))
                 .andExpect(jsonPath("$.positions[4].protocol").value("UniswapV3"));
     }
-}
 
+    @Test
+    void answersUnchangedPortfolioWithNotModified() throws Exception {
+        when(aaveV3Service.getAccount("0xetag")).thenReturn(new AaveV3Service.AaveAccount(null, List.of()));
+        when(compoundV2Service.getPositions("0xetag")).thenReturn(List.of());
+        when(uniswapV3Service.getPositions("0xetag")).thenReturn(List.of());
+
+        String etag = mockMvc.perform(get("/portfolio/0xetag"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", matchesPattern("max-age=1[12]")))
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(etag).isNotNull();
+
+        mockMvc.perform(get("/portfolio/0xetag").header("If-None-Match", "\"other\", " + etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().string(""));
+
+        // a new head makes the snapshot stale: still served, but no longer cacheable
+        positionAggregator.expireSnapshots();
+        mockMvc.perform(get("/portfolio/0xetag").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("Cache-Control", "no-cache"));
+
+        // a new fan-out replaces the cached snapshot with one fetched later
+        when(aaveV3Service.getAccounts(anyCollection())).thenReturn(Map.of("0xetag", new AaveV3Service.AaveAccount(null, List.of())));
+        when(compoundV2Service.getPositionsByAccount(anyCollection())).thenReturn(Map.of("0xetag", List.of()));
+        when(uniswapV3Service.getPositionsByOwner(anyCollection())).thenReturn(Map.of("0xetag", List.of()));
+        positionAggregator.fetchBatch(List.of("0xetag"));
+        mockMvc.perform(get("/portfolio/0xetag").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.address").value("0xetag"))
+                .andExpect(header().string("ETag", not(etag)));
+    }
+
+    @Test
+    void doesNotLetDegradedPortfoliosBeCached() throws Exception {
+        when(aaveV3Service.getAccount("0xdegraded")).thenReturn(new AaveV3Service.AaveAccount(null, List.of()));
+        when(compoundV2Service.getPositions("0xdegraded")).thenThrow(new IllegalStateException("rpc down"));
+        when(uniswapV3Service.getPositions("0xdegraded")).thenReturn(List.of());
+
+        mockMvc.perform(get("/portfolio/0xdegraded"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andExpect(header().string("Cache-Control", "no-cache"));
+    }
+
+    @Test
+    void returnsOnePortfolioPerDistinctAddressInBatch() throws Exception {
+        PortfolioDTO.PositionDTO deposit = new PortfolioDTO.PositionDTO(
+                "Aave", "ethereum", "DAI",
+                new BigDecimal("100"), new BigDecimal("100"), BigDecimal.ZERO,
+                BigDecimal.ZERO, BigDecimal.ZERO, "OK", "DEPOSIT");
+        when(aaveV3Service.getAccounts(anyCollection())).thenReturn(Map.of(
+                "0xb1", new AaveV3Service.AaveAccount(new BigDecimal("2"), List.of(deposit)),
+                "0xb2", new AaveV3Service.AaveAccount(null, List.of())));
+        when(compoundV2Service.getPositionsByAccount(anyCollection())).thenReturn(Map.of("0xb1", List.of(), "0xb2", List.of()));
+        when(uniswapV3Service.getPositionsByOwner(anyCollection())).thenReturn(Map.of("0xb1", List.of(), "0xb2", List.of()));
+
+        mockMvc.perform(post("/portfolio/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"addresses\":[\"0xB1\",\"0xb2\",\"0xb1\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].address").value("0xB1"))
+                .andExpect(jsonPath("$[0].totalUsd").value(100))
+                .andExpect(jsonPath("$[0].positions.length()").value(1))
+                .andExpect(jsonPath("$[1].address").value("0xb2"))
+                .andExpect(jsonPath("$[1].positions.length()").value(0));
+    }
+
+    @Test
+    void rejectsEmptyBatch() throws Exception {
+        mockMvc.perform(post("/portfolio/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"addresses\":[]}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void streamsProtocolEventsFollowedByTotals() throws Exception {
+        List<PortfolioDTO.PositionDTO> aavePositions = List.of(
+                new PortfolioDTO.PositionDTO(
+                        "Aave", "ethereum", "DAI",
+                        new BigDecimal("100"), new BigDecimal("100"), new BigDecimal("0.365"),
+                        BigDecimal.ZERO, BigDecimal.ZERO, "OK", "DEPOSIT"));
+        when(aaveV3Service.getAccount("0xstream")).thenReturn(new AaveV3Service.AaveAccount(null, aavePositions));
+        when(compoundV2Service.getPositions("0xstream")).thenThrow(new IllegalStateException("rpc down"));
+        when(uniswapV3Service.getPositions("0xstream")).thenReturn(List.of());
+
+        MvcResult result = mockMvc.perform(get("/portfolio/0xstream/stream"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(5000);
+        String body = result.getResponse().getContentAsString();
+
+        assertThat(body)
+                .contains("event:protocol")
+                .contains("\"protocol\":\"Aave\",\"status\":\"OK\"")
+                .contains("\"protocol\":\"Compound\",\"status\":\"DEGRADED\"")
+                .contains("\"protocol\":\"UniswapV3\",\"status\":\"OK\"");
+        assertThat(body.indexOf("event:totals"))
+                .isGreaterThan(body.lastIndexOf("event:protocol"));
+        assertThat(body)
+                .contains("\"totalUsd\":100")
+                .contains("\"dailyYieldUsd\":0.1")
+                .contains("\"degradedProtocols\":[\"Compound\"]");
+    }
+}
@@ -0,0 +1,136 @@
+package app.dya.cache;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExpiringCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final ExpiringCache<String, Integer> cache =
+            new ExpiringCache<>(Duration.ofSeconds(10), 3, Duration.ofHours(1), now::get);
+
+    @AfterEach
+    void close() {
+        cache.close();
+    }
+
+    private void advance(Duration duration) {
+        now.addAndGet(duration.toNanos());
+    }
+
+    @Test
+    void expiresEntriesAfterTtl() {
+        cache.put("a", 1);
+        advance(Duration.ofSeconds(9));
+        assertThat(cache.get("a")).isEqualTo(1);
+
+        advance(Duration.ofSeconds(1));
+
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void putWithTtlExpiresEarlierButNeverLater() {
+        cache.put("short", 1, Duration.ofSeconds(3));
+        cache.put("long", 2, Duration.ofMinutes(5));
+
+        advance(Duration.ofSeconds(3));
+        assertThat(cache.get("short")).isNull();
+        assertThat(cache.get("long")).isEqualTo(2);
+
+        advance(Duration.ofSeconds(7));
+        assertThat(cache.get("long")).isNull();
+    }
+
+    @Test
+    void putIfAbsentKeepsLiveValuesAndReplacesExpiredOnes() {
+        assertThat(cache.putIfAbsent("a", 1)).isNull();
+        assertThat(cache.putIfAbsent("a", 2)).isEqualTo(1);
+        assertThat(cache.get("a")).isEqualTo(1);
+
+        advance(Duration.ofSeconds(10));
+
+        assertThat(cache.putIfAbsent("a", 3)).isNull();
+        assertThat(cache.get("a")).isEqualTo(3);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void evictsOldestWritesBeyondMaxSize() {
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("a", 11);
+        cache.put("c", 3);
+        cache.put("d", 4);
+
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("a")).isEqualTo(11);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void sweepRemovesExpiredEntriesWithoutReads() {
+        cache.put("a", 1);
+        advance(Duration.ofSeconds(5));
+        cache.put("b", 2);
+        cache.put("a", 3);
+        advance(Duration.ofSeconds(6));
+
+        cache.sweep();
+
+        assertThat(cache.size()).isEqualTo(2);
+        advance(Duration.ofSeconds(5));
+        cache.sweep();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.evictionCount()).isEqualTo(2);
+    }
+
+    @Test
+    void repeatedOverwritesStayBounded() {
+        for (int i = 0; i < 100_000; i++) {
+            cache.put("a", i);
+        }
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.get("a")).isEqualTo(99_999);
+        advance(Duration.ofSeconds(10));
+        cache.sweep();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void loadsMissesOnly() {
+        assertThat(cache.get("a", k -> 1)).isEqualTo(1);
+        assertThat(cache.get("a", k -> 2)).isEqualTo(1);
+        assertThat(cache.get("b", k -> null)).isNull();
+
+        assertThat(cache.loadCount()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void publishesCacheMeters() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new ExpiringCacheMetrics(cache, "prices", Tags.empty()).bindTo(registry);
+
+        cache.get("a", k -> 1);
+        cache.get("a");
+
+        assertThat(registry.get("cache.gets").tag("cache", "prices").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.loads").tag("cache", "prices").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.size").gauge().value()).isEqualTo(1);
+    }
+}
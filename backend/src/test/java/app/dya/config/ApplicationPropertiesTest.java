@@ -0,0 +1,62 @@
+package app.dya.config;
+
+import app.dya.service.aave.AaveV3Service;
+import app.dya.service.compound.CompoundV2Service;
+import app.dya.service.portfolio.PositionAggregator;
+import app.dya.service.uniswap.UniswapV3Service;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.env.SystemEnvironmentPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Binds {@code application.yaml} with environment variables the way a deployment does. */
+class ApplicationPropertiesTest {
+
+    private static ApplicationContextRunner withEnv(Map<String, Object> env) {
+        return new ApplicationContextRunner()
+                .withInitializer(context -> {
+                    try {
+                        var sources = context.getEnvironment().getPropertySources();
+                        new YamlPropertySourceLoader()
+                                .load("application.yaml", new ClassPathResource("application.yaml"))
+                                .forEach(sources::addLast);
+                        sources.addFirst(new SystemEnvironmentPropertySource(
+                                StandardEnvironment.SYSTEM_ENVIRONMENT_PROPERTY_SOURCE_NAME + "-test", env));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .withBean(AaveV3Service.class, () -> Mockito.mock(AaveV3Service.class))
+                .withBean(CompoundV2Service.class, () -> Mockito.mock(CompoundV2Service.class))
+                .withBean(UniswapV3Service.class, () -> Mockito.mock(UniswapV3Service.class))
+                .withUserConfiguration(PositionAggregator.class);
+    }
+
+    @Test
+    void bindsBatchDeadlineFromEnvironment() {
+        withEnv(Map.of("PORTFOLIO_BATCH_DEADLINE_MILLIS", "2500")).run(context -> {
+            assertThat(context).hasNotFailed();
+            assertThat(context.getEnvironment().getProperty("app.portfolio.batch.deadlineMillis")).isEqualTo("2500");
+            assertThat(ReflectionTestUtils.getField(context.getBean(PositionAggregator.class), "batchDeadline"))
+                    .isEqualTo(Duration.ofMillis(2500));
+        });
+    }
+
+    @Test
+    void defaultsBatchDeadlineTo15Seconds() {
+        withEnv(Map.of()).run(context -> assertThat(
+                ReflectionTestUtils.getField(context.getBean(PositionAggregator.class), "batchDeadline"))
+                .isEqualTo(Duration.ofSeconds(15)));
+    }
+}
@@ -0,0 +1,48 @@
+package app.dya.config;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UpstreamHttpConfigTest {
+
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withUserConfiguration(UpstreamHttpConfig.class)
+            .withPropertyValues("app.http.pool.maxTotal=40", "app.http.pool.maxPerRoute=8");
+
+    @Test
+    void restTemplatesShareThePooledRequestFactory() {
+        runner.run(context -> {
+            RestTemplateBuilder builder = new RestTemplateBuilder(context.getBean(RestTemplateCustomizer.class));
+            RestTemplate first = builder.build();
+            RestTemplate second = builder.build();
+
+            ClientHttpRequestFactory factory = context.getBean(ClientHttpRequestFactory.class);
+            assertThat(first.getRequestFactory()).isSameAs(factory);
+            assertThat(second.getRequestFactory()).isSameAs(factory);
+
+            PoolingHttpClientConnectionManager pool = context.getBean(PoolingHttpClientConnectionManager.class);
+            assertThat(pool.getMaxTotal()).isEqualTo(40);
+            assertThat(pool.getDefaultMaxPerRoute()).isEqualTo(8);
+        });
+    }
+
+    @Test
+    void publishesPoolMetrics() {
+        runner.run(context -> {
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            context.getBean(MeterBinder.class).bindTo(registry);
+
+            assertThat(registry.get("httpcomponents.httpclient.pool.total.max")
+                    .tag("httpclient", "upstream").gauge().value()).isEqualTo(40.0);
+        });
+    }
+}
@@ -0,0 +1,113 @@
+package app.dya.math;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FixedDecimalTest {
+
+    private static final String MAX_UINT256 =
+            "115792089237316195423570985008687907853269984665640564039457584007913129639935";
+
+    @Test
+    void parsesLikeBigDecimal() {
+        for (String s : new String[]{"0", "1", "-1", "+7", "1.50", "-0.000", ".5", "5.", "00012.3400",
+                "1e-7", "2.5E+3", "340282366920938463463374607431768211455",
+                "340282366920938463463374607431768211456", MAX_UINT256}) {
+            assertThat(FixedDecimal.parse(s).toBigDecimal()).as(s).isEqualTo(new BigDecimal(s));
+        }
+        assertThatThrownBy(() -> FixedDecimal.parse("")).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> FixedDecimal.parse("1.2.3")).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> FixedDecimal.parse("-")).isInstanceOf(NumberFormatException.class);
+    }
+
+    @Test
+    void parseUnitsMatchesMovePointLeft() {
+        for (String s : new String[]{"0", "1500000", "1000000000000000000", "1053000000000000000000000000",
+                MAX_UINT256}) {
+            for (int decimals : new int[]{0, 6, 8, 18, 27}) {
+                assertThat(FixedDecimal.parseUnits(s, decimals).toBigDecimal())
+                        .as(s + " / " + decimals)
+                        .isEqualTo(new BigDecimal(s).movePointLeft(decimals));
+            }
+        }
+    }
+
+    @Test
+    void arithmeticIsBitIdenticalToBigDecimal() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            BigDecimal a = randomDecimal(random);
+            BigDecimal b = randomDecimal(random);
+            FixedDecimal fa = FixedDecimal.valueOf(a);
+            FixedDecimal fb = FixedDecimal.valueOf(b);
+
+            assertThat(fa.toBigDecimal()).isEqualTo(a);
+            assertThat(fa.add(fb).toBigDecimal()).as("%s + %s", a, b).isEqualTo(a.add(b));
+            assertThat(fa.subtract(fb).toBigDecimal()).as("%s - %s", a, b).isEqualTo(a.subtract(b));
+            assertThat(fa.multiply(fb).toBigDecimal()).as("%s * %s", a, b).isEqualTo(a.multiply(b));
+            assertThat(Integer.signum(fa.compareTo(fb))).as("%s <=> %s", a, b)
+                    .isEqualTo(Integer.signum(a.compareTo(b)));
+            if (b.signum() != 0) {
+                int scale = random.nextInt(30);
+                assertThat(fa.divide(fb, scale).toBigDecimal()).as("%s / %s @%d", a, b, scale)
+                        .isEqualTo(a.divide(b, scale, RoundingMode.HALF_UP));
+            }
+        }
+    }
+
+    @Test
+    void roundsHalfUpAwayFromZero() {
+        assertThat(FixedDecimal.parse("2.5").divide(FixedDecimal.ONE, 0).toBigDecimal())
+                .isEqualTo(new BigDecimal("3"));
+        assertThat(FixedDecimal.parse("-2.5").divide(FixedDecimal.ONE, 0).toBigDecimal())
+                .isEqualTo(new BigDecimal("-3"));
+        assertThat(FixedDecimal.parse("1").divide(FixedDecimal.valueOf(3, 0), 2).toBigDecimal())
+                .isEqualTo(new BigDecimal("0.33"));
+        assertThatThrownBy(() -> FixedDecimal.ONE.divide(FixedDecimal.ZERO, 2))
+                .isInstanceOf(ArithmeticException.class);
+    }
+
+    @Test
+    void fallsBackBeyond128Bits() {
+        FixedDecimal max = FixedDecimal.parseUnits(MAX_UINT256, 18);
+        BigDecimal expected = new BigDecimal(MAX_UINT256).movePointLeft(18);
+
+        assertThat(max.toBigDecimal()).isEqualTo(expected);
+        assertThat(max.compareTo(FixedDecimal.parse("1.3"))).isPositive();
+        assertThat(max.multiply(FixedDecimal.parse("2.5")).toBigDecimal())
+                .isEqualTo(expected.multiply(new BigDecimal("2.5")));
+        assertThat(max.divide(max, 4).toBigDecimal()).isEqualTo(new BigDecimal("1.0000"));
+        assertThat(max.subtract(max).toBigDecimal()).isEqualTo(expected.subtract(expected));
+    }
+
+    @Test
+    void dividesAcrossTheFull128BitRange() {
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            BigInteger u = new BigInteger(1 + random.nextInt(128), random);
+            BigInteger v = new BigInteger(1 + random.nextInt(128), random).add(BigInteger.ONE);
+            BigDecimal expected = new BigDecimal(u).divide(new BigDecimal(v), 0, RoundingMode.HALF_UP);
+            assertThat(FixedDecimal.valueOf(new BigDecimal(u)).divide(FixedDecimal.valueOf(new BigDecimal(v)), 0)
+                    .toBigDecimal()).as("%s / %s", u, v).isEqualTo(expected);
+        }
+    }
+
+    private static BigDecimal randomDecimal(Random random) {
+        int bits = switch (random.nextInt(4)) {
+            case 0 -> random.nextInt(20);
+            case 1 -> random.nextInt(64);
+            case 2 -> random.nextInt(128);
+            default -> random.nextInt(200);
+        };
+        BigInteger unscaled = new BigInteger(bits, random);
+        if (random.nextBoolean()) unscaled = unscaled.negate();
+        return new BigDecimal(unscaled, random.nextInt(28));
+    }
+}
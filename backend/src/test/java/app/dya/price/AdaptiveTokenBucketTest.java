@@ -0,0 +1,74 @@
+package app.dya.price;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveTokenBucketTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private void advance(Duration d) {
+        now.addAndGet(d.toNanos());
+    }
+
+    @Test
+    void allowsBurstThenRefillsAtRate() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(60, 2, now::get);
+
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+
+        advance(Duration.ofMillis(900));
+        assertFalse(bucket.tryAcquire());
+        advance(Duration.ofMillis(100));
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    void pausesForRetryAfterAndHalvesRate() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(60, 5, now::get);
+
+        bucket.onThrottled(Duration.ofSeconds(10));
+
+        assertEquals(30, bucket.callsPerMinute(), 1e-9);
+        advance(Duration.ofSeconds(9));
+        assertFalse(bucket.tryAcquire());
+        advance(Duration.ofSeconds(1));
+        assertFalse(bucket.tryAcquire()); // no tokens refilled during the pause
+        advance(Duration.ofSeconds(2));
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    void backsOffExponentiallyWithoutRetryAfter() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(600, 5, now::get);
+
+        bucket.onThrottled(null); // 5 s pause, then 300 calls/min
+        advance(Duration.ofMillis(5_300));
+        assertTrue(bucket.tryAcquire());
+
+        bucket.onThrottled(null); // 10 s pause, then 150 calls/min
+        advance(Duration.ofMillis(5_300));
+        assertFalse(bucket.tryAcquire());
+        advance(Duration.ofMillis(5_200));
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    void recoversRateOnSuccessAndNeverDropsBelowFloor() {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(160, 5, now::get);
+
+        for (int i = 0; i < 10; i++) bucket.onThrottled(Duration.ZERO);
+        assertEquals(10, bucket.callsPerMinute(), 1e-9);
+
+        bucket.onSuccess();
+        assertEquals(26, bucket.callsPerMinute(), 1e-9);
+        for (int i = 0; i < 20; i++) bucket.onSuccess();
+        assertEquals(160, bucket.callsPerMinute(), 1e-9);
+    }
+}
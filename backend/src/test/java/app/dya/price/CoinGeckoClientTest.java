@@ -1,17 +1,27 @@
 package app.dya.price;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.test.web.client.match.MockRestRequestMatchers;
 import org.springframework.test.web.client.response.MockRestResponseCreators;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
 
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 class CoinGeckoClientTest {
 
@@ -33,4 +43,106 @@ class CoinGeckoClientTest {
 
         server.verify();
     }
+
+    @Test
+    void skipsCallsUntilRetryAfterHasPassed() {
+        RestClient.Builder builder = RestClient.builder().baseUrl("http://localhost");
+        MockRestServiceServer server = MockRestServiceServer.bindTo(builder).build();
+
+        CoinGeckoClient client = new CoinGeckoClient(
+                "http://localhost", null, null, 1000, 1000, null, 0
+        );
+        ReflectionTestUtils.setField(client, "rest", builder.build());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "120");
+        server.expect(ExpectedCount.once(), MockRestRequestMatchers.anything())
+                .andRespond(MockRestResponseCreators.withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(headers));
+
+        assertTrue(client.fetchUsdPricesByIds(Set.of("bitcoin")).isEmpty());
+        assertTrue(client.fetchUsdPricesByIds(Set.of("bitcoin")).isEmpty());
+
+        server.verify();
+    }
+
+    @Test
+    void parsesRetryAfterSecondsAndDates() {
+        HttpHeaders seconds = new HttpHeaders();
+        seconds.set(HttpHeaders.RETRY_AFTER, "30");
+        assertEquals(Duration.ofSeconds(30), CoinGeckoClient.retryAfter(tooManyRequests(seconds)));
+
+        HttpHeaders date = new HttpHeaders();
+        date.set(HttpHeaders.RETRY_AFTER, DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().plusMinutes(2)));
+        Duration parsed = CoinGeckoClient.retryAfter(tooManyRequests(date));
+        assertTrue(parsed.compareTo(Duration.ofSeconds(100)) > 0 && parsed.compareTo(Duration.ofSeconds(121)) < 0);
+
+        HttpHeaders garbage = new HttpHeaders();
+        garbage.set(HttpHeaders.RETRY_AFTER, "soon");
+        assertNull(CoinGeckoClient.retryAfter(tooManyRequests(garbage)));
+        assertNull(CoinGeckoClient.retryAfter(tooManyRequests(new HttpHeaders())));
+    }
+
+    private static RestClientResponseException tooManyRequests(HttpHeaders headers) {
+        return new RestClientResponseException("throttled", 429, "Too Many Requests", headers, null, null);
+    }
+
+    @Test
+    void splitsIdsByCountAndLength() {
+        SortedSet<String> ids = new TreeSet<>(List.of("aa", "bb", "cc", "dd", "eeeeeeee"));
+
+        assertEquals(List.of("aa,bb", "cc,dd", "eeeeeeee"), CoinGeckoClient.chunk(ids, 2, 100));
+        assertEquals(List.of("aa,bb", "cc,dd", "eeeeeeee"), CoinGeckoClient.chunk(ids, 10, 6));
+        assertEquals(List.of("aa,bb,cc,dd,eeeeeeee"), CoinGeckoClient.chunk(ids, 10, 100));
+    }
+
+    @Test
+    void fetchesLargeIdSetsInChunksAndMergesThem() {
+        RestClient.Builder builder = RestClient.builder().baseUrl("http://localhost");
+        MockRestServiceServer server = MockRestServiceServer.bindTo(builder).ignoreExpectOrder(true).build();
+
+        CoinGeckoClient client = new CoinGeckoClient(
+                "http://localhost", null, null, 1000, 1000, null, 0
+        );
+        ReflectionTestUtils.setField(client, "rest", builder.build());
+
+        Set<String> ids = new TreeSet<>();
+        for (int i = 0; i < 600; i++) ids.add("token-%03d".formatted(i));
+        // 2000 characters hold 200 of these ids
+        List<String> chunks = CoinGeckoClient.chunk(new TreeSet<>(ids), 250, 2000);
+        assertEquals(3, chunks.size());
+        for (String chunk : chunks) {
+            String first = chunk.substring(0, chunk.indexOf(','));
+            server.expect(ExpectedCount.once(), MockRestRequestMatchers.queryParam("ids", chunk))
+                    .andRespond(MockRestResponseCreators.withSuccess(
+                            "{\"" + first + "\":{\"usd\":1.5}}", MediaType.APPLICATION_JSON));
+        }
+
+        Map<String, Map<String, Double>> result = client.fetchUsdPricesByIds(ids);
+
+        assertEquals(Set.of("token-000", "token-200", "token-400"), result.keySet());
+        server.verify();
+    }
+
+    @Test
+    void returnsPricesOfChunksThatSucceeded() {
+        RestClient.Builder builder = RestClient.builder().baseUrl("http://localhost");
+        MockRestServiceServer server = MockRestServiceServer.bindTo(builder).ignoreExpectOrder(true).build();
+
+        CoinGeckoClient client = new CoinGeckoClient(
+                "http://localhost", null, null, 1000, 1000, null, 0
+        );
+        ReflectionTestUtils.setField(client, "rest", builder.build());
+
+        Set<String> ids = new TreeSet<>();
+        for (int i = 0; i < 300; i++) ids.add("token-%03d".formatted(i));
+        List<String> chunks = CoinGeckoClient.chunk(new TreeSet<>(ids), 250, 2000);
+        server.expect(ExpectedCount.once(), MockRestRequestMatchers.queryParam("ids", chunks.get(0)))
+                .andRespond(MockRestResponseCreators.withServerError());
+        server.expect(ExpectedCount.once(), MockRestRequestMatchers.queryParam("ids", chunks.get(1)))
+                .andRespond(MockRestResponseCreators.withSuccess(
+                        "{\"token-299\":{\"usd\":2.0}}", MediaType.APPLICATION_JSON));
+
+        assertEquals(Map.of("token-299", Map.of("usd", 2.0)), client.fetchUsdPricesByIds(ids));
+        server.verify();
+    }
 }
@@ -0,0 +1,160 @@
+package app.dya.price;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObservedPricesTest {
+
+    private static final String DAI = "0x6b175474e89094c44da98b954eedeac495271d0f";
+    private static final String USDC = "0xa0b86991c6218b36c1d19d4a2e9eb0ce3606eb48";
+
+    private Instant now = Instant.parse("2025-08-14T08:00:00Z");
+    private final Clock clock = new Clock() {
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return now; }
+    };
+    private final ObservedPrices prices = new ObservedPrices(Duration.ofMinutes(2), 0.02, 3, 1, clock);
+
+    @Test
+    void agreesOnTheMedianOfFreshSources() {
+        prices.publish(DAI, "aave", 1.001);
+        now = now.plusSeconds(30);
+        prices.publish(DAI.toUpperCase().replace("0X", "0x"), "uniswap", 0.999);
+        prices.publish(DAI, "curve", 1.0);
+
+        ObservedPrices.Observation consensus = prices.consensus(DAI).orElseThrow();
+
+        assertEquals(1.0, consensus.usd(), 1e-12);
+        assertEquals(now.minusSeconds(30), consensus.observedAt());
+        assertEquals(3, consensus.source().split(",").length);
+    }
+
+    @Test
+    void keepsBothSourcesOfATokenFirstReportedConcurrently() throws Exception {
+        // both publishers read the clock at the same time, i.e. both are past their lookup
+        CyclicBarrier together = new CyclicBarrier(2);
+        AtomicBoolean publishing = new AtomicBoolean(true);
+        Clock meetingClock = new Clock() {
+            @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+            @Override public Clock withZone(ZoneId zone) { return this; }
+            @Override public Instant instant() {
+                if (!publishing.get()) return now;
+                try {
+                    together.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return now;
+            }
+        };
+        ObservedPrices racing = new ObservedPrices(Duration.ofMinutes(2), 0.02, 3, 2, meetingClock);
+
+        try (ExecutorService sources = Executors.newVirtualThreadPerTaskExecutor()) {
+            sources.submit(() -> racing.publish(DAI, "aave", 1.0));
+            sources.submit(() -> racing.publish(DAI, "uniswap", 1.0));
+        }
+
+        publishing.set(false);
+
+        // two sources are required, so a lost observation leaves no consensus
+        assertEquals(2, racing.consensus(DAI).orElseThrow().source().split(",").length);
+    }
+
+    @Test
+    void ignoresStaleObservations() {
+        prices.publish(DAI, "aave", 1.0);
+        now = now.plus(Duration.ofMinutes(2));
+        prices.publish(DAI, "uniswap", 1.5);
+        now = now.plusSeconds(1);
+
+        assertEquals(1.5, prices.consensus(DAI).orElseThrow().usd());
+        now = now.plus(Duration.ofMinutes(2));
+        assertTrue(prices.consensus(DAI).isEmpty());
+        assertTrue(prices.knows(DAI));
+    }
+
+    @Test
+    void rejectsDivergingSources() {
+        prices.publish(USDC, "aave", 1.0);
+        prices.publish(USDC, "uniswap", 1.03);
+
+        assertTrue(prices.consensus(USDC).isEmpty());
+
+        prices.publish(USDC, "uniswap", 1.01);
+        assertEquals(1.005, prices.consensus(USDC).orElseThrow().usd(), 1e-12);
+    }
+
+    @Test
+    void trustsASingleSourceOnlyNearTheReferencePrice() {
+        ObservedPrices twoSources = new ObservedPrices(Duration.ofMinutes(2), 0.02, 3, 2, clock);
+        twoSources.publish(DAI, "uniswap", 1.01);
+
+        assertTrue(twoSources.consensus(DAI).isEmpty());
+        assertTrue(twoSources.consensus(DAI, 1.2).isEmpty());
+        assertEquals(1.01, twoSources.consensus(DAI, 1.0).orElseThrow().usd());
+
+        twoSources.publish(DAI, "aave", 1.0);
+        assertEquals(1.005, twoSources.consensus(DAI).orElseThrow().usd(), 1e-12);
+    }
+
+    @Test
+    void ignoresInvalidObservations() {
+        prices.publish(null, "aave", 1.0);
+        prices.publish("DAI", "aave", 1.0);
+        prices.publish(DAI, "aave", 0);
+        prices.publish(DAI, "aave", Double.NaN);
+
+        assertFalse(prices.knows(DAI));
+        assertTrue(prices.consensus(DAI).isEmpty());
+        assertTrue(prices.consensus(null).isEmpty());
+    }
+
+    @Test
+    void dropsTheLeastRecentlyObservedTokenWhenFull() {
+        prices.publish("0x" + "1".repeat(40), "aave", 1);
+        prices.publish("0x" + "2".repeat(40), "aave", 1);
+        prices.publish("0x" + "3".repeat(40), "aave", 1);
+        prices.publish("0x" + "1".repeat(40), "uniswap", 1);
+        prices.publish("0x" + "4".repeat(40), "aave", 1);
+
+        assertTrue(prices.knows("0x" + "4".repeat(40)));
+        assertTrue(prices.knows("0x" + "1".repeat(40)));
+        assertFalse(prices.knows("0x" + "2".repeat(40)));
+        assertEquals(2, prices.consensus("0x" + "1".repeat(40)).orElseThrow().source().split(",").length);
+    }
+
+    @Test
+    void publishesCacheMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        prices.cacheMetrics().bindTo(registry);
+        prices.publish(DAI, "aave", 1.0);
+        prices.consensus(DAI);
+        prices.consensus(USDC);
+
+        assertEquals(1.0, registry.get("cache.puts").tag("cache", "observed-prices").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "observed-prices").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void disabledStoreKeepsNothing() {
+        ObservedPrices disabled = ObservedPrices.disabled();
+        disabled.publish(DAI, "aave", 1.0);
+
+        assertFalse(disabled.knows(DAI));
+        assertTrue(disabled.consensus(DAI).isEmpty());
+    }
+}
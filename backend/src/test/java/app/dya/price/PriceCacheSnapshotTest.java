@@ -0,0 +1,93 @@
+package app.dya.price;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PriceCacheSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restartedServiceAnswersFromRestoredCache() {
+        Path file = dir.resolve("snapshots/prices.bin");
+        CoinGeckoClient before = mock(CoinGeckoClient.class);
+        when(before.fetchUsdPricesByIds(anySet())).thenReturn(Map.of(
+                "ethereum", Map.of("usd", 2500.0),
+                "staked-ether", Map.of("usd", 2490.0)));
+        PriceService first = new PriceService(before, 10);
+        first.getUsdPrices(List.of("ETH", "stETH"));
+        new PriceCacheSnapshot(first, file).save();
+
+        CoinGeckoClient after = mock(CoinGeckoClient.class);
+        PriceService restarted = new PriceService(after, 10);
+        assertEquals(2, new PriceCacheSnapshot(restarted, file).load());
+
+        assertEquals(Map.of("ETH", 2500.0, "stETH", 2490.0), restarted.getUsdPrices(List.of("eth", "steth")));
+        assertEquals(first.fetchedAt("ETH").toEpochMilli(), restarted.fetchedAt("ETH").toEpochMilli());
+        verifyNoInteractions(after);
+    }
+
+    @Test
+    void pricesOlderThanTheTtlAreOnlyKeptAsLastKnownGood() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        Instant old = Instant.now().minus(Duration.ofMinutes(11));
+        assertTrue(service.restore("ETH", new PriceService.Quote(2400.0, old, false)));
+        when(client.fetchUsdPricesByIds(eq(Set.of("ethereum")))).thenReturn(Map.of());
+
+        PriceService.Quote quote = service.getUsdQuotes(List.of("ETH")).get("ETH");
+
+        assertEquals(new PriceService.Quote(2400.0, old, true), quote);
+        verify(client).fetchUsdPricesByIds(eq(Set.of("ethereum")));
+    }
+
+    @Test
+    void restoreKeepsNewerPricesAndSkipsUnknownSymbols() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        when(client.fetchUsdPricesByIds(anySet())).thenReturn(Map.of("ethereum", Map.of("usd", 2500.0)));
+        PriceService service = new PriceService(client, 10);
+        service.getUsdPrices(List.of("ETH"));
+
+        service.restore("ETH", new PriceService.Quote(2000.0, Instant.now().minusSeconds(30), false));
+
+        assertFalse(service.restore("DOGE", new PriceService.Quote(0.1, Instant.now(), false)));
+        assertEquals(Map.of("ETH", 2500.0), service.getUsdPrices(List.of("ETH")));
+    }
+
+    @Test
+    void ignoresMissingAndDamagedFiles() throws IOException {
+        PriceService service = new PriceService(mock(CoinGeckoClient.class), 10);
+        Path file = dir.resolve("prices.bin");
+
+        assertEquals(0, new PriceCacheSnapshot(service, file).load());
+        Files.write(file, new byte[]{1, 2, 3});
+        assertEquals(0, new PriceCacheSnapshot(service, file).load());
+        Files.write(file, new byte[]{0x44, 0x59, 0x41, 0x50, 0, 0, 0, 1, 0, 0, 0, 5});
+        assertEquals(0, new PriceCacheSnapshot(service, file).load());
+        assertTrue(service.lastKnownPrices().isEmpty());
+    }
+
+    @Test
+    void writesNothingBeforeTheFirstPrice() {
+        Path file = dir.resolve("prices.bin");
+
+        new PriceCacheSnapshot(new PriceService(mock(CoinGeckoClient.class), 10), file).save();
+
+        assertFalse(Files.exists(file));
+    }
+}
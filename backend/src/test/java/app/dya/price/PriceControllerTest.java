@@ -0,0 +1,137 @@
+package app.dya.price;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(controllers = PriceController.class)
+class PriceControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private PriceService priceService;
+
+    @Test
+    void marksStalePricesWithHeaders() throws Exception {
+        Instant fetchedAt = Instant.now().minus(Duration.ofMinutes(3));
+        when(priceService.getUsdQuotes(List.of("eth", "dai"))).thenReturn(Map.of(
+                "ETH", new PriceService.Quote(2500.0, fetchedAt, true)));
+
+        mockMvc.perform(get("/prices").param("symbols", "eth,dai"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ETH").value(2500.0))
+                .andExpect(header().string("X-Stale-Prices", "ETH"))
+                .andExpect(header().string("Age", "180"));
+    }
+
+    @Test
+    void answersUnchangedPricesWithNotModified() throws Exception {
+        when(priceService.ttl()).thenReturn(Duration.ofMinutes(10));
+        when(priceService.getUsdQuotes(List.of("eth"))).thenReturn(Map.of(
+                "ETH", new PriceService.Quote(2500.0, Instant.now(), false)));
+
+        String etag = mockMvc.perform(get("/prices").param("symbols", "eth"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ETH").value(2500.0))
+                .andExpect(header().string("Cache-Control", matchesPattern("max-age=(599|600)")))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotNull(etag);
+
+        mockMvc.perform(get("/prices").param("symbols", "eth").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().string(""));
+
+        when(priceService.getUsdQuotes(List.of("eth"))).thenReturn(Map.of(
+                "ETH", new PriceService.Quote(2510.0, Instant.now(), false)));
+        mockMvc.perform(get("/prices").param("symbols", "eth").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ETH").value(2510.0))
+                .andExpect(header().string("ETag", not(etag)));
+    }
+
+    @Test
+    void changesETagWhenOnlyTheFetchTimeChanges() {
+        Instant fetchedAt = Instant.parse("2025-08-14T08:00:00Z");
+        String etag = PriceController.etag(Map.of("ETH", new PriceService.Quote(2500.0, fetchedAt, false)));
+
+        assertEquals(etag, PriceController.etag(Map.of("ETH", new PriceService.Quote(2500.0, fetchedAt, false))));
+        assertNotEquals(etag, PriceController.etag(Map.of("ETH", new PriceService.Quote(2500.0, fetchedAt.plusNanos(1), false))));
+        assertNotEquals(etag, PriceController.etag(Map.of("ETH", new PriceService.Quote(2500.0, fetchedAt, true))));
+    }
+
+    @Test
+    void doesNotLetStalePricesBeCached() throws Exception {
+        when(priceService.ttl()).thenReturn(Duration.ofMinutes(10));
+        when(priceService.getUsdQuotes(List.of("eth"))).thenReturn(Map.of(
+                "ETH", new PriceService.Quote(2500.0, Instant.now().minus(Duration.ofMinutes(30)), true)));
+
+        mockMvc.perform(get("/prices").param("symbols", "eth"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andExpect(header().string("Cache-Control", "no-cache"));
+    }
+
+    @Test
+    void writesHistoryPointsAsPairs() throws Exception {
+        Instant from = Instant.parse("2025-08-13T08:00:00Z");
+        Instant to = Instant.parse("2025-08-14T08:00:00Z");
+        when(priceService.registrySymbol("steth")).thenReturn("stETH");
+        when(priceService.history(eq("stETH"), eq(from), eq(to), eq(50), any())).thenAnswer(inv -> {
+            PriceHistory.PointConsumer out = inv.getArgument(4);
+            out.accept(1723622400000L, 2500.5);
+            out.accept(1723626000000L, 2510.0);
+            return 2;
+        });
+
+        mockMvc.perform(get("/prices/history").param("symbol", "steth")
+                        .param("from", from.toString()).param("to", to.toString()).param("points", "50"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("""
+                        {"symbol":"stETH","points":[[1723622400000,2500.5],[1723626000000,2510.0]]}
+                        """, true));
+    }
+
+    @Test
+    void writesEmptyHistory() throws Exception {
+        when(priceService.registrySymbol("ETH")).thenReturn("ETH");
+        when(priceService.history(eq("ETH"), any(), any(), anyInt(), any())).thenReturn(0);
+
+        mockMvc.perform(get("/prices/history").param("symbol", "ETH"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"symbol\":\"ETH\",\"points\":[]}", true));
+    }
+
+    @Test
+    void rejectsUnknownSymbolsAndBadRanges() throws Exception {
+        mockMvc.perform(get("/prices/history").param("symbol", "DOGE"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/prices/history").param("symbol", "ETH").param("points", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/prices/history").param("symbol", "ETH")
+                        .param("from", "2025-08-14T08:00:00Z").param("to", "2025-08-13T08:00:00Z"))
+                .andExpect(status().isBadRequest());
+        verify(priceService, never()).history(any(), any(), any(), anyInt(), any());
+    }
+}
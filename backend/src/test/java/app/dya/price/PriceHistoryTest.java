@@ -0,0 +1,123 @@
+package app.dya.price;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriceHistoryTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<double[]> query(PriceHistory history, String symbol, long from, long to, int maxPoints) {
+        List<double[]> points = new ArrayList<>();
+        int emitted = history.query(symbol, from, to, maxPoints, (t, usd) -> points.add(new double[]{t, usd}));
+        assertEquals(points.size(), emitted);
+        return points;
+    }
+
+    @Test
+    void returnsPointsInRangeOldestFirst() {
+        PriceHistory history = new PriceHistory((Path) null, 4, 10);
+        for (int i = 0; i < 5; i++) history.append("ETH", 1000 + i * 100, 2000 + i);
+        history.append("DAI", 1000, 1.0);
+
+        List<double[]> points = query(history, "ETH", 1100, 1300, 100);
+
+        assertEquals(3, points.size());
+        assertArrayEquals(new double[]{1100, 2001}, points.get(0));
+        assertArrayEquals(new double[]{1300, 2003}, points.get(2));
+        assertTrue(query(history, "USDC", 0, Long.MAX_VALUE, 10).isEmpty());
+        assertTrue(query(history, "ETH", 2000, 3000, 10).isEmpty());
+    }
+
+    @Test
+    void keepsTheLatestCapacityPoints() {
+        PriceHistory history = new PriceHistory((Path) null, 1, 4);
+        for (int i = 0; i < 10; i++) history.append("ETH", i, i);
+
+        List<double[]> points = query(history, "ETH", 0, 100, 100);
+
+        assertEquals(4, history.size("ETH"));
+        assertEquals(List.of(6.0, 7.0, 8.0, 9.0), points.stream().map(p -> p[1]).toList());
+    }
+
+    @Test
+    void downsamplesToTheLastPointOfEachBucket() {
+        PriceHistory history = new PriceHistory((Path) null, 1, 1000);
+        for (int i = 0; i < 1000; i++) history.append("ETH", i, i);
+
+        List<double[]> points = query(history, "ETH", 0, 999, 10);
+
+        assertEquals(10, points.size());
+        assertArrayEquals(new double[]{99, 99}, points.get(0));
+        assertArrayEquals(new double[]{999, 999}, points.get(9));
+    }
+
+    @Test
+    void skipsPricesThatAreNotFinite() {
+        PriceHistory history = new PriceHistory((Path) null, 1, 10);
+
+        assertFalse(history.append("ETH", 1000, Double.NaN));
+        assertFalse(history.append("ETH", 1100, Double.POSITIVE_INFINITY));
+        assertFalse(history.append("ETH", 1200, Double.NEGATIVE_INFINITY));
+        assertTrue(history.append("ETH", 1300, 2500.5));
+
+        List<double[]> points = query(history, "ETH", 0, 2000, 10);
+        assertEquals(1, points.size());
+        assertArrayEquals(new double[]{1300, 2500.5}, points.get(0));
+    }
+
+    @Test
+    void neverMovesTimeBackwards() {
+        PriceHistory history = new PriceHistory((Path) null, 1, 10);
+        history.append("ETH", 2000, 1);
+        history.append("ETH", 1000, 2);
+
+        List<double[]> points = query(history, "ETH", 0, 5000, 10);
+
+        assertArrayEquals(new double[]{2000, 2}, points.get(points.size() - 1));
+    }
+
+    @Test
+    void dropsSymbolsBeyondMaxSymbols() {
+        PriceHistory history = new PriceHistory((Path) null, 1, 10);
+
+        assertTrue(history.append("ETH", 1, 1));
+        assertFalse(history.append("DAI", 1, 1));
+        assertEquals(0, history.size("DAI"));
+    }
+
+    @Test
+    void survivesReopeningTheFile() {
+        Path file = dir.resolve("history/prices.bin");
+        try (PriceHistory history = new PriceHistory(file, 4, 8)) {
+            history.append("ETH", 1000, 2500.5);
+            history.append("stETH", 1000, 2499.0);
+        }
+
+        try (PriceHistory reopened = new PriceHistory(file, 4, 8)) {
+            assertArrayEquals(new double[]{1000, 2500.5}, query(reopened, "ETH", 0, 2000, 10).get(0));
+            assertEquals(1, reopened.size("stETH"));
+            reopened.append("ETH", 2000, 2600);
+            assertEquals(2, reopened.size("ETH"));
+        }
+    }
+
+    @Test
+    void startsOverWhenTheLayoutChanged() {
+        Path file = dir.resolve("prices.bin");
+        try (PriceHistory history = new PriceHistory(file, 4, 8)) {
+            history.append("ETH", 1000, 2500.5);
+        }
+
+        try (PriceHistory resized = new PriceHistory(file, 4, 16)) {
+            assertEquals(0, resized.size("ETH"));
+        }
+    }
+}
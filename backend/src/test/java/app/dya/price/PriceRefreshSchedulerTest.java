@@ -0,0 +1,108 @@
+package app.dya.price;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class PriceRefreshSchedulerTest {
+
+    private static final Instant NOW = Instant.parse("2025-08-14T08:00:00Z");
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final RequestFrequency frequency = new RequestFrequency(Duration.ofMinutes(10), nanos::get);
+    private final PriceService priceService = mock(PriceService.class);
+    private final CoinGeckoClient client = mock(CoinGeckoClient.class);
+
+    private PriceRefreshScheduler scheduler(int callBudget) {
+        return scheduler(callBudget, null);
+    }
+
+    private PriceRefreshScheduler scheduler(int callBudget, Duration allInterval) {
+        return new PriceRefreshScheduler(priceService, TokenRegistry.bundled(), frequency, client,
+                1, 0.05, Duration.ofSeconds(60), Duration.ofSeconds(300), callBudget, allInterval,
+                Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    /**
+     * {@code times} requests for {@code symbol}. With a 10 minute half-life, 15 or more are
+     * about one a minute (hot) and a single one is above the warm threshold.
+     */
+    private void request(String symbol, int times) {
+        for (int i = 0; i < times; i++) frequency.record(symbol);
+    }
+
+    @Test
+    void refreshesHotAndWarmSymbolsByAgeAndSkipsColdOnes() {
+        request("WBTC", 1);
+        frequency.perMinute();
+        nanos.addAndGet(Duration.ofMinutes(10).toNanos()); // WBTC decays below warm
+        request("ETH", 30);
+        request("DAI", 5);
+        request("USDC", 5);
+        when(client.requestsFor(anyCollection())).thenReturn(1);
+        when(priceService.fetchedAt("ETH")).thenReturn(NOW.minusSeconds(61));
+        when(priceService.fetchedAt("DAI")).thenReturn(NOW.minusSeconds(299));
+
+        assertEquals(List.of("ETH", "USDC"), scheduler(2).due());
+    }
+
+    @Test
+    void refreshesEveryTokenByAgeWhenRefreshMinutesIsSet() {
+        request("ETH", 30);
+        when(client.requestsFor(anyCollection())).thenReturn(1);
+        when(priceService.fetchedAt(anyString())).thenReturn(NOW.minus(Duration.ofMinutes(10)));
+        when(priceService.fetchedAt("DAI")).thenReturn(NOW.minus(Duration.ofMinutes(4)));
+
+        List<String> due = scheduler(2, Duration.ofMinutes(5)).due();
+
+        assertEquals("ETH", due.get(0));
+        assertEquals(TokenRegistry.bundled().tokens().size() - 1, due.size());
+        assertFalse(due.contains("DAI"));
+    }
+
+    @Test
+    void skipsHotSymbolsFetchedRecently() {
+        request("ETH", 60);
+        when(client.requestsFor(anyCollection())).thenReturn(1);
+        when(priceService.fetchedAt("ETH")).thenReturn(NOW.minusSeconds(30));
+
+        PriceRefreshScheduler scheduler = scheduler(2);
+        scheduler.refresh();
+
+        assertTrue(scheduler.due().isEmpty());
+        verify(priceService, never()).refresh(any());
+    }
+
+    @Test
+    void stopsAtTheCallBudgetWithTheMostRequestedFirst() {
+        request("ETH", 300);
+        request("DAI", 200);
+        request("USDC", 100);
+        when(client.requestsFor(anyCollection())).thenAnswer(inv -> inv.<Collection<?>>getArgument(0).size());
+
+        assertEquals(List.of("ETH", "DAI"), scheduler(2).due());
+    }
+
+    @Test
+    void refreshesDueSymbolsAndSwallowsFailures() {
+        request("ETH", 100);
+        when(client.requestsFor(anyCollection())).thenReturn(1);
+        when(priceService.refresh(any())).thenThrow(new CoinGeckoClientException(500, "Error fetching prices", null));
+
+        assertDoesNotThrow(() -> scheduler(1).refresh());
+
+        verify(priceService).refresh(List.of("ETH"));
+    }
+}
@@ -1,11 +1,23 @@
 package app.dya.price;
 
+import app.dya.cache.ExpiringCache;
 import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.RestClientResponseException;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anySet;
@@ -60,4 +72,300 @@ class PriceServiceTest {
 
         verify(client, times(1)).fetchUsdPricesByIds(anySet());
     }
+
+    @Test
+    void pricesAnyRegistryTokenUnderItsRegistrySymbol() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        when(client.fetchUsdPricesByIds(eq(Set.of("staked-ether", "wrapped-bitcoin")))).thenReturn(Map.of(
+                "staked-ether", Map.of("usd", 3000.0),
+                "wrapped-bitcoin", Map.of("usd", 60000.0)
+        ));
+
+        Map<String, Double> prices = service.getUsdPrices(List.of("steth", "WBTC", "stETH"));
+
+        assertEquals(Map.of("stETH", 3000.0, "WBTC", 60000.0), prices);
+    }
+
+    @Test
+    void refreshBypassesTheCacheAndIsNotCountedAsRequest() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        RequestFrequency frequency = new RequestFrequency(Duration.ofMinutes(10));
+        PriceService service = new PriceService(client, TokenRegistry.bundled(), frequency,
+                new PriceHistory((Path) null, 8, 16), ObservedPrices.disabled(), 10, 100);
+        when(client.fetchUsdPricesByIds(eq(Set.of("ethereum"))))
+                .thenReturn(Map.of("ethereum", Map.of("usd", 100.0)))
+                .thenReturn(Map.of("ethereum", Map.of("usd", 105.0)));
+        service.getUsdPrices(List.of("eth"));
+        Instant first = service.fetchedAt("ETH");
+
+        Map<String, PriceService.Quote> refreshed = service.refresh(List.of("eth", "doge"));
+
+        assertEquals(Set.of("ETH"), refreshed.keySet());
+        assertEquals(105.0, refreshed.get("ETH").usd());
+        assertEquals(Map.of("ETH", 105.0), service.getUsdPrices(List.of("eth")));
+        assertFalse(service.fetchedAt("ETH").isBefore(first));
+        assertNull(service.fetchedAt("DAI"));
+        // two requests, the refresh not among them
+        assertEquals(2 * Math.log(2) / 10, frequency.perMinute().get("ETH"), 1e-3);
+        verify(client, times(2)).fetchUsdPricesByIds(anySet());
+    }
+
+    @Test
+    void recordsEveryFetchedPriceInTheHistory() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceHistory history = new PriceHistory((Path) null, 8, 16);
+        PriceService service = new PriceService(client, TokenRegistry.bundled(),
+                new RequestFrequency(Duration.ofMinutes(10)), history, ObservedPrices.disabled(), 10, 100);
+        when(client.fetchUsdPricesByIds(anySet()))
+                .thenReturn(Map.of("ethereum", Map.of("usd", 100.0)))
+                .thenReturn(Map.of("ethereum", Map.of("usd", 101.0)));
+        service.getUsdPrices(List.of("eth", "dai"));
+        service.refresh(List.of("eth"));
+
+        List<Double> prices = new ArrayList<>();
+        int emitted = service.history("eth", Instant.EPOCH, Instant.now().plusSeconds(1), 10, (t, usd) -> prices.add(usd));
+
+        assertEquals(2, history.size("ETH"));
+        assertEquals(101.0, prices.get(prices.size() - 1));
+        assertEquals(prices.size(), emitted);
+        assertEquals(0, history.size("DAI"));
+        assertEquals(-1, service.history("doge", Instant.EPOCH, Instant.now(), 10, (t, usd) -> {}));
+    }
+
+    private static PriceService withObserved(CoinGeckoClient client, ObservedPrices observed) {
+        return new PriceService(client, TokenRegistry.bundled(), new RequestFrequency(Duration.ofMinutes(10)),
+                new PriceHistory((Path) null, 8, 16), observed, 10, 100);
+    }
+
+    @Test
+    void servesProtocolPricesBeforeCallingCoinGecko() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        ObservedPrices observed = new ObservedPrices(120, 0.02, 100, 2);
+        observed.publish("0x6B175474E89094C44Da98b954EedeAC495271d0F", "aave", 1.0002);
+        observed.publish("0x6B175474E89094C44Da98b954EedeAC495271d0F", "uniswap", 0.9998);
+        PriceService service = withObserved(client, observed);
+
+        assertEquals(Map.of("DAI", 1.0), service.getUsdPrices(List.of("dai")));
+        assertEquals(Map.of("DAI", 1.0), service.getUsdPrices(List.of("dai")));
+        assertNotNull(service.fetchedAt("DAI"));
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    void fetchesFromCoinGeckoWhenProtocolsDisagree() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        ObservedPrices observed = new ObservedPrices(120, 0.02, 100, 2);
+        observed.publish("0x6B175474E89094C44Da98b954EedeAC495271d0F", "aave", 1.0);
+        observed.publish("0x6B175474E89094C44Da98b954EedeAC495271d0F", "uniswap", 0.5);
+        when(client.fetchUsdPricesByIds(eq(Set.of("dai")))).thenReturn(Map.of("dai", Map.of("usd", 0.9999)));
+        PriceService service = withObserved(client, observed);
+
+        assertEquals(Map.of("DAI", 0.9999), service.getUsdPrices(List.of("dai")));
+        verify(client).fetchUsdPricesByIds(eq(Set.of("dai")));
+    }
+
+    @Test
+    void checksASingleProtocolPriceAgainstTheLastCoinGeckoPrice() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        ObservedPrices observed = new ObservedPrices(120, 0.02, 100, 2);
+        observed.publish("0x6B175474E89094C44Da98b954EedeAC495271d0F", "uniswap", 1.5);
+        when(client.fetchUsdPricesByIds(eq(Set.of("dai")))).thenReturn(Map.of("dai", Map.of("usd", 0.9999)));
+        PriceService service = withObserved(client, observed);
+
+        assertEquals(Map.of("DAI", 0.9999), service.getUsdPrices(List.of("dai")));
+        verify(client).fetchUsdPricesByIds(eq(Set.of("dai")));
+
+        CoinGeckoClient quiet = mock(CoinGeckoClient.class);
+        PriceService near = withObserved(quiet, observed);
+        near.restore("DAI", new PriceService.Quote(1.49, Instant.now().minus(Duration.ofHours(1)), false));
+
+        assertEquals(Map.of("DAI", 1.5), near.getUsdPrices(List.of("dai")));
+        verifyNoInteractions(quiet);
+    }
+
+    @Test
+    void pricesTokensOutsideTheRegistryByAddress() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        ObservedPrices observed = new ObservedPrices(120, 0.02, 100, 2);
+        String pepe = "0x6982508145454ce325ddbe47a25d4ec3d2311933";
+        observed.publish(pepe, "uniswap", 0.00001);
+        observed.publish(pepe, "sushiswap", 0.00001);
+        PriceService service = withObserved(client, observed);
+
+        Map<String, Double> prices = service.getUsdPrices(List.of(pepe.toUpperCase().replace("0X", "0x"),
+                "0xA0b86991c6218b36c1d19D4a2e9Eb0cE3606eB48", "0x" + "9".repeat(40)));
+
+        assertEquals(0.00001, prices.get(pepe));
+        assertFalse(prices.containsKey("USDC"));
+        verify(client).fetchUsdPricesByIds(eq(Set.of("usd-coin")));
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    void coalescesConcurrentMissesIntoOneFetch() throws Exception {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(client.fetchUsdPricesByIds(anySet())).thenAnswer(inv -> {
+            fetching.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Map.of("ethereum", Map.of("usd", 100.0));
+        });
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Map<String, Double>>> results = new ArrayList<>();
+            results.add(executor.submit(() -> service.getUsdPrices(List.of("eth"))));
+            assertTrue(fetching.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(() -> service.getUsdPrices(List.of("eth"))));
+            }
+            Thread.sleep(50);
+            release.countDown();
+
+            for (Future<Map<String, Double>> result : results) {
+                assertEquals(Map.of("ETH", 100.0), result.get(5, TimeUnit.SECONDS));
+            }
+        }
+        verify(client, times(1)).fetchUsdPricesByIds(anySet());
+    }
+
+    @Test
+    void releasesWaitingCallersWhenTheClientThrowsAnError() throws Exception {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(client.fetchUsdPricesByIds(anySet())).thenAnswer(inv -> {
+            fetching.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw new StackOverflowError("client blew up");
+        }).thenReturn(Map.of("ethereum", Map.of("usd", 100.0)));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<Map<String, Double>> owner = executor.submit(() -> service.getUsdPrices(List.of("eth")));
+            assertTrue(fetching.await(5, TimeUnit.SECONDS));
+            Future<Map<String, Double>> waiter = executor.submit(() -> service.getUsdPrices(List.of("eth")));
+            Thread.sleep(50);
+            release.countDown();
+
+            ExecutionException thrown = assertThrows(ExecutionException.class, () -> owner.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(StackOverflowError.class, thrown.getCause());
+            assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(Map.of("ETH", 100.0), service.getUsdPrices(List.of("eth")));
+    }
+
+    @Test
+    void overlappingMissesOnlyFetchIdsNotInFlight() throws Exception {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(client.fetchUsdPricesByIds(eq(Set.of("ethereum", "dai")))).thenAnswer(inv -> {
+            fetching.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Map.of("ethereum", Map.of("usd", 100.0), "dai", Map.of("usd", 1.0));
+        });
+        when(client.fetchUsdPricesByIds(eq(Set.of("usd-coin")))).thenReturn(Map.of("usd-coin", Map.of("usd", 0.99)));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<Map<String, Double>> first = executor.submit(() -> service.getUsdPrices(List.of("eth", "dai")));
+            assertTrue(fetching.await(5, TimeUnit.SECONDS));
+            Future<Map<String, Double>> second = executor.submit(() -> service.getUsdPrices(List.of("eth", "usdc")));
+            Thread.sleep(50);
+            release.countDown();
+
+            assertEquals(Map.of("ETH", 100.0, "DAI", 1.0), first.get(5, TimeUnit.SECONDS));
+            assertEquals(Map.of("ETH", 100.0, "USDC", 0.99), second.get(5, TimeUnit.SECONDS));
+        }
+        verify(client).fetchUsdPricesByIds(eq(Set.of("ethereum", "dai")));
+        verify(client).fetchUsdPricesByIds(eq(Set.of("usd-coin")));
+        verifyNoMoreInteractions(client);
+    }
+
+    @Test
+    void waitersShareFetchFailure() throws Exception {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CoinGeckoClientException failure = new CoinGeckoClientException(500, "Error fetching prices", null);
+        when(client.fetchUsdPricesByIds(anySet())).thenAnswer(inv -> {
+            fetching.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw failure;
+        });
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<Map<String, Double>> first = executor.submit(() -> service.getUsdPrices(List.of("eth")));
+            assertTrue(fetching.await(5, TimeUnit.SECONDS));
+            Future<Map<String, Double>> second = executor.submit(() -> service.getUsdPrices(List.of("eth")));
+            Thread.sleep(50);
+            release.countDown();
+
+            assertSame(failure, assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS)).getCause());
+            assertSame(failure, assertThrows(Exception.class, () -> second.get(5, TimeUnit.SECONDS)).getCause());
+        }
+        verify(client, times(1)).fetchUsdPricesByIds(anySet());
+    }
+
+    @Test
+    void servesLastKnownGoodWhenThrottledAfterExpiry() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        when(client.fetchUsdPricesByIds(eq(Set.of("ethereum")))).thenReturn(
+                Map.of("ethereum", Map.of("usd", 100.0))
+        );
+        PriceService.Quote fresh = service.getUsdQuotes(List.of("eth")).get("ETH");
+        assertFalse(fresh.stale());
+
+        expire(service, "ETH");
+        when(client.fetchUsdPricesByIds(anySet())).thenReturn(Map.of());
+
+        PriceService.Quote stale = service.getUsdQuotes(List.of("eth")).get("ETH");
+        assertEquals(new PriceService.Quote(100.0, fresh.fetchedAt(), true), stale);
+        assertEquals(Map.of("ETH", 100.0), service.getUsdPrices(List.of("eth")));
+    }
+
+    @Test
+    void servesLastKnownGoodWhenFetchFailsAfterExpiry() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        when(client.fetchUsdPricesByIds(eq(Set.of("ethereum")))).thenReturn(
+                Map.of("ethereum", Map.of("usd", 100.0))
+        );
+        service.getUsdPrices(List.of("eth"));
+
+        expire(service, "ETH");
+        when(client.fetchUsdPricesByIds(anySet())).thenThrow(new CoinGeckoClientException(500, "Error fetching prices", null));
+
+        Map<String, PriceService.Quote> quotes = service.getUsdQuotes(List.of("eth"));
+        assertTrue(quotes.get("ETH").stale());
+        assertEquals(100.0, quotes.get("ETH").usd());
+    }
+
+    @Test
+    void freshPriceReplacesStaleOne() {
+        CoinGeckoClient client = mock(CoinGeckoClient.class);
+        PriceService service = new PriceService(client, 10);
+        when(client.fetchUsdPricesByIds(anySet()))
+                .thenReturn(Map.of("ethereum", Map.of("usd", 100.0)))
+                .thenReturn(Map.of())
+                .thenReturn(Map.of("ethereum", Map.of("usd", 110.0)));
+        service.getUsdPrices(List.of("eth"));
+        expire(service, "ETH");
+        assertTrue(service.getUsdQuotes(List.of("eth")).get("ETH").stale());
+
+        PriceService.Quote quote = service.getUsdQuotes(List.of("eth")).get("ETH");
+
+        assertFalse(quote.stale());
+        assertEquals(110.0, quote.usd());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void expire(PriceService service, String symbol) {
+        ((ExpiringCache<String, PriceService.Quote>) ReflectionTestUtils.getField(service, "cache")).invalidate(symbol);
+    }
 }
@@ -0,0 +1,50 @@
+package app.dya.price;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestFrequencyTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final RequestFrequency frequency = new RequestFrequency(Duration.ofMinutes(10), now::get);
+
+    @Test
+    void steadyRateConvergesToRequestsPerMinute() {
+        for (int minute = 0; minute < 120; minute++) {
+            for (int i = 0; i < 6; i++) frequency.record("ETH");
+            frequency.record("DAI");
+            now.addAndGet(Duration.ofMinutes(1).toNanos());
+            frequency.perMinute();
+        }
+
+        Map<String, Double> rates = frequency.perMinute();
+
+        assertEquals(6, rates.get("ETH"), 0.3);
+        assertEquals(1, rates.get("DAI"), 0.05);
+    }
+
+    @Test
+    void halvesEveryHalfLifeAndForgetsIdleSymbols() {
+        for (int i = 0; i < 10; i++) frequency.record("ETH");
+        double initial = frequency.perMinute().get("ETH");
+
+        now.addAndGet(Duration.ofMinutes(10).toNanos());
+        assertEquals(initial / 2, frequency.perMinute().get("ETH"), 1e-9);
+
+        now.addAndGet(Duration.ofHours(10).toNanos());
+        assertFalse(frequency.perMinute().containsKey("ETH"));
+    }
+
+    @Test
+    void countsEachRequestOnce() {
+        frequency.record("ETH");
+        double once = frequency.perMinute().get("ETH");
+
+        assertEquals(once, frequency.perMinute().get("ETH"), 1e-9);
+    }
+}
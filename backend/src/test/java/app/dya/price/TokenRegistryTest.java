@@ -0,0 +1,92 @@
+package app.dya.price;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenRegistryTest {
+
+    private static final String USDC = "0xA0b86991c6218b36c1d19D4a2e9Eb0cE3606eB48";
+
+    @Test
+    void bundledRegistryListsTheOriginalTokens() {
+        TokenRegistry registry = TokenRegistry.bundled();
+
+        assertEquals("ethereum", registry.bySymbol("ETH").coingeckoId());
+        assertEquals("dai", registry.bySymbol("DAI").coingeckoId());
+        assertEquals("usd-coin", registry.bySymbol("USDC").coingeckoId());
+        assertNull(registry.bySymbol("ETH").address());
+        assertTrue(registry.tokens().size() > 3);
+    }
+
+    @Test
+    void looksUpBySymbolAndAddressIgnoringCase() {
+        TokenRegistry registry = TokenRegistry.bundled();
+
+        assertEquals(new Token("USDC", "usd-coin", USDC.toLowerCase()), registry.bySymbol(" usdc "));
+        assertSame(registry.bySymbol("USDC"), registry.byAddress(USDC));
+        assertSame(registry.bySymbol("USDC"), registry.byAddress(USDC.toUpperCase().replace("0X", "0x")));
+        assertEquals("stETH", registry.bySymbol("STETH").symbol());
+        assertNull(registry.bySymbol("DOGE"));
+        assertNull(registry.byAddress("0x0000000000000000000000000000000000000001"));
+        assertNull(registry.bySymbol(null));
+    }
+
+    @Test
+    void keepsFirstOfDuplicateSymbolsAndIgnoresUnknownFields() {
+        TokenRegistry registry = new TokenRegistry(json("""
+                [{"symbol":"abc","coingeckoId":"first","decimals":18},
+                 {"symbol":"ABC","coingeckoId":"second"}]
+                """));
+
+        assertEquals("first", registry.bySymbol("ABC").coingeckoId());
+        assertEquals(1, registry.tokens().size());
+    }
+
+    @Test
+    void rejectsInvalidEntries() {
+        assertThrows(IllegalStateException.class,
+                () -> new TokenRegistry(json("[{\"symbol\":\"X\"}]")));
+        assertThrows(IllegalStateException.class,
+                () -> new TokenRegistry(json("[{\"symbol\":\"X\",\"coingeckoId\":\"x\",\"address\":\"0x12\"}]")));
+        assertThrows(IllegalStateException.class, () -> new TokenRegistry(json("[]")));
+    }
+
+    @Test
+    void refreshSwapsTokensAndKeepsThemWhenReloadFails() {
+        AtomicReference<String> content = new AtomicReference<>("[{\"symbol\":\"A\",\"coingeckoId\":\"a\"}]");
+        Resource resource = new ByteArrayResource(new byte[0]) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                String json = content.get();
+                if (json == null) throw new IOException("gone");
+                return new java.io.ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        TokenRegistry registry = new TokenRegistry(resource);
+
+        content.set("[{\"symbol\":\"B\",\"coingeckoId\":\"b\"}]");
+        registry.refresh();
+        assertNull(registry.bySymbol("A"));
+        assertEquals("b", registry.bySymbol("B").coingeckoId());
+
+        content.set(null);
+        registry.refresh();
+        assertEquals("b", registry.bySymbol("B").coingeckoId());
+
+        content.set("not json");
+        registry.refresh();
+        assertEquals("b", registry.bySymbol("B").coingeckoId());
+    }
+
+    private static Resource json(String json) {
+        return new ByteArrayResource(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,173 @@
+package app.dya.service;
+
+import app.dya.api.dto.AlertItem;
+import app.dya.api.dto.PortfolioDTO;
+import app.dya.service.portfolio.PositionAggregator;
+import app.dya.service.portfolio.PositionSnapshot;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AlertEngineTest {
+
+    private static final AlertItem RISK = new AlertItem("LIQUIDATION_RISK", "Health factor 1.10 below 1.3", "Aave", "");
+    private static final AlertItem DROP = new AlertItem("YIELD_DROP", "APR dropped", "Compound", "");
+
+    private final PositionAggregator aggregator = mock(PositionAggregator.class);
+    private final AlertSubscriptionService subscriptions = new AlertSubscriptionService();
+    private final AlertEvaluator evaluator = mock(AlertEvaluator.class);
+    private final EmailAlertService email = mock(EmailAlertService.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private Instant now = Instant.parse("2025-08-14T08:00:00Z");
+    private final Clock clock = new Clock() {
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return now; }
+    };
+
+    private AlertEngine engine(int shardSize, int maxConcurrentPerProtocol) {
+        return new AlertEngine(aggregator, subscriptions, evaluator, email, registry,
+                Duration.ofMinutes(1), shardSize, maxConcurrentPerProtocol, Duration.ofHours(6), clock);
+    }
+
+    private static PositionSnapshot snapshot(String address, String... degraded) {
+        return new PositionSnapshot(address, List.of(), null, List.of(degraded), Instant.now());
+    }
+
+    private static PortfolioDTO.PositionDTO deposit(BigDecimal apr) {
+        return new PortfolioDTO.PositionDTO("Compound", "ethereum", "USDC",
+                new BigDecimal("50"), new BigDecimal("50"), apr,
+                BigDecimal.ZERO, BigDecimal.ZERO, "OK", "DEPOSIT");
+    }
+
+    private void answerBatches() {
+        when(aggregator.snapshotBatch(anyCollection(), any(), any())).thenAnswer(inv -> {
+            Map<String, PositionSnapshot> batch = new LinkedHashMap<>();
+            for (Object address : inv.getArgument(0, Collection.class)) {
+                batch.put((String) address, snapshot((String) address));
+            }
+            return batch;
+        });
+    }
+
+    @Test
+    void sharesOneLimitPerProtocolAcrossShards() throws Exception {
+        for (int i = 0; i < 10; i++) subscriptions.subscribeEmail("0x" + i, i + "@example.com");
+        List<Collection<String>> shards = Collections.synchronizedList(new ArrayList<>());
+        Set<Semaphore> aavePermits = ConcurrentHashMap.newKeySet();
+        Set<Semaphore> compoundPermits = ConcurrentHashMap.newKeySet();
+        when(aggregator.snapshotBatch(anyCollection(), any(), any())).thenAnswer(inv -> {
+            Function<String, Semaphore> permits = inv.getArgument(2);
+            aavePermits.add(permits.apply("Aave"));
+            compoundPermits.add(permits.apply("Compound"));
+            shards.add(inv.getArgument(0));
+            return Map.of();
+        });
+
+        AlertEngine engine = engine(2, 3);
+        engine.scan();
+
+        assertThat(shards).hasSize(5).allSatisfy(shard -> assertThat(shard).hasSize(2));
+        assertThat(shards.stream().flatMap(Collection::stream)).hasSize(10).doesNotHaveDuplicates();
+        assertThat(aavePermits).singleElement().satisfies(p -> assertThat(p.availablePermits()).isEqualTo(3));
+        assertThat(compoundPermits).singleElement().isNotIn(aavePermits);
+        assertThat(registry.timer("alerts.scan").count()).isEqualTo(1);
+        assertThat(registry.timer("alerts.scan.shard").count()).isEqualTo(5);
+        engine.shutdown();
+    }
+
+    @Test
+    void emailsNewAlertsAndRepeatsThemOnlyAfterTheRenotifyInterval() throws Exception {
+        subscriptions.subscribeEmail("0xAbc", "user@example.com");
+        answerBatches();
+        when(evaluator.evaluate(eq("0xabc"), any())).thenReturn(List.of(RISK));
+        AlertEngine engine = engine(100, 4);
+
+        assertThat(engine.scanOnce()).isEqualTo(1);
+        now = now.plus(Duration.ofHours(1));
+        assertThat(engine.scanOnce()).isZero();
+
+        when(evaluator.evaluate(eq("0xabc"), any())).thenReturn(List.of(RISK, DROP));
+        assertThat(engine.scanOnce()).isEqualTo(1);
+
+        when(evaluator.evaluate(eq("0xabc"), any())).thenReturn(List.of(RISK));
+        assertThat(engine.scanOnce()).isZero();
+        now = now.plus(Duration.ofHours(6));
+        assertThat(engine.scanOnce()).isEqualTo(1);
+
+        verify(email, times(1)).send("user@example.com", List.of(RISK, DROP));
+        verify(email, times(2)).send("user@example.com", List.of(RISK));
+        engine.shutdown();
+    }
+
+    @Test
+    void forgetsAlertsOnlyOnceAllProtocolsAnswerWithoutThem() throws Exception {
+        subscriptions.subscribeEmail("0xabc", "user@example.com");
+        answerBatches();
+        when(evaluator.evaluate(eq("0xabc"), any())).thenReturn(List.of(RISK));
+        AlertEngine engine = engine(100, 4);
+        engine.scanOnce();
+
+        when(aggregator.snapshotBatch(anyCollection(), any(), any())).thenReturn(Map.of("0xabc", snapshot("0xabc", "Aave")));
+        when(evaluator.evaluate(eq("0xabc"), any())).thenReturn(List.of());
+        engine.scanOnce();
+        when(evaluator.evaluate(eq("0xabc"), any())).thenReturn(List.of(RISK));
+        assertThat(engine.scanOnce()).isZero();
+
+        answerBatches();
+        when(evaluator.evaluate(eq("0xabc"), any())).thenReturn(List.of());
+        engine.scanOnce();
+        when(evaluator.evaluate(eq("0xabc"), any())).thenReturn(List.of(RISK));
+        assertThat(engine.scanOnce()).isEqualTo(1);
+        engine.shutdown();
+    }
+
+    @Test
+    void keepsItsOwnAprBaseline() throws Exception {
+        subscriptions.subscribeEmail("0xabc", "user@example.com");
+        PortfolioDTO.PositionDTO before = deposit(new BigDecimal("0.05"));
+        PortfolioDTO.PositionDTO after = deposit(new BigDecimal("0.01"));
+        ApyTrackingService shared = new ApyTrackingService();
+        assertThat(shared.checkApy("0xabc", before)).isEmpty();
+
+        AlertEngine engine = new AlertEngine(aggregator, subscriptions, email, registry, 60, 100, 4, 360);
+        when(aggregator.snapshotBatch(anyCollection(), any(), any())).thenReturn(Map.of("0xabc",
+                new PositionSnapshot("0xabc", List.of(before), null, List.of(), Instant.now())));
+        engine.scanOnce();
+        when(aggregator.snapshotBatch(anyCollection(), any(), any())).thenReturn(Map.of("0xabc",
+                new PositionSnapshot("0xabc", List.of(after), null, List.of(), Instant.now())));
+        assertThat(engine.scanOnce()).isEqualTo(1);
+
+        assertThat(shared.checkApy("0xabc", after)).map(AlertItem::type).contains("YIELD_DROP");
+        engine.shutdown();
+    }
+
+    @Test
+    void keepsScanningWhenAShardFails() throws Exception {
+        subscriptions.subscribeEmail("0xa", "a@example.com");
+        subscriptions.subscribeEmail("0xb", "b@example.com");
+        when(aggregator.snapshotBatch(eq(List.of("0xa")), eq(Duration.ofMinutes(1)), any())).thenThrow(new IllegalStateException("subgraph down"));
+        when(aggregator.snapshotBatch(eq(List.of("0xb")), eq(Duration.ofMinutes(1)), any())).thenReturn(Map.of("0xb", snapshot("0xb")));
+        when(evaluator.evaluate(eq("0xb"), any())).thenReturn(List.of(RISK));
+        AlertEngine engine = engine(1, 2);
+
+        assertThat(engine.scanOnce()).isEqualTo(1);
+        verify(email).send("b@example.com", List.of(RISK));
+        engine.shutdown();
+    }
+}
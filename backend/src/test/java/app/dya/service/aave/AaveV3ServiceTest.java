@@ -1,6 +1,7 @@
 package app.dya.service.aave;
 
 import app.dya.api.dto.PortfolioDTO;
+import app.dya.price.ObservedPrices;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.MediaType;
@@ -9,8 +10,11 @@ import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
@@ -85,5 +89,65 @@ class AaveV3ServiceTest {
         List<PortfolioDTO.PositionDTO> positions = service.getPositions("0xabc");
         assertThat(positions).isEmpty();
     }
-}
 
+    @Test
+    void fetchesSeveralUsersInOneQuery() {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+
+        AaveV3Service service = new AaveV3Service(new RestTemplateBuilder() {
+            @Override
+            public RestTemplate build() {
+                return restTemplate;
+            }
+        }, "http://example.com");
+
+        String body = "{\"data\":{\"users\":[{\"id\":\"0xaaa\",\"healthFactor\":\"2000000000000000000\"," +
+                "\"reserves\":[{\"scaledATokenBalance\":\"5000000\",\"scaledVariableDebt\":\"0\"," +
+                "\"reserve\":{\"symbol\":\"USDC\",\"decimals\":\"6\",\"liquidityRate\":\"0\",\"variableBorrowRate\":\"0\",\"price\":{\"priceInUsd\":\"1\"}}}]}]}}";
+
+        server.expect(requestTo("http://example.com"))
+                .andExpect(method(org.springframework.http.HttpMethod.POST))
+                .andExpect(content().string(containsString("id_in")))
+                .andRespond(withSuccess(body, MediaType.APPLICATION_JSON));
+
+        Map<String, AaveV3Service.AaveAccount> accounts = service.getAccounts(List.of("0xAAA", "0xbbb"));
+        server.verify();
+
+        assertThat(accounts).containsOnlyKeys("0xaaa", "0xbbb");
+        assertThat(accounts.get("0xaaa").healthFactor()).isEqualByComparingTo("2");
+        assertThat(accounts.get("0xaaa").positions()).hasSize(1);
+        assertThat(accounts.get("0xaaa").positions().get(0).usdValue()).isEqualByComparingTo("5");
+        assertThat(accounts.get("0xbbb").healthFactor()).isNull();
+        assertThat(accounts.get("0xbbb").positions()).isEmpty();
+    }
+
+    @Test
+    void publishesReserveOraclePrices() {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        ObservedPrices observed = new ObservedPrices(120, 0.02, 100, 1);
+        AaveV3Service service = new AaveV3Service(new RestTemplateBuilder() {
+            @Override
+            public RestTemplate build() {
+                return restTemplate;
+            }
+        }, "http://example.com", observed);
+
+        String body = "{\"data\":{\"user\":{\"healthFactor\":\"1300000000000000000\"," +
+                "\"reserves\":[{\"scaledATokenBalance\":\"1\",\"scaledVariableDebt\":\"0\"," +
+                "\"reserve\":{\"underlyingAsset\":\"0x6b175474e89094c44da98b954eedeac495271d0f\",\"symbol\":\"DAI\"," +
+                "\"decimals\":\"18\",\"liquidityRate\":\"0\",\"variableBorrowRate\":\"0\",\"price\":{\"priceInUsd\":\"0.9995\"}}}]}}}";
+        server.expect(requestTo("http://example.com"))
+                .andExpect(content().string(containsString("underlyingAsset")))
+                .andRespond(withSuccess(body, MediaType.APPLICATION_JSON));
+
+        service.getPositions("0xabc");
+
+        assertThat(observed.consensus("0x6b175474e89094c44da98b954eedeac495271d0f"))
+                .hasValueSatisfying(o -> {
+                    assertThat(o.usd()).isEqualTo(0.9995);
+                    assertThat(o.source()).isEqualTo("aave");
+                });
+    }
+}
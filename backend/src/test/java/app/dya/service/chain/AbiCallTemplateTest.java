@@ -0,0 +1,66 @@
+package app.dya.service.chain;
+
+import org.junit.jupiter.api.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AbiCallTemplateTest {
+
+    private static final String CDAI = "0x5d3a536e4d6dbd6114cc1ead35777bab948e3643";
+    private static final String CUSDC = "0x39AA39c021dfbaE8faC545936693aC917d5E7563";
+    private static final List<String> ACCOUNTS = List.of(
+            "0xAbC0000000000000000000000000000000000def", "0xabc", "1234", "0x0000000000000000000000000000000000000000");
+
+    private static String web3j(String name, List<Type> inputs) {
+        return FunctionEncoder.encode(new Function(name, inputs, List.of()));
+    }
+
+    @Test
+    void matchesWeb3jForStaticArguments() {
+        AbiCallTemplate template = AbiCallTemplate.precompile("cTokenBalances",
+                List.of(new Address(CDAI), AbiCallTemplate.ACCOUNT));
+
+        for (String account : ACCOUNTS) {
+            assertThat(template.encode(account))
+                    .isEqualTo(web3j("cTokenBalances", List.of(new Address(CDAI), new Address(account))));
+        }
+    }
+
+    @Test
+    void matchesWeb3jAroundDynamicArguments() {
+        DynamicArray<Address> cTokens = new DynamicArray<>(Address.class, List.of(new Address(CDAI), new Address(CUSDC)));
+        AbiCallTemplate template = AbiCallTemplate.precompile("cTokenBalancesAll",
+                List.of(cTokens, AbiCallTemplate.ACCOUNT, new Uint256(BigInteger.TEN)));
+
+        for (String account : ACCOUNTS) {
+            assertThat(template.encode(account)).isEqualTo(web3j("cTokenBalancesAll",
+                    List.of(cTokens, new Address(account), new Uint256(BigInteger.TEN))));
+        }
+    }
+
+    @Test
+    void requiresExactlyOnePlaceholder() {
+        assertThatThrownBy(() -> AbiCallTemplate.precompile("f", List.of(new Address(CDAI))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> AbiCallTemplate.precompile("f", List.of(AbiCallTemplate.ACCOUNT, AbiCallTemplate.ACCOUNT)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsNonAddresses() {
+        AbiCallTemplate template = AbiCallTemplate.precompile("f", List.of(AbiCallTemplate.ACCOUNT));
+
+        assertThatThrownBy(() -> template.encode("0xnothex")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> template.encode("0x" + "1".repeat(41))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
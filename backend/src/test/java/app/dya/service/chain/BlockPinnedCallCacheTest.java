@@ -0,0 +1,105 @@
+package app.dya.service.chain;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockPinnedCallCacheTest {
+
+    private final StubEthereumRpc rpc = new StubEthereumRpc(data -> data.endsWith("ff") ? "error:execution reverted" : data);
+    private final Web3j web3j = Web3j.build(rpc);
+    private final EthCallBatcher batcher = new EthCallBatcher(web3j, 50, Duration.ofMillis(5));
+    private final BlockTracker tracker = new BlockTracker(web3j, Duration.ofSeconds(30));
+    private final BlockPinnedCallCache cache = new BlockPinnedCallCache(batcher, tracker, 100);
+
+    @AfterEach
+    void close() {
+        batcher.close();
+    }
+
+    private static Transaction tx(String data) {
+        return Transaction.createEthCallTransaction("0x0000000000000000000000000000000000000001",
+                "0x0000000000000000000000000000000000000002", data);
+    }
+
+    @Test
+    void readsArePinnedToTrackedHeadAndCachedWithinTheBlock() throws Exception {
+        rpc.blockNumber.set(0x100);
+        tracker.refresh();
+
+        assertThat(cache.call(tx("0x01")).get().getValue()).isEqualTo("0x01");
+        assertThat(cache.call(tx("0x01")).get().getValue()).isEqualTo("0x01");
+        assertThat(cache.callAll(List.of(tx("0x01"), tx("0x02"))).get(1).get().getValue()).isEqualTo("0x02");
+
+        assertThat(rpc.calls).containsExactly(
+                new StubEthereumRpc.Call("0x01", "0x100"),
+                new StubEthereumRpc.Call("0x02", "0x100"));
+    }
+
+    @Test
+    void concurrentIdenticalReadsShareOneRequest() throws Exception {
+        tracker.advanceTo(7);
+
+        List<CompletableFuture<EthCall>> results = cache.callAll(List.of(tx("0x01"), tx("0x01")));
+
+        assertThat(results.get(0).get().getValue()).isEqualTo("0x01");
+        assertThat(results.get(1)).isSameAs(results.get(0));
+        assertThat(rpc.calls).hasSize(1);
+    }
+
+    @Test
+    void newHeadInvalidatesOlderBlocks() throws Exception {
+        tracker.advanceTo(7);
+        cache.call(tx("0x01")).get();
+        assertThat(cache.size()).isEqualTo(1);
+
+        tracker.advanceTo(8);
+        assertThat(cache.size()).isZero();
+        cache.call(tx("0x01")).get();
+
+        assertThat(rpc.calls).containsExactly(
+                new StubEthereumRpc.Call("0x01", "0x7"),
+                new StubEthereumRpc.Call("0x01", "0x8"));
+    }
+
+    @Test
+    void errorsAreNotCached() throws Exception {
+        tracker.advanceTo(7);
+
+        assertThat(cache.call(tx("0xff")).get().hasError()).isTrue();
+        assertThat(cache.call(tx("0xff")).get().hasError()).isTrue();
+
+        assertThat(rpc.calls).hasSize(2);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void unknownHeadReadsLatestUncached() throws Exception {
+        cache.call(tx("0x01")).get();
+        cache.call(tx("0x01")).get();
+
+        assertThat(rpc.calls).containsExactly(
+                new StubEthereumRpc.Call("0x01", "latest"),
+                new StubEthereumRpc.Call("0x01", "latest"));
+    }
+
+    @Test
+    void fullCachePassesReadsThrough() throws Exception {
+        BlockPinnedCallCache full = new BlockPinnedCallCache(batcher, tracker, 0);
+        tracker.advanceTo(7);
+
+        full.call(tx("0x01")).get();
+        full.call(tx("0x01")).get();
+
+        assertThat(rpc.calls).hasSize(2);
+        assertThat(full.size()).isZero();
+    }
+}
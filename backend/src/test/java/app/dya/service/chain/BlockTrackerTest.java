@@ -0,0 +1,76 @@
+package app.dya.service.chain;
+
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockTrackerTest {
+
+    private final StubEthereumRpc rpc = new StubEthereumRpc(data -> "0x");
+    private final BlockTracker tracker = new BlockTracker(Web3j.build(rpc), Duration.ofSeconds(30));
+
+    @Test
+    void headIsUnknownUntilFirstRefresh() {
+        assertThat(tracker.head()).isEqualTo(-1);
+
+        rpc.blockNumber.set(19_000_000);
+
+        assertThat(tracker.refresh()).isEqualTo(19_000_000);
+        assertThat(tracker.head()).isEqualTo(19_000_000);
+    }
+
+    @Test
+    void headOnlyMovesForwardAndNotifiesListeners() {
+        List<Long> heads = new ArrayList<>();
+        tracker.onAdvance(heads::add);
+
+        assertThat(tracker.advanceTo(10)).isTrue();
+        assertThat(tracker.advanceTo(10)).isFalse();
+        assertThat(tracker.advanceTo(9)).isFalse();
+        assertThat(tracker.advanceTo(12)).isTrue();
+
+        assertThat(tracker.head()).isEqualTo(12);
+        assertThat(heads).containsExactly(10L, 12L);
+    }
+
+    @Test
+    void failedRefreshKeepsPreviousHead() {
+        rpc.blockNumber.set(5);
+        tracker.refresh();
+
+        rpc.failWith(new IOException("connection reset"));
+
+        assertThat(tracker.refresh()).isEqualTo(5);
+    }
+
+    @Test
+    void pollingPausesWhileHeadsArePushed() {
+        rpc.blockNumber.set(5);
+        tracker.poll();
+        assertThat(tracker.head()).isEqualTo(5);
+
+        tracker.push(6);
+        rpc.blockNumber.set(9);
+        tracker.poll();
+
+        assertThat(tracker.head()).isEqualTo(6);
+        assertThat(rpc.payloads).hasSize(1);
+    }
+
+    @Test
+    void pollingResumesWhenPushedHeadsStop() {
+        BlockTracker quiet = new BlockTracker(Web3j.build(rpc), Duration.ZERO);
+        quiet.push(6);
+        rpc.blockNumber.set(9);
+
+        quiet.poll();
+
+        assertThat(quiet.head()).isEqualTo(9);
+    }
+}
@@ -0,0 +1,101 @@
+package app.dya.service.chain;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EthCallBatcherTest {
+
+    private final StubEthereumRpc rpc = new StubEthereumRpc(data -> data.endsWith("ff") ? "error:execution reverted" : data);
+    private EthCallBatcher batcher;
+
+    @AfterEach
+    void close() {
+        if (batcher != null) batcher.close();
+    }
+
+    private static Transaction tx(int i) {
+        return Transaction.createEthCallTransaction("0x0000000000000000000000000000000000000001",
+                "0x0000000000000000000000000000000000000002", String.format("0x%08x", i));
+    }
+
+    @Test
+    void mergesConcurrentCallsIntoOneBatch() throws Exception {
+        batcher = new EthCallBatcher(Web3j.build(rpc), 100, Duration.ofMillis(50));
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<EthCall>> results = new ArrayList<>();
+        List<java.util.concurrent.Future<?>> submitted = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int n = i;
+            CompletableFuture<EthCall> result = new CompletableFuture<>();
+            results.add(result);
+            submitted.add(callers.submit(() -> {
+                start.await();
+                batcher.call(tx(n), DefaultBlockParameterName.LATEST).whenComplete((r, e) -> result.complete(r));
+                return null;
+            }));
+        }
+        start.countDown();
+        for (var f : submitted) f.get(1, TimeUnit.SECONDS);
+        callers.shutdown();
+
+        for (int i = 0; i < 8; i++) {
+            assertThat(results.get(i).get(1, TimeUnit.SECONDS).getValue()).isEqualTo(String.format("0x%08x", i));
+        }
+        assertThat(rpc.payloads).hasSize(1);
+        assertThat(rpc.calls).hasSize(8);
+    }
+
+    @Test
+    void sizeCapSplitsBatches() throws Exception {
+        batcher = new EthCallBatcher(Web3j.build(rpc), 3, Duration.ofMillis(20));
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < 7; i++) txs.add(tx(i));
+
+        List<CompletableFuture<EthCall>> results = batcher.callAll(txs, DefaultBlockParameterName.LATEST);
+        for (int i = 0; i < 7; i++) {
+            assertThat(results.get(i).get(1, TimeUnit.SECONDS).getValue()).isEqualTo(String.format("0x%08x", i));
+        }
+        assertThat(rpc.payloads).hasSize(3);
+    }
+
+    @Test
+    void rpcErrorsOnlyFailTheirOwnCall() throws Exception {
+        batcher = new EthCallBatcher(Web3j.build(rpc), 10, Duration.ofMillis(5));
+        List<CompletableFuture<EthCall>> results = batcher.callAll(List.of(tx(1), tx(0xff)), DefaultBlockParameterName.LATEST);
+
+        assertThat(results.get(0).get(1, TimeUnit.SECONDS).hasError()).isFalse();
+        assertThat(results.get(1).get(1, TimeUnit.SECONDS).getError().getMessage()).isEqualTo("execution reverted");
+    }
+
+    @Test
+    void transportFailureFailsEveryCallInTheBatch() {
+        rpc.failWith(new IOException("connection reset"));
+        batcher = new EthCallBatcher(Web3j.build(rpc), 10, Duration.ofMillis(5));
+        List<CompletableFuture<EthCall>> results = batcher.callAll(List.of(tx(1), tx(2)), DefaultBlockParameterName.LATEST);
+
+        for (CompletableFuture<EthCall> result : results) {
+            assertThatThrownBy(() -> result.get(1, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IOException.class);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package app.dya.service.chain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.web3j.protocol.Web3j;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class NewHeadsSubscriptionTest {
+
+    private final BlockTracker tracker = new BlockTracker(Mockito.mock(Web3j.class), Duration.ofSeconds(30));
+    private StandInNode node;
+    private NewHeadsSubscription subscription;
+
+    @BeforeEach
+    void startNode() throws Exception {
+        node = new StandInNode();
+        node.start();
+        assertThat(node.started.await(5, TimeUnit.SECONDS)).isTrue();
+        subscription = new NewHeadsSubscription("ws://localhost:" + node.getPort(), tracker,
+                Duration.ofMillis(20), Duration.ofMillis(100));
+    }
+
+    @AfterEach
+    void stopNode() throws Exception {
+        subscription.close();
+        node.stop(1000);
+    }
+
+    @Test
+    void pushesEveryNewHeadToTracker() throws Exception {
+        subscription.start();
+        WebSocket client = node.subscribers.poll(5, TimeUnit.SECONDS);
+
+        node.newHead(client, 0x10);
+        node.newHead(client, 0x11);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> tracker.head() == 0x11);
+        assertThat(subscription.isConnected()).isTrue();
+    }
+
+    @Test
+    void reconnectsAndResubscribesAfterConnectionIsLost() throws Exception {
+        subscription.start();
+        WebSocket first = node.subscribers.poll(5, TimeUnit.SECONDS);
+        node.newHead(first, 0x10);
+        await().atMost(Duration.ofSeconds(5)).until(() -> tracker.head() == 0x10);
+
+        first.close();
+        WebSocket second = node.subscribers.poll(5, TimeUnit.SECONDS);
+        assertThat(second).isNotNull().isNotSameAs(first);
+        node.newHead(second, 0x12);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> tracker.head() == 0x12);
+    }
+
+    @Test
+    void retriesRejectedSubscriptions() throws Exception {
+        node.reject.set(true);
+        subscription.start();
+        assertThat(node.rejected.await(5, TimeUnit.SECONDS)).isTrue();
+        node.reject.set(false);
+
+        WebSocket client = node.subscribers.poll(5, TimeUnit.SECONDS);
+        assertThat(client).isNotNull();
+        node.newHead(client, 0x20);
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> tracker.head() == 0x20);
+    }
+
+    @Test
+    void doesNothingWithoutWebSocketUrl() {
+        NewHeadsSubscription disabled = new NewHeadsSubscription("", tracker, Duration.ofMillis(20), Duration.ofMillis(100));
+
+        disabled.start();
+
+        assertThat(disabled.isConnected()).isFalse();
+        disabled.close();
+    }
+
+    /** Minimal JSON-RPC node answering {@code eth_subscribe("newHeads")}. */
+    private static class StandInNode extends WebSocketServer {
+
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch rejected = new CountDownLatch(1);
+        final AtomicBoolean reject = new AtomicBoolean();
+        final BlockingQueue<WebSocket> subscribers = new LinkedBlockingQueue<>();
+
+        StandInNode() {
+            super(new InetSocketAddress("localhost", 0));
+            setReuseAddr(true);
+        }
+
+        void newHead(WebSocket client, long number) {
+            client.send("""
+                    {"jsonrpc":"2.0","method":"eth_subscription","params":{"subscription":"0xs1",\
+                    "result":{"number":"0x%x","hash":"0x01","parentHash":"0x00"}}}""".formatted(number));
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            try {
+                JsonNode request = MAPPER.readTree(message);
+                if (!request.path("method").asText().equals("eth_subscribe")) return;
+                String id = request.path("id").toString();
+                if (reject.get()) {
+                    conn.send("{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"error\":{\"code\":-32601,\"message\":\"not supported\"}}");
+                    rejected.countDown();
+                } else {
+                    conn.send("{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"result\":\"0xs1\"}");
+                    subscribers.add(conn);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {}
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {}
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {}
+    }
+}
@@ -0,0 +1,90 @@
+package app.dya.service.chain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.web3j.protocol.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * In-process JSON-RPC node for tests. Answers {@code eth_call} from a function of the
+ * call data (results starting with {@code "error:"} become JSON-RPC errors) and
+ * {@code eth_blockNumber} from {@link #blockNumber}, recording every HTTP payload.
+ */
+public class StubEthereumRpc extends Service {
+
+    /** One received {@code eth_call}. */
+    public record Call(String data, String block) {}
+
+    public final List<String> payloads = new CopyOnWriteArrayList<>();
+    public final List<Call> calls = new CopyOnWriteArrayList<>();
+    public final AtomicLong blockNumber = new AtomicLong(1);
+    private final Function<String, String> results;
+    private volatile IOException failure;
+
+    public StubEthereumRpc(Function<String, String> results) {
+        super(false);
+        this.results = results;
+    }
+
+    /** Makes every following HTTP request fail with the given exception; {@code null} to recover. */
+    public void failWith(IOException failure) {
+        this.failure = failure;
+    }
+
+    @Override
+    protected InputStream performIO(String payload) throws IOException {
+        payloads.add(payload);
+        if (failure != null) {
+            throw failure;
+        }
+        JsonNode request = objectMapper.readTree(payload);
+        JsonNode response;
+        if (request.isArray()) {
+            ArrayNode responses = objectMapper.createArrayNode();
+            request.forEach(r -> responses.add(answer(r)));
+            response = responses;
+        } else {
+            response = answer(request);
+        }
+        return new ByteArrayInputStream(objectMapper.writeValueAsBytes(response));
+    }
+
+    private JsonNode answer(JsonNode request) {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("id", request.get("id"));
+        String method = request.path("method").asText();
+        if (method.equals("eth_blockNumber")) {
+            response.put("result", "0x" + Long.toHexString(blockNumber.get()));
+        } else if (method.equals("eth_call")) {
+            JsonNode params = request.path("params");
+            String data = params.path(0).path("data").asText(params.path(0).path("input").asText());
+            calls.add(new Call(data, params.path(1).asText()));
+            String result = results.apply(data);
+            if (result.startsWith("error:")) {
+                ObjectNode error = response.putObject("error");
+                error.put("code", 3);
+                error.put("message", result.substring("error:".length()));
+            } else {
+                response.put("result", result);
+            }
+        } else {
+            ObjectNode error = response.putObject("error");
+            error.put("code", -32601);
+            error.put("message", "method not found: " + method);
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+    }
+}
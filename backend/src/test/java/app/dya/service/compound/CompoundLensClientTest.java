@@ -0,0 +1,171 @@
+package app.dya.service.compound;
+
+import app.dya.service.chain.BlockPinnedCallCache;
+import app.dya.service.chain.BlockTracker;
+import app.dya.service.chain.EthCallBatcher;
+import app.dya.service.chain.StubEthereumRpc;
+import org.junit.jupiter.api.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompoundLensClientTest {
+
+    private static final String CDAI = "0x5d3a536e4d6dbd6114cc1ead35777bab948e3643";
+    private static final String CUSDC = "0x39aa39c021dfbae8fac545936693ac917d5e7563";
+    private static final String BALANCES_ALL_SELECTOR = Hash.sha3String("cTokenBalancesAll(address[],address)").substring(2, 10);
+    private static final String METADATA_ALL_SELECTOR = Hash.sha3String("cTokenMetadataAll(address[])").substring(2, 10);
+    private static final String PRICE_ALL_SELECTOR = Hash.sha3String("cTokenUnderlyingPriceAll(address[])").substring(2, 10);
+
+    private static CompoundLensClient client(StubEthereumRpc rpc) {
+        Web3j web3j = Web3j.build(rpc);
+        return new CompoundLensClient(new BlockPinnedCallCache(
+                new EthCallBatcher(web3j, 50, Duration.ofMillis(5)), new BlockTracker(web3j, Duration.ofSeconds(30)), 100));
+    }
+
+    private static StubEthereumRpc stub(String result) {
+        return new StubEthereumRpc(data -> result);
+    }
+
+    private static String word(BigInteger value) {
+        return String.format("%064x", value);
+    }
+
+    private static String balancesAllResult(String[] cTokens, long[][] borrowSupply) {
+        StringBuilder sb = new StringBuilder("0x").append(word(BigInteger.valueOf(32)))
+                .append(word(BigInteger.valueOf(cTokens.length)));
+        for (int i = 0; i < cTokens.length; i++) {
+            sb.append(word(new BigInteger(cTokens[i].substring(2), 16)))
+                    .append(word(BigInteger.valueOf(7)))                      // balanceOf (cTokens)
+                    .append(word(BigInteger.valueOf(borrowSupply[i][0])))     // borrowBalanceCurrent
+                    .append(word(BigInteger.valueOf(borrowSupply[i][1])))     // balanceOfUnderlying
+                    .append(word(BigInteger.valueOf(9)))                      // tokenBalance
+                    .append(word(BigInteger.ZERO));                           // tokenAllowance
+        }
+        return sb.toString();
+    }
+
+    /** CTokenMetadata of the current Lens: 17 words, rates and underlying decimals as given. */
+    private static String metadataAllResult(String[] cTokens, long[][] supplyBorrowDecimals) {
+        StringBuilder sb = new StringBuilder("0x").append(word(BigInteger.valueOf(32)))
+                .append(word(BigInteger.valueOf(cTokens.length)));
+        for (int i = 0; i < cTokens.length; i++) {
+            sb.append(word(new BigInteger(cTokens[i].substring(2), 16)));
+            for (int field = 1; field < 17; field++) {
+                long value = switch (field) {
+                    case 2 -> supplyBorrowDecimals[i][0];
+                    case 3 -> supplyBorrowDecimals[i][1];
+                    case 13 -> supplyBorrowDecimals[i][2];
+                    default -> 1000 + field;
+                };
+                sb.append(word(BigInteger.valueOf(value)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String underlyingPriceAllResult(String[] cTokens, BigInteger[] prices) {
+        StringBuilder sb = new StringBuilder("0x").append(word(BigInteger.valueOf(32)))
+                .append(word(BigInteger.valueOf(cTokens.length)));
+        for (int i = 0; i < cTokens.length; i++) {
+            sb.append(word(new BigInteger(cTokens[i].substring(2), 16))).append(word(prices[i]));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void readsMarketDataWithOneBatch() throws IOException {
+        String[] cTokens = {CDAI, CUSDC};
+        String metadata = metadataAllResult(cTokens, new long[][]{{11, 12, 18}, {21, 22, 6}});
+        String prices = underlyingPriceAllResult(cTokens, new BigInteger[]{BigInteger.TEN.pow(18), BigInteger.TEN.pow(30)});
+        StubEthereumRpc rpc = new StubEthereumRpc(data -> data.contains(METADATA_ALL_SELECTOR) ? metadata
+                : data.contains(PRICE_ALL_SELECTOR) ? prices : "error:unexpected call");
+
+        List<CompoundLensClient.CTokenMarket> markets = client(rpc).getMarketsAll(List.of(CDAI, CUSDC));
+
+        assertThat(markets).containsExactly(
+                new CompoundLensClient.CTokenMarket(BigInteger.valueOf(11), BigInteger.valueOf(12), 18, BigInteger.TEN.pow(18)),
+                new CompoundLensClient.CTokenMarket(BigInteger.valueOf(21), BigInteger.valueOf(22), 6, BigInteger.TEN.pow(30)));
+        assertThat(rpc.payloads).hasSize(1);
+    }
+
+    @Test
+    void rejectsTruncatedMarketData() {
+        String prices = underlyingPriceAllResult(new String[]{CDAI}, new BigInteger[]{BigInteger.ONE});
+        StubEthereumRpc rpc = new StubEthereumRpc(data -> data.contains(METADATA_ALL_SELECTOR) ? prices : prices);
+
+        assertThatThrownBy(() -> client(rpc).getMarketsAll(List.of(CDAI)))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("cTokenMetadataAll");
+    }
+
+    @Test
+    void decodesSingleMarketBalances() throws IOException {
+        BigInteger large = BigInteger.TWO.pow(200).add(BigInteger.ONE);
+        StubEthereumRpc rpc = stub("0x" + word(new BigInteger(CDAI.substring(2), 16)) + word(BigInteger.valueOf(7))
+                + word(BigInteger.valueOf(5)) + word(large) + word(BigInteger.valueOf(9)) + word(BigInteger.ZERO));
+
+        CompoundLensClient.CTokenBalance balance = client(rpc).getBalance(CDAI, "0xabc");
+
+        assertThat(balance).isEqualTo(new CompoundLensClient.CTokenBalance(large, BigInteger.valueOf(5)));
+        assertThat(rpc.calls.get(0).data()).isEqualTo(FunctionEncoder.encode(new Function("cTokenBalances",
+                List.of(new Address(CDAI), new Address("0xabc")), List.of())));
+    }
+
+    @Test
+    void rejectsTruncatedSingleMarketBalances() {
+        StubEthereumRpc rpc = stub("0x" + word(BigInteger.ONE));
+
+        assertThatThrownBy(() -> client(rpc).getBalance(CDAI, "0xabc"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("truncated");
+    }
+
+    @Test
+    void readsEveryMarketWithOneCall() throws IOException {
+        StubEthereumRpc rpc = stub(balancesAllResult(new String[]{CDAI, CUSDC}, new long[][]{{5, 100}, {0, 20}}));
+        CompoundLensClient client = client(rpc);
+
+        List<CompoundLensClient.CTokenBalance> balances = client.getBalancesAll(List.of(CDAI, CUSDC), "0xabc");
+
+        assertThat(balances).containsExactly(
+                new CompoundLensClient.CTokenBalance(BigInteger.valueOf(100), BigInteger.valueOf(5)),
+                new CompoundLensClient.CTokenBalance(BigInteger.valueOf(20), BigInteger.ZERO));
+        assertThat(rpc.payloads).hasSize(1);
+        assertThat(rpc.payloads.get(0)).contains(BALANCES_ALL_SELECTOR);
+    }
+
+    @Test
+    void batchesOneCallPerAccount() throws IOException {
+        StubEthereumRpc rpc = stub(balancesAllResult(new String[]{CDAI, CUSDC}, new long[][]{{0, 1}, {2, 0}}));
+        CompoundLensClient client = client(rpc);
+
+        Map<String, List<CompoundLensClient.CTokenBalance>> balances =
+                client.getBalances(List.of(CDAI, CUSDC), List.of("0xaaa", "0xbbb", "0xccc"));
+
+        assertThat(balances).containsOnlyKeys("0xaaa", "0xbbb", "0xccc");
+        assertThat(balances.get("0xbbb")).hasSize(2);
+        assertThat(rpc.payloads).hasSize(1);
+        assertThat(rpc.payloads.get(0).split(BALANCES_ALL_SELECTOR, -1)).hasSize(4);
+    }
+
+    @Test
+    void rejectsResponsesForOtherMarkets() {
+        StubEthereumRpc rpc = stub(balancesAllResult(new String[]{CDAI}, new long[][]{{0, 1}}));
+        CompoundLensClient client = client(rpc);
+
+        assertThatThrownBy(() -> client.getBalancesAll(List.of(CDAI, CUSDC), "0xabc"))
+                .isInstanceOf(IOException.class);
+    }
+}
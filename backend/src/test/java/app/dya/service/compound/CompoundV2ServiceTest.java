@@ -1,15 +1,23 @@
 package app.dya.service.compound;
 
 import app.dya.api.dto.PortfolioDTO;
+import app.dya.service.chain.BlockTracker;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.web3j.protocol.Web3j;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.ArgumentMatchers.anyString;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
@@ -18,10 +26,20 @@ class CompoundV2ServiceTest {
     private static final String ADDRESS = "0xabc";
     private static final String CDAI = "0x5d3a536e4d6dbd6114cc1ead35777bab948e3643";
     private static final String CUSDC = "0x39AA39c021dfbaE8faC545936693aC917d5E7563";
+    private final BlockTracker tracker = new BlockTracker(Mockito.mock(Web3j.class), Duration.ofSeconds(30));
+
     private CompoundV2Service buildService(CompoundLensClient lens) {
-        return new CompoundV2Service(lens);
+        return new CompoundV2Service(lens, tracker);
     }
 
+    /** Service whose markets are loaded, at $1 and no interest. */
+    private CompoundV2Service buildLoadedService(CompoundLensClient lens) {
+        CompoundV2Service service = buildService(lens);
+        CompoundMarketCache.Market market = new CompoundMarketCache.Market(BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ONE);
+        service.markets().put(CDAI, market);
+        service.markets().put(CUSDC, market);
+        return service;
+    }
 
     private BigInteger toWei(String amount, int decimals) {
         return new BigDecimal(amount).movePointRight(decimals).toBigIntegerExact();
@@ -30,12 +48,11 @@ class CompoundV2ServiceTest {
     @Test
     void parsesPositionsFromOnChain() throws Exception {
         CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
-        when(lens.getBalance(CDAI, ADDRESS))
-                .thenReturn(new CompoundLensClient.CTokenBalance(toWei("100", 18), toWei("10", 18)));
-        when(lens.getBalance(CUSDC, ADDRESS))
-                .thenReturn(new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO));
+        when(lens.getBalancesAll(List.of(CDAI, CUSDC), ADDRESS)).thenReturn(List.of(
+                new CompoundLensClient.CTokenBalance(toWei("100", 18), toWei("10", 18)),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO)));
 
-        CompoundV2Service service = buildService(lens);
+        CompoundV2Service service = buildLoadedService(lens);
         List<PortfolioDTO.PositionDTO> positions = service.getPositions(ADDRESS);
         assertThat(positions).hasSize(2);
 
@@ -47,14 +64,15 @@ class CompoundV2ServiceTest {
         PortfolioDTO.PositionDTO borrow = positions.get(1);
         assertThat(borrow.positionType()).isEqualTo("BORROW");
         assertThat(borrow.asset()).isEqualTo("DAI");
-        assertThat(borrow.borrowAmount()).isEqualByComparingTo(new BigDecimal("10"));
+        assertThat(borrow.amount()).isEqualByComparingTo(new BigDecimal("10"));
     }
 
     @Test
     void returnsEmptyWhenNoTokens() throws Exception {
         CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
-        when(lens.getBalance(anyString(), eq(ADDRESS)))
-                .thenReturn(new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO));
+        when(lens.getBalancesAll(anyList(), eq(ADDRESS))).thenReturn(List.of(
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO)));
 
         CompoundV2Service service = buildService(lens);
         List<PortfolioDTO.PositionDTO> positions = service.getPositions(ADDRESS);
@@ -62,14 +80,46 @@ class CompoundV2ServiceTest {
     }
 
     @Test
-    void handlesBorrowOnly() throws Exception {
+    void propagatesRpcFailures() throws Exception {
+        CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
+        when(lens.getBalancesAll(anyList(), eq(ADDRESS))).thenThrow(new IOException("rpc down"));
+
+        CompoundV2Service service = buildService(lens);
+
+        assertThatThrownBy(() -> service.getPositions(ADDRESS))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasRootCauseMessage("rpc down");
+    }
+
+    @Test
+    void failsInsteadOfValuingPositionsWithoutMarketData() throws Exception {
         CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
-        when(lens.getBalance(CDAI, ADDRESS))
-                .thenReturn(new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO));
-        when(lens.getBalance(CUSDC, ADDRESS))
-                .thenReturn(new CompoundLensClient.CTokenBalance(BigInteger.ZERO, toWei("20", 6)));
+        when(lens.getBalancesAll(anyList(), eq(ADDRESS))).thenReturn(List.of(
+                new CompoundLensClient.CTokenBalance(toWei("100", 18), BigInteger.ZERO),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO)));
+        when(lens.getBalances(anyList(), anyCollection())).thenReturn(Map.of("0xaaa", List.of(
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, toWei("20", 6)))));
 
         CompoundV2Service service = buildService(lens);
+
+        assertThatThrownBy(() -> service.getPositions(ADDRESS))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("DAI");
+        assertThatThrownBy(() -> service.getPositionsByAccount(List.of("0xaaa")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("USDC");
+        Mockito.verify(lens, Mockito.timeout(1000).atLeastOnce()).getMarketsAll(List.of(CDAI, CUSDC));
+    }
+
+    @Test
+    void handlesBorrowOnly() throws Exception {
+        CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
+        when(lens.getBalancesAll(List.of(CDAI, CUSDC), ADDRESS)).thenReturn(List.of(
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, toWei("20", 6))));
+
+        CompoundV2Service service = buildLoadedService(lens);
         List<PortfolioDTO.PositionDTO> positions = service.getPositions(ADDRESS);
 
         assertThat(positions).hasSize(1);
@@ -77,7 +127,108 @@ class CompoundV2ServiceTest {
         PortfolioDTO.PositionDTO borrow = positions.get(0);
         assertThat(borrow.positionType()).isEqualTo("BORROW");
         assertThat(borrow.asset()).isEqualTo("USDC");
-        assertThat(borrow.borrowAmount()).isEqualByComparingTo(new BigDecimal("20"));
+        assertThat(borrow.amount()).isEqualByComparingTo(new BigDecimal("20"));
     }
 
+    @Test
+    void readsAllMarketsWithOneLensCall() throws Exception {
+        CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
+        when(lens.getBalancesAll(anyList(), eq(ADDRESS))).thenReturn(List.of(
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO)));
+
+        buildService(lens).getPositions(ADDRESS);
+
+        Mockito.verify(lens).getBalancesAll(List.of(CDAI, CUSDC), ADDRESS);
+        Mockito.verifyNoMoreInteractions(lens);
+    }
+
+
+    @Test
+    void mapsBatchedBalancesPerAccount() throws Exception {
+        CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
+        when(lens.getBalances(anyList(), anyCollection())).thenReturn(Map.of(
+                "0xaaa", List.of(
+                        new CompoundLensClient.CTokenBalance(toWei("100", 18), BigInteger.ZERO),
+                        new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO)),
+                "0xbbb", List.of(
+                        new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO),
+                        new CompoundLensClient.CTokenBalance(BigInteger.ZERO, toWei("20", 6)))));
+
+        CompoundV2Service service = buildLoadedService(lens);
+        Map<String, List<PortfolioDTO.PositionDTO>> positions = service.getPositionsByAccount(List.of("0xAAA", "0xbbb"));
+
+        assertThat(positions).containsOnlyKeys("0xaaa", "0xbbb");
+        assertThat(positions.get("0xaaa")).hasSize(1);
+        assertThat(positions.get("0xaaa").get(0).asset()).isEqualTo("DAI");
+        assertThat(positions.get("0xaaa").get(0).amount()).isEqualByComparingTo(new BigDecimal("100"));
+        assertThat(positions.get("0xbbb")).hasSize(1);
+        assertThat(positions.get("0xbbb").get(0).asset()).isEqualTo("USDC");
+        assertThat(positions.get("0xbbb").get(0).amount()).isEqualByComparingTo(new BigDecimal("20"));
+    }
+
+    @Test
+    void valuesPositionsWithCachedMarketData() throws Exception {
+        CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
+        when(lens.getMarketsAll(List.of(CDAI, CUSDC))).thenReturn(List.of(
+                // 1e10 per block, DAI at $1.0001 (scaled 1e18)
+                new CompoundLensClient.CTokenMarket(BigInteger.TEN.pow(10), BigInteger.TEN.pow(10).multiply(BigInteger.TWO),
+                        18, new BigInteger("1000100000000000000")),
+                // USDC at $1 (scaled 1e30)
+                new CompoundLensClient.CTokenMarket(BigInteger.ZERO, BigInteger.TEN.pow(10), 6, BigInteger.TEN.pow(30))));
+        when(lens.getBalancesAll(List.of(CDAI, CUSDC), ADDRESS)).thenReturn(List.of(
+                new CompoundLensClient.CTokenBalance(toWei("100", 18), BigInteger.ZERO),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, toWei("20", 6))));
+
+        CompoundV2Service service = buildService(lens);
+        service.refreshMarkets();
+        List<PortfolioDTO.PositionDTO> positions = service.getPositions(ADDRESS);
+
+        PortfolioDTO.PositionDTO deposit = positions.get(0);
+        assertThat(deposit.usdValue()).isEqualByComparingTo("100.01");
+        assertThat(deposit.apr()).isEqualByComparingTo("0.02628");
+        PortfolioDTO.PositionDTO borrow = positions.get(1);
+        assertThat(borrow.usdValue()).isEqualByComparingTo("0");
+        assertThat(borrow.borrowAmount()).isEqualByComparingTo("20");
+        assertThat(borrow.borrowApr()).isEqualByComparingTo("0.02628");
+    }
+
+    @Test
+    void refreshesMarketsOnNewHeadNotPerRequest() throws Exception {
+        CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
+        when(lens.getMarketsAll(anyList())).thenReturn(List.of(
+                new CompoundLensClient.CTokenMarket(BigInteger.ZERO, BigInteger.ZERO, 18, BigInteger.TEN.pow(18)),
+                new CompoundLensClient.CTokenMarket(BigInteger.ZERO, BigInteger.ZERO, 6, BigInteger.TEN.pow(30))));
+        when(lens.getBalancesAll(anyList(), eq(ADDRESS))).thenReturn(List.of(
+                new CompoundLensClient.CTokenBalance(toWei("5", 18), BigInteger.ZERO),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO)));
+        CompoundV2Service service = buildService(lens);
+
+        tracker.push(100);
+        Mockito.verify(lens, Mockito.timeout(1000)).getMarketsAll(List.of(CDAI, CUSDC));
+        service.getPositions(ADDRESS);
+        service.getPositions(ADDRESS);
+
+        Mockito.verify(lens, Mockito.times(1)).getMarketsAll(anyList());
+        assertThat(service.getPositions(ADDRESS).get(0).usdValue()).isEqualByComparingTo("5");
+    }
+
+    @Test
+    void keepsPreviousMarketsWhenRefreshFails() throws Exception {
+        CompoundLensClient lens = Mockito.mock(CompoundLensClient.class);
+        when(lens.getMarketsAll(anyList()))
+                .thenReturn(List.of(
+                        new CompoundLensClient.CTokenMarket(BigInteger.ZERO, BigInteger.ZERO, 18, BigInteger.TEN.pow(18)),
+                        new CompoundLensClient.CTokenMarket(BigInteger.ZERO, BigInteger.ZERO, 6, BigInteger.TEN.pow(30))))
+                .thenThrow(new IOException("rpc down"));
+        when(lens.getBalancesAll(anyList(), eq(ADDRESS))).thenReturn(List.of(
+                new CompoundLensClient.CTokenBalance(toWei("5", 18), BigInteger.ZERO),
+                new CompoundLensClient.CTokenBalance(BigInteger.ZERO, BigInteger.ZERO)));
+        CompoundV2Service service = buildService(lens);
+
+        service.refreshMarkets();
+        service.refreshMarkets();
+
+        assertThat(service.getPositions(ADDRESS).get(0).usdValue()).isEqualByComparingTo("5");
+    }
 }
@@ -0,0 +1,82 @@
+package app.dya.service.portfolio;
+
+import app.dya.service.AlertSubscriptionService;
+import app.dya.service.chain.BlockTracker;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.web3j.protocol.Web3j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class NewHeadRefresherTest {
+
+    private final BlockTracker tracker = new BlockTracker(Mockito.mock(Web3j.class), Duration.ofSeconds(30));
+    private final PositionAggregator aggregator = Mockito.mock(PositionAggregator.class);
+    private final AlertSubscriptionService subscriptions = new AlertSubscriptionService();
+
+    private Instant now = Instant.parse("2025-08-14T08:00:00Z");
+    private final Clock clock = new Clock() {
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return now; }
+    };
+
+    private NewHeadRefresher refresher(boolean refreshWatched, int shardSize) {
+        return new NewHeadRefresher(tracker, aggregator, subscriptions, refreshWatched, shardSize, Duration.ofMinutes(1), clock);
+    }
+
+    @Test
+    void newHeadExpiresSnapshotsAndRefreshesWatchedWalletsInShards() {
+        refresher(true, 2);
+        subscriptions.subscribeEmail("0xCCC", "c@example.com");
+        subscriptions.subscribeEmail("0xaaa", "a@example.com");
+        subscriptions.subscribeEmail("0xbbb", "b@example.com");
+
+        tracker.push(100);
+
+        verify(aggregator).expireSnapshots();
+        verify(aggregator, timeout(1000)).fetchBatch(List.of("0xaaa", "0xbbb"));
+        verify(aggregator, timeout(1000)).fetchBatch(List.of("0xccc"));
+    }
+
+    @Test
+    void refreshesAtMostOncePerInterval() throws Exception {
+        refresher(true, 100);
+        subscriptions.subscribeEmail("0xabc", "a@example.com");
+
+        tracker.push(100);
+        verify(aggregator, timeout(1000)).fetchBatch(List.of("0xabc"));
+        now = now.plusSeconds(12);
+        tracker.push(101);
+        Thread.sleep(50);
+        verify(aggregator, times(1)).fetchBatch(any());
+
+        now = now.plusSeconds(48);
+        tracker.push(102);
+        verify(aggregator, timeout(1000).times(2)).fetchBatch(List.of("0xabc"));
+        verify(aggregator, times(3)).expireSnapshots();
+    }
+
+    @Test
+    void onlyExpiresSnapshotsWhenRefreshIsDisabled() throws Exception {
+        refresher(false, 100);
+        subscriptions.subscribeEmail("0xabc", "a@example.com");
+
+        tracker.push(100);
+        Thread.sleep(50);
+
+        verify(aggregator).expireSnapshots();
+        verify(aggregator, never()).fetchBatch(any());
+    }
+}
@@ -0,0 +1,59 @@
+package app.dya.service.portfolio;
+
+import app.dya.api.dto.PortfolioDTO;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PortfolioTotalsTest {
+
+    @Test
+    void matchesBigDecimalReferenceIncludingScale() {
+        Random random = new Random(11);
+        for (int run = 0; run < 500; run++) {
+            List<PortfolioDTO.PositionDTO> positions = new ArrayList<>();
+            for (int i = random.nextInt(8); i > 0; i--) {
+                positions.add(new PortfolioDTO.PositionDTO("Aave", "ethereum", "USDC",
+                        amount(random), amount(random), rate(random), amount(random), rate(random), "OK", "DEPOSIT"));
+            }
+            assertThat(PortfolioTotals.of(positions)).isEqualTo(reference(positions));
+        }
+    }
+
+    private static BigDecimal amount(Random random) {
+        return new BigDecimal(new BigInteger(1 + random.nextInt(100), random), random.nextInt(40));
+    }
+
+    private static BigDecimal rate(Random random) {
+        return new BigDecimal(new BigInteger(1 + random.nextInt(90), random), 27);
+    }
+
+    /** The BigDecimal implementation the fixed-point version replaced. */
+    private static PortfolioTotals reference(List<PortfolioDTO.PositionDTO> positions) {
+        BigDecimal totalUsd = positions.stream()
+                .map(PortfolioDTO.PositionDTO::usdValue)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal totalBorrowUsd = positions.stream()
+                .map(PortfolioDTO.PositionDTO::borrowAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal healthFactor = totalBorrowUsd.compareTo(BigDecimal.ZERO) > 0
+                ? totalUsd.divide(totalBorrowUsd, 2, RoundingMode.HALF_UP)
+                : BigDecimal.ZERO;
+        BigDecimal dailyYieldUsd = BigDecimal.ZERO;
+        for (PortfolioDTO.PositionDTO p : positions) {
+            BigDecimal depositYield = p.usdValue().multiply(p.apr())
+                    .divide(BigDecimal.valueOf(365), 18, RoundingMode.HALF_UP);
+            BigDecimal borrowCost = p.borrowAmount().multiply(p.borrowApr())
+                    .divide(BigDecimal.valueOf(365), 18, RoundingMode.HALF_UP);
+            dailyYieldUsd = dailyYieldUsd.add(depositYield).subtract(borrowCost);
+        }
+        return new PortfolioTotals(totalUsd, totalUsd.subtract(totalBorrowUsd), dailyYieldUsd, healthFactor);
+    }
+}
@@ -0,0 +1,212 @@
+package app.dya.service.portfolio;
+
+import app.dya.api.dto.PortfolioDTO;
+import app.dya.service.aave.AaveV3Service;
+import app.dya.service.compound.CompoundV2Service;
+import app.dya.service.uniswap.UniswapV3Service;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PositionAggregatorTest {
+
+    private static final String ADDRESS = "0xabc";
+
+    private final AaveV3Service aave = Mockito.mock(AaveV3Service.class);
+    private final CompoundV2Service compound = Mockito.mock(CompoundV2Service.class);
+    private final UniswapV3Service uniswap = Mockito.mock(UniswapV3Service.class);
+
+    private PortfolioDTO.PositionDTO position(String protocol) {
+        return new PortfolioDTO.PositionDTO(protocol, "ethereum", "DAI",
+                BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ZERO,
+                BigDecimal.ZERO, BigDecimal.ZERO, "OK", "DEPOSIT");
+    }
+
+    private AaveV3Service.AaveAccount account(PortfolioDTO.PositionDTO... positions) {
+        return new AaveV3Service.AaveAccount(new BigDecimal("1.5"), List.of(positions));
+    }
+
+    @Test
+    void runsProtocolsConcurrently() {
+        when(aave.getAccount(ADDRESS)).thenAnswer(inv -> { Thread.sleep(300); return account(position("Aave")); });
+        when(compound.getPositions(ADDRESS)).thenAnswer(inv -> { Thread.sleep(300); return List.of(position("Compound")); });
+        when(uniswap.getPositions(ADDRESS)).thenAnswer(inv -> { Thread.sleep(300); return List.of(position("UniswapV3")); });
+        PositionAggregator aggregator = new PositionAggregator(aave, compound, uniswap, 2000, 2000, 2000, 2000, 0, 0, 100);
+
+        long start = System.nanoTime();
+        PositionSnapshot snapshot = aggregator.fetch(ADDRESS);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(snapshot.positions()).extracting(PortfolioDTO.PositionDTO::protocol)
+                .containsExactly("Aave", "Compound", "UniswapV3");
+        assertThat(snapshot.degradedProtocols()).isEmpty();
+        assertThat(elapsedMillis).isLessThan(800);
+    }
+
+    @Test
+    void reportsProtocolMissingItsDeadline() {
+        when(aave.getAccount(ADDRESS)).thenReturn(account(position("Aave")));
+        when(compound.getPositions(ADDRESS)).thenReturn(List.of(position("Compound")));
+        when(uniswap.getPositions(ADDRESS)).thenAnswer(inv -> { Thread.sleep(5000); return List.of(position("UniswapV3")); });
+        PositionAggregator aggregator = new PositionAggregator(aave, compound, uniswap, 1000, 1000, 100, 2000, 0, 0, 100);
+
+        long start = System.nanoTime();
+        PositionSnapshot snapshot = aggregator.fetch(ADDRESS);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(snapshot.positions()).extracting(PortfolioDTO.PositionDTO::protocol)
+                .containsExactly("Aave", "Compound");
+        assertThat(snapshot.degradedProtocols()).containsExactly("UniswapV3");
+        assertThat(elapsedMillis).isLessThan(1000);
+    }
+
+    @Test
+    void sharesSnapshotBetweenConcurrentAndRepeatedCallers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(aave.getAccount(ADDRESS)).thenAnswer(inv -> { release.await(); return account(position("Aave")); });
+        when(compound.getPositions(ADDRESS)).thenReturn(List.of());
+        when(uniswap.getPositions(ADDRESS)).thenReturn(List.of());
+        PositionAggregator aggregator = new PositionAggregator(aave, compound, uniswap, 2000, 2000, 2000, 2000, 60, 0, 100);
+
+        try (ExecutorService callers = Executors.newFixedThreadPool(4)) {
+            List<Future<PositionSnapshot>> results = List.of(
+                    callers.submit(() -> aggregator.snapshot(ADDRESS)),
+                    callers.submit(() -> aggregator.snapshot(ADDRESS)),
+                    callers.submit(() -> aggregator.snapshot(ADDRESS)),
+                    callers.submit(() -> aggregator.snapshot(ADDRESS)));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<PositionSnapshot> result : results) {
+                assertThat(result.get().aaveHealthFactor()).isEqualByComparingTo("1.5");
+            }
+        }
+        aggregator.snapshot(ADDRESS.toUpperCase());
+
+        verify(aave, times(1)).getAccount(ADDRESS);
+        verify(compound, times(1)).getPositions(ADDRESS);
+    }
+
+    @Test
+    void doesNotCacheDegradedSnapshots() {
+        when(aave.getAccount(ADDRESS)).thenReturn(account(position("Aave")));
+        when(compound.getPositions(ADDRESS)).thenThrow(new IllegalStateException("rpc down"));
+        when(uniswap.getPositions(ADDRESS)).thenReturn(List.of());
+        PositionAggregator aggregator = new PositionAggregator(aave, compound, uniswap, 2000, 2000, 2000, 2000, 60, 0, 100);
+
+        assertThat(aggregator.snapshot(ADDRESS).degradedProtocols()).containsExactly("Compound");
+        aggregator.snapshot(ADDRESS);
+
+        verify(aave, times(2)).getAccount(ADDRESS);
+    }
+
+    @Test
+    void splitsBatchResultsPerAddress() {
+        List<String> addresses = List.of("0xaaa", "0xbbb");
+        when(aave.getAccounts(addresses)).thenReturn(Map.of(
+                "0xaaa", account(position("Aave")),
+                "0xbbb", new AaveV3Service.AaveAccount(null, List.of())));
+        when(compound.getPositionsByAccount(addresses)).thenThrow(new IllegalStateException("rpc down"));
+        when(uniswap.getPositionsByOwner(addresses)).thenReturn(Map.of(
+                "0xaaa", List.of(),
+                "0xbbb", List.of(position("UniswapV3"))));
+        PositionAggregator aggregator = new PositionAggregator(aave, compound, uniswap, 2000, 2000, 2000, 2000, 0, 0, 100);
+
+        Map<String, PositionSnapshot> batch = aggregator.fetchBatch(List.of("0xAAA", "0xbbb", "0xaaa"));
+
+        assertThat(batch).containsOnlyKeys("0xaaa", "0xbbb");
+        assertThat(batch.get("0xaaa").positions()).extracting(PortfolioDTO.PositionDTO::protocol).containsExactly("Aave");
+        assertThat(batch.get("0xaaa").aaveHealthFactor()).isEqualByComparingTo("1.5");
+        assertThat(batch.get("0xbbb").positions()).extracting(PortfolioDTO.PositionDTO::protocol).containsExactly("UniswapV3");
+        assertThat(batch.get("0xbbb").aaveHealthFactor()).isNull();
+        assertThat(batch.get("0xbbb").degradedProtocols()).containsExactly("Compound");
+    }
+
+    @Test
+    void fetchesOnlyWalletsWithoutARecentSnapshot() {
+        when(aave.getAccount("0xaaa")).thenReturn(account(position("Aave")));
+        when(compound.getPositions("0xaaa")).thenReturn(List.of());
+        when(uniswap.getPositions("0xaaa")).thenReturn(List.of());
+        List<String> missing = List.of("0xbbb");
+        when(aave.getAccounts(missing)).thenReturn(Map.of("0xbbb", new AaveV3Service.AaveAccount(null, List.of())));
+        when(compound.getPositionsByAccount(missing)).thenReturn(Map.of("0xbbb", List.of()));
+        when(uniswap.getPositionsByOwner(missing)).thenReturn(Map.of("0xbbb", List.of(position("UniswapV3"))));
+        PositionAggregator aggregator = new PositionAggregator(aave, compound, uniswap, 2000, 2000, 2000, 2000, 60, 0, 100);
+
+        PositionSnapshot viewed = aggregator.snapshot("0xaaa");
+        aggregator.expireSnapshots();
+        Map<String, PositionSnapshot> batch = aggregator.snapshotBatch(List.of("0xAAA", "0xbbb"), Duration.ofMinutes(1), protocol -> null);
+
+        assertThat(batch).containsOnlyKeys("0xaaa", "0xbbb");
+        assertThat(batch.get("0xaaa")).isSameAs(viewed);
+        assertThat(batch.get("0xbbb").positions()).extracting(PortfolioDTO.PositionDTO::protocol).containsExactly("UniswapV3");
+        verify(aave).getAccounts(missing);
+        verify(aave, times(1)).getAccount("0xaaa");
+    }
+
+    @Test
+    void slowProtocolOnlyHoldsItsOwnPermits() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(aave.getAccounts(anyCollection())).thenAnswer(inv -> { release.await(); return Map.of(); });
+        when(compound.getPositionsByAccount(anyCollection())).thenReturn(Map.of());
+        when(uniswap.getPositionsByOwner(anyCollection())).thenReturn(Map.of());
+        PositionAggregator aggregator = new PositionAggregator(aave, compound, uniswap, 2000, 2000, 2000, 2000, 0, 0, 100);
+        Map<String, Semaphore> permits = Map.of(
+                "Aave", new Semaphore(1), "Compound", new Semaphore(1), "UniswapV3", new Semaphore(1));
+
+        try (ExecutorService shards = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<Map<String, PositionSnapshot>> first = shards.submit(() -> aggregator.fetchBatch(List.of("0xaaa"), permits::get));
+            Future<Map<String, PositionSnapshot>> second = shards.submit(() -> aggregator.fetchBatch(List.of("0xbbb"), permits::get));
+
+            verify(compound, timeout(1000).times(2)).getPositionsByAccount(anyCollection());
+            verify(uniswap, timeout(1000).times(2)).getPositionsByOwner(anyCollection());
+            verify(aave, times(1)).getAccounts(anyCollection());
+
+            release.countDown();
+            assertThat(first.get(2, TimeUnit.SECONDS).get("0xaaa").degradedProtocols()).isEmpty();
+            assertThat(second.get(2, TimeUnit.SECONDS).get("0xbbb").degradedProtocols()).isEmpty();
+        }
+        verify(aave, times(2)).getAccounts(anyCollection());
+        assertThat(permits.values()).allSatisfy(p -> assertThat(p.availablePermits()).isEqualTo(1));
+    }
+
+    @Test
+    void streamsFastProtocolsBeforeSlowOnesFinish() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(aave.getAccount(ADDRESS)).thenReturn(account(position("Aave")));
+        when(compound.getPositions(ADDRESS)).thenReturn(List.of(position("Compound")));
+        when(uniswap.getPositions(ADDRESS)).thenAnswer(inv -> { release.await(); return List.of(position("UniswapV3")); });
+        PositionAggregator aggregator = new PositionAggregator(aave, compound, uniswap, 2000, 2000, 2000, 2000, 0, 0, 100);
+
+        List<String> seen = new CopyOnWriteArrayList<>();
+        var done = aggregator.stream(ADDRESS, (protocol, positions, degraded) -> seen.add(protocol));
+
+        Thread.sleep(200);
+        assertThat(seen).containsExactlyInAnyOrder("Aave", "Compound");
+        assertThat(done).isNotDone();
+
+        release.countDown();
+        PositionSnapshot snapshot = done.get(2, TimeUnit.SECONDS);
+        assertThat(seen).containsExactlyInAnyOrder("Aave", "Compound", "UniswapV3");
+        assertThat(snapshot.positions()).extracting(PortfolioDTO.PositionDTO::protocol)
+                .containsExactly("Aave", "Compound", "UniswapV3");
+    }
+}
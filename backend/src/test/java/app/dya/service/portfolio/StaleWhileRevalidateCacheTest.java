@@ -0,0 +1,134 @@
+package app.dya.service.portfolio;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StaleWhileRevalidateCacheTest {
+
+    @Test
+    void servesStaleValueWhileSingleRefreshRuns() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch releaseRefresh = new CountDownLatch(1);
+        StaleWhileRevalidateCache<String, Integer> cache = new StaleWhileRevalidateCache<>(
+                Duration.ofMillis(300), Duration.ofMinutes(1), 10, Executors.newVirtualThreadPerTaskExecutor(), v -> true);
+
+        assertThat(cache.get("k", k -> loads.incrementAndGet())).isEqualTo(1);
+        assertThat(cache.get("k", k -> loads.incrementAndGet())).isEqualTo(1);
+        Thread.sleep(350);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(cache.get("k", k -> {
+                refreshStarted.countDown();
+                await(releaseRefresh);
+                return loads.incrementAndGet();
+            })).isEqualTo(1);
+        }
+        assertThat(refreshStarted.await(1, TimeUnit.SECONDS)).isTrue();
+        releaseRefresh.countDown();
+        Thread.sleep(30);
+
+        assertThat(cache.get("k", k -> loads.incrementAndGet())).isEqualTo(2);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void expireAllEndsFreshnessButKeepsServingDuringReload() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        StaleWhileRevalidateCache<String, Integer> cache = new StaleWhileRevalidateCache<>(
+                Duration.ofMinutes(1), Duration.ofMinutes(1), 10, Executors.newVirtualThreadPerTaskExecutor(), v -> true);
+
+        cache.get("k", k -> loads.incrementAndGet());
+        cache.expireAll();
+
+        assertThat(cache.get("k", k -> loads.incrementAndGet())).isEqualTo(1);
+        Thread.sleep(30);
+        assertThat(cache.get("k", k -> loads.incrementAndGet())).isEqualTo(2);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void peeksAtRecentEntriesWithoutLoading() throws Exception {
+        StaleWhileRevalidateCache<String, Integer> cache = new StaleWhileRevalidateCache<>(
+                Duration.ofMinutes(1), Duration.ofMinutes(1), 10, Executors.newVirtualThreadPerTaskExecutor(), v -> true);
+
+        assertThat(cache.peek("k", Duration.ofMinutes(1))).isNull();
+        cache.put("k", 1);
+        cache.expireAll();
+
+        assertThat(cache.peek("k", Duration.ofMinutes(1))).isEqualTo(1);
+        Thread.sleep(30);
+        assertThat(cache.peek("k", Duration.ofMillis(10))).isNull();
+    }
+
+    @Test
+    void reportsFreshnessLeftUntilExpired() throws Exception {
+        StaleWhileRevalidateCache<String, Integer> cache = new StaleWhileRevalidateCache<>(
+                Duration.ofMinutes(1), Duration.ofMinutes(1), 10, Executors.newVirtualThreadPerTaskExecutor(), v -> true);
+        Integer value = 1000;
+        cache.put("k", value);
+
+        assertThat(cache.freshFor("k", value)).isPositive().isLessThanOrEqualTo(Duration.ofMinutes(1));
+        assertThat(cache.freshFor("k", 2000)).isZero();
+        assertThat(cache.freshFor("other", value)).isZero();
+
+        cache.expireAll();
+        assertThat(cache.freshFor("k", value)).isZero();
+    }
+
+    @Test
+    void loadsSynchronouslyOnceStaleWindowHasPassed() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        StaleWhileRevalidateCache<String, Integer> cache = new StaleWhileRevalidateCache<>(
+                Duration.ofMillis(20), Duration.ofMillis(20), 10, Executors.newVirtualThreadPerTaskExecutor(), v -> true);
+
+        cache.get("k", k -> loads.incrementAndGet());
+        Thread.sleep(60);
+
+        assertThat(cache.get("k", k -> loads.incrementAndGet())).isEqualTo(2);
+    }
+
+    @Test
+    void keepsCachedValueWhenReloadIsNotCacheable() throws Exception {
+        StaleWhileRevalidateCache<String, Integer> cache = new StaleWhileRevalidateCache<>(
+                Duration.ofMillis(20), Duration.ofMinutes(1), 10, Executors.newVirtualThreadPerTaskExecutor(), v -> v > 0);
+
+        cache.get("k", k -> 1);
+        Thread.sleep(40);
+        cache.get("k", k -> -1);
+        Thread.sleep(40);
+
+        assertThat(cache.get("k", k -> -1)).isEqualTo(1);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedKeyBeyondCapacity() {
+        AtomicInteger loads = new AtomicInteger();
+        StaleWhileRevalidateCache<String, Integer> cache = new StaleWhileRevalidateCache<>(
+                Duration.ofMinutes(1), Duration.ofMinutes(1), 2, Executors.newVirtualThreadPerTaskExecutor(), v -> true);
+
+        cache.get("a", k -> loads.incrementAndGet());
+        cache.get("b", k -> loads.incrementAndGet());
+        cache.get("a", k -> loads.incrementAndGet());
+        cache.get("c", k -> loads.incrementAndGet());
+        cache.get("a", k -> loads.incrementAndGet());
+        cache.get("b", k -> loads.incrementAndGet());
+
+        assertThat(loads.get()).isEqualTo(4);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
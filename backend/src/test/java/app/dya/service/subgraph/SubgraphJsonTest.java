@@ -0,0 +1,58 @@
+package app.dya.service.subgraph;
+
+import app.dya.math.FixedDecimal;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SubgraphJsonTest {
+
+    private static List<String> readIds(String json) throws IOException {
+        return SubgraphJson.readData(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "users",
+                parser -> SubgraphJson.readList(parser, p -> {
+                    String id = null;
+                    if (SubgraphJson.isObject(p)) {
+                        for (String field; (field = SubgraphJson.nextField(p)) != null; ) {
+                            if (field.equals("id")) id = SubgraphJson.text(p);
+                            else p.skipChildren();
+                        }
+                    }
+                    return id;
+                }), List.of());
+    }
+
+    @Test
+    void readsRequestedFieldAndSkipsEverythingElse() throws IOException {
+        String json = """
+                {"extensions":{"x":[1,{"y":2}]},
+                 "data":{"other":{"users":[{"id":"wrong"}]},
+                         "users":[{"meta":{"id":"nested"},"id":"0xa"},null,{"id":"0xb","tags":["id"]}]},
+                 "errors":[{"message":"partial"}]}""";
+
+        assertThat(readIds(json)).containsExactly("0xa", "0xb");
+    }
+
+    @Test
+    void returnsAbsentValueWithoutData() throws IOException {
+        assertThat(readIds("")).isEmpty();
+        assertThat(readIds("{\"errors\":[{\"message\":\"boom\"}]}")).isEmpty();
+        assertThat(readIds("{\"data\":null}")).isEmpty();
+        assertThat(readIds("{\"data\":{\"users\":null}}")).isEmpty();
+    }
+
+    @Test
+    void decodesNumbersGivenAsStringsOrJsonNumbers() throws IOException {
+        String json = "{\"data\":{\"values\":[\"1.50\", 2, null]}}";
+        List<BigDecimal> values = SubgraphJson.readData(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                "values", parser -> SubgraphJson.readList(parser,
+                        p -> SubgraphJson.decimal(p, FixedDecimal.ZERO).toBigDecimal()), List.of());
+
+        assertThat(values).containsExactly(new BigDecimal("1.50"), new BigDecimal("2"), BigDecimal.ZERO);
+    }
+}
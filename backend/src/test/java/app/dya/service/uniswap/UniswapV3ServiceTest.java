@@ -1,6 +1,7 @@
 package app.dya.service.uniswap;
 
 import app.dya.api.dto.PortfolioDTO;
+import app.dya.price.ObservedPrices;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.MediaType;
@@ -9,8 +10,11 @@ import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
@@ -90,5 +94,88 @@ class UniswapV3ServiceTest {
         List<PortfolioDTO.PositionDTO> positions = service.getPositions("0xabc");
         assertThat(positions).isEmpty();
     }
-}
 
+    @Test
+    void splitsBatchedPositionsByOwner() {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        UniswapV3Service service = buildService(restTemplate);
+
+        String body = """
+            {
+              "data": {
+                "positions": [
+                  {
+                    "id": "1",
+                    "owner": "0xaaa",
+                    "liquidity": "1000",
+                    "pool": {
+                      "liquidity": "10000",
+                      "totalValueLockedToken0": "100",
+                      "totalValueLockedToken1": "200",
+                      "token0": { "symbol": "ETH", "derivedUSD": "2" },
+                      "token1": { "symbol": "USDC", "derivedUSD": "1" },
+                      "feeTier": "500",
+                      "totalValueLockedUSD": "50000",
+                      "feesUSD": "50"
+                    }
+                  }
+                ]
+              }
+            }
+            """;
+
+        server.expect(requestTo("http://example.com"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().string(containsString("owner_in")))
+                .andRespond(withSuccess(body, MediaType.APPLICATION_JSON));
+
+        Map<String, List<PortfolioDTO.PositionDTO>> positions = service.getPositionsByOwner(List.of("0xAAA", "0xbbb"));
+        server.verify();
+
+        assertThat(positions).containsOnlyKeys("0xaaa", "0xbbb");
+        assertThat(positions.get("0xaaa")).hasSize(1);
+        assertThat(positions.get("0xaaa").get(0).usdValue()).isEqualByComparingTo(new BigDecimal("40"));
+        assertThat(positions.get("0xbbb")).isEmpty();
+    }
+
+    @Test
+    void publishesDerivedTokenPrices() {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        ObservedPrices observed = new ObservedPrices(120, 0.02, 100, 1);
+        UniswapV3Service service = new UniswapV3Service(new RestTemplateBuilder() {
+            @Override
+            public RestTemplate build() {
+                return restTemplate;
+            }
+        }, "http://example.com", observed);
+
+        String body = """
+            {
+              "data": {
+                "positions": [
+                  {
+                    "liquidity": "0",
+                    "pool": {
+                      "liquidity": "10000",
+                      "token0": { "id": "0xc02aaa39b223fe8d0a0e5c4f27ead9083c756cc2", "symbol": "WETH", "derivedUSD": "2500" },
+                      "token1": { "symbol": "USDC", "derivedUSD": "1" },
+                      "feeTier": "500"
+                    }
+                  }
+                ]
+              }
+            }
+            """;
+        server.expect(requestTo("http://example.com"))
+                .andExpect(content().string(containsString("token0 { id symbol")))
+                .andRespond(withSuccess(body, MediaType.APPLICATION_JSON));
+
+        service.getPositions("0xabc");
+
+        assertThat(observed.consensus("0xC02aaA39b223FE8D0A0e5C4F27eAD9083C756Cc2"))
+                .hasValueSatisfying(o -> assertThat(o.usd()).isEqualTo(2500.0));
+        assertThat(observed.knows("0xa0b86991c6218b36c1d19d4a2e9eb0ce3606eb48")).isFalse();
+    }
+}